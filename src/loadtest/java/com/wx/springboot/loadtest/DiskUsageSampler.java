@@ -0,0 +1,82 @@
+package com.wx.springboot.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 定时统计存储目录下各子目录（temp、real、store）占用的字节数
+ */
+class DiskUsageSampler {
+
+    private final File root;
+    private final long startNanos;
+    private final List<Map<String, Object>> samples = new ArrayList<>();
+
+    DiskUsageSampler(File root, long startNanos) {
+        this.root = root;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * @return 本次采样结果，存储目录未知时返回 null
+     */
+    synchronized Map<String, Object> sample() {
+        if (root == null) {
+            return null;
+        }
+        Map<String, Object> sample = new LinkedHashMap<>();
+        sample.put("seconds", (System.nanoTime() - startNanos) / 1_000_000_000L);
+        long total = 0;
+        File[] dirs = root.listFiles(File::isDirectory);
+        if (dirs != null) {
+            for (File dir : dirs) {
+                long size = size(dir.toPath());
+                sample.put(dir.getName(), size);
+                total += size;
+            }
+        }
+        sample.put("total", total);
+        samples.add(sample);
+        return sample;
+    }
+
+    synchronized List<Map<String, Object>> getSamples() {
+        return new ArrayList<>(samples);
+    }
+
+    private static long size(Path dir) {
+        long[] size = new long[1];
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    size[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // 遍历过程中文件被合并或删除
+                    if (e instanceof NoSuchFileException) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return size[0];
+    }
+}
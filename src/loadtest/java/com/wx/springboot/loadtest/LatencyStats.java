@@ -0,0 +1,78 @@
+package com.wx.springboot.loadtest;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 按接口统计请求数、失败数和延迟分位数
+ */
+class LatencyStats {
+
+    private final ConcurrentMap<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+    /**
+     * @param endpoint 接口名
+     * @param nanos    耗时
+     * @param success  是否成功
+     */
+    void record(String endpoint, long nanos, boolean success) {
+        recorders.computeIfAbsent(endpoint, key -> new Recorder()).record(nanos, success);
+    }
+
+    /**
+     * @param elapsedNanos 压测总时长，用于计算每秒请求数
+     * @return 接口名 -> 统计结果
+     */
+    Map<String, Map<String, Object>> report(long elapsedNanos) {
+        Map<String, Map<String, Object>> report = new LinkedHashMap<>();
+        recorders.keySet().stream().sorted().forEach(endpoint -> report.put(endpoint, recorders.get(endpoint).report(elapsedNanos)));
+        return report;
+    }
+
+    private static class Recorder {
+
+        private long[] samples = new long[1024];
+        private int count;
+        private long errors;
+
+        synchronized void record(long nanos, boolean success) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = nanos;
+            if (!success) {
+                errors++;
+            }
+        }
+
+        synchronized Map<String, Object> report(long elapsedNanos) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("count", count);
+            report.put("errors", errors);
+            report.put("rps", round(count / (elapsedNanos / 1e9)));
+            report.put("meanMs", count == 0 ? 0 : round(Arrays.stream(sorted).average().orElse(0) / 1e6));
+            report.put("p50Ms", percentile(sorted, 0.50));
+            report.put("p99Ms", percentile(sorted, 0.99));
+            report.put("p999Ms", percentile(sorted, 0.999));
+            report.put("maxMs", count == 0 ? 0 : round(sorted[count - 1] / 1e6));
+            return report;
+        }
+
+        private static double percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return round(sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6);
+        }
+
+        private static double round(double value) {
+            return Math.round(value * 100) / 100.0;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.wx.springboot.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测计数
+ */
+class LoadTestCounters {
+
+    static final String FILES_COMPLETED = "filesCompleted";
+    static final String FILES_FAILED = "filesFailed";
+    static final String BYTES_UPLOADED = "bytesUploaded";
+    static final String CHUNKS_SKIPPED = "chunksSkipped";
+    static final String RETRIES = "retries";
+    static final String ABORTS = "aborts";
+    static final String INTERRUPTS = "interrupts";
+    static final String COMBINE_REJECTED = "combineRejected";
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    void increment(String name) {
+        add(name, 1);
+    }
+
+    void add(String name, long value) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(value);
+    }
+
+    long get(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    Map<String, Long> report() {
+        Map<String, Long> report = new LinkedHashMap<>();
+        for (String name : new String[]{FILES_COMPLETED, FILES_FAILED, BYTES_UPLOADED, CHUNKS_SKIPPED, RETRIES,
+                ABORTS, INTERRUPTS, COMBINE_REJECTED}) {
+            report.put(name, get(name));
+        }
+        return report;
+    }
+}
@@ -0,0 +1,190 @@
+package com.wx.springboot.loadtest;
+
+import org.springframework.util.unit.DataSize;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 压测参数，命令行格式为 --name=value
+ * <p>
+ * 带 "." 的参数（如 --hzero.file.execution.virtual-threads=true）原样传给内嵌服务端
+ */
+class LoadTestOptions {
+
+    /**
+     * 断点续传方式
+     */
+    enum Resume {
+        /**
+         * 每个分片上传前调用 check-block
+         */
+        CHECK_BLOCK,
+        /**
+         * 文件开始上传前调用一次 status，与 index.html 一致
+         */
+        STATUS,
+        /**
+         * 不检查，直接上传
+         */
+        NONE
+    }
+
+    /**
+     * 服务端地址，为空时在本进程内启动服务端
+     */
+    String url;
+    /**
+     * 服务端存储目录，用于统计磁盘占用；内嵌服务端时默认为临时目录，结束后删除
+     */
+    String root;
+    long tenantId = 1;
+    int clients = 50;
+    /**
+     * 每个客户端依次上传的文件数
+     */
+    int files = 1;
+    long fileSize = DataSize.ofMegabytes(20).toBytes();
+    /**
+     * 与 index.html 的 blockSize 一致
+     */
+    long chunkSize = DataSize.ofMegabytes(1).toBytes();
+    /**
+     * 每个客户端同时上传的分片数，与 webuploader 的 threads 一致
+     */
+    int threads = 3;
+    Resume resume = Resume.CHECK_BLOCK;
+    /**
+     * 分片上传失败后的重试次数，与 webuploader 的 chunkRetry 一致
+     */
+    int retries = 2;
+    long retryDelayMillis = 500;
+    /**
+     * 分片请求发送一半后断开连接的概率
+     */
+    double abortRate;
+    /**
+     * 文件上传一半后中断、再从头续传的概率，模拟刷新页面
+     */
+    double interruptRate;
+    /**
+     * 合并接口：combine 或 fragment-combine
+     */
+    String combine = "combine";
+    long combineTimeoutSeconds = 600;
+    /**
+     * 客户端在该时间内均匀启动
+     */
+    long rampUpSeconds;
+    long sampleIntervalSeconds = 1;
+    long timeoutMillis = 60_000;
+    String output = "target/loadtest-result.json";
+    final List<String> serverProperties = new ArrayList<>();
+
+    static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Illegal argument : " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (name.indexOf('.') >= 0) {
+                options.serverProperties.add(name + "=" + value);
+                continue;
+            }
+            options.set(name, value);
+        }
+        return options;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "url":
+                url = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                break;
+            case "root":
+                root = value;
+                break;
+            case "tenantId":
+                tenantId = Long.parseLong(value);
+                break;
+            case "clients":
+                clients = Integer.parseInt(value);
+                break;
+            case "files":
+                files = Integer.parseInt(value);
+                break;
+            case "fileSize":
+                fileSize = DataSize.parse(value).toBytes();
+                break;
+            case "chunkSize":
+                chunkSize = DataSize.parse(value).toBytes();
+                break;
+            case "threads":
+                threads = Integer.parseInt(value);
+                break;
+            case "resume":
+                resume = Resume.valueOf(value.toUpperCase().replace('-', '_'));
+                break;
+            case "retries":
+                retries = Integer.parseInt(value);
+                break;
+            case "retryDelayMillis":
+                retryDelayMillis = Long.parseLong(value);
+                break;
+            case "abortRate":
+                abortRate = Double.parseDouble(value);
+                break;
+            case "interruptRate":
+                interruptRate = Double.parseDouble(value);
+                break;
+            case "combine":
+                if (!"combine".equals(value) && !"fragment-combine".equals(value)) {
+                    throw new IllegalArgumentException("Illegal combine endpoint : " + value);
+                }
+                combine = value;
+                break;
+            case "combineTimeoutSeconds":
+                combineTimeoutSeconds = Long.parseLong(value);
+                break;
+            case "rampUpSeconds":
+                rampUpSeconds = Long.parseLong(value);
+                break;
+            case "sampleIntervalSeconds":
+                sampleIntervalSeconds = Long.parseLong(value);
+                break;
+            case "timeoutMillis":
+                timeoutMillis = Long.parseLong(value);
+                break;
+            case "output":
+                output = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option : " + name);
+        }
+    }
+
+    int chunkCount() {
+        return (int) Math.max(1, (fileSize + chunkSize - 1) / chunkSize);
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("clients", clients);
+        map.put("files", files);
+        map.put("fileSize", fileSize);
+        map.put("chunkSize", chunkSize);
+        map.put("threads", threads);
+        map.put("resume", resume);
+        map.put("retries", retries);
+        map.put("abortRate", abortRate);
+        map.put("interruptRate", interruptRate);
+        map.put("combine", combine);
+        map.put("rampUpSeconds", rampUpSeconds);
+        map.put("serverProperties", serverProperties);
+        return map;
+    }
+}
@@ -0,0 +1,396 @@
+package com.wx.springboot.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wx.springboot.domain.ChunkStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 模拟一个 webuploader 客户端：分片并发上传、续传检查、失败重试，全部分片上传后调用合并接口并等待合并完成
+ * <p>
+ * 所有分片内容相同（共享同一块随机数据），不声明文件摘要，服务端不做内容校验
+ */
+class UploadClient {
+
+    private static final String BOUNDARY = "----fragment-loadtest-boundary";
+    private static final String CRLF = "\r\n";
+    private static final long POLL_INTERVAL_MILLIS = 200;
+
+    private final LoadTestOptions options;
+    private final String baseUrl;
+    private final byte[] chunkData;
+    private final ExecutorService chunkExecutor;
+    private final LatencyStats stats;
+    private final LoadTestCounters counters;
+    private final ObjectMapper objectMapper;
+
+    UploadClient(LoadTestOptions options, String baseUrl, byte[] chunkData, ExecutorService chunkExecutor,
+                 LatencyStats stats, LoadTestCounters counters, ObjectMapper objectMapper) {
+        this.options = options;
+        this.baseUrl = baseUrl + "/v1/" + options.tenantId + "/upload/";
+        this.chunkData = chunkData;
+        this.chunkExecutor = chunkExecutor;
+        this.stats = stats;
+        this.counters = counters;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @param client 客户端编号
+     * @param file   文件编号
+     * @return 是否上传并合并成功
+     */
+    boolean uploadFile(int client, int file) throws InterruptedException {
+        String guid = UUID.randomUUID().toString().replace("-", "");
+        String fileName = "loadtest-" + client + "-" + file + ".bin";
+        int chunks = options.chunkCount();
+        if (chunks > 1 && ThreadLocalRandom.current().nextDouble() < options.interruptRate) {
+            // 上传一半后中断，再从头续传
+            uploadChunks(guid, fileName, chunks / 2);
+            counters.increment(LoadTestCounters.INTERRUPTS);
+        }
+        return uploadChunks(guid, fileName, chunks) && combine(guid, fileName);
+    }
+
+    /**
+     * 按 threads 并发上传前 limit 个分片，任一分片重试后仍失败时停止
+     */
+    private boolean uploadChunks(String guid, String fileName, int limit) throws InterruptedException {
+        BitSet received = options.resume == LoadTestOptions.Resume.STATUS ? status(guid) : new BitSet();
+        if (received == null) {
+            return false;
+        }
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Future<?>> workers = new ArrayList<>(options.threads);
+        for (int i = 0; i < options.threads; i++) {
+            workers.add(chunkExecutor.submit(() -> {
+                for (int chunk = next.getAndIncrement(); chunk < limit && !failed.get(); chunk = next.getAndIncrement()) {
+                    if (received.get(chunk)) {
+                        counters.increment(LoadTestCounters.CHUNKS_SKIPPED);
+                    } else if (!sendChunk(guid, fileName, chunk)) {
+                        failed.set(true);
+                    }
+                }
+            }));
+        }
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                failed.set(true);
+            }
+        }
+        return !failed.get();
+    }
+
+    /**
+     * @return 分片是否已在服务端
+     */
+    private boolean sendChunk(String guid, String fileName, int chunk) {
+        long length = Math.min(options.chunkSize, options.fileSize - chunk * options.chunkSize);
+        for (int attempt = 0; attempt <= options.retries; attempt++) {
+            if (attempt > 0) {
+                counters.increment(LoadTestCounters.RETRIES);
+                if (!sleep(options.retryDelayMillis * attempt)) {
+                    return false;
+                }
+            }
+            try {
+                if (options.resume == LoadTestOptions.Resume.CHECK_BLOCK && checkBlock(guid, chunk, length)) {
+                    counters.increment(LoadTestCounters.CHUNKS_SKIPPED);
+                    return true;
+                }
+                if (ThreadLocalRandom.current().nextDouble() < options.abortRate) {
+                    abortSave(guid, fileName, chunk, length);
+                    counters.increment(LoadTestCounters.ABORTS);
+                    continue;
+                }
+                if (save(guid, fileName, chunk, length)) {
+                    counters.add(LoadTestCounters.BYTES_UPLOADED, length);
+                    return true;
+                }
+            } catch (IOException e) {
+                // 连接失败或超时，已计入接口错误数
+            }
+        }
+        return false;
+    }
+
+    private BitSet status(String guid) {
+        for (int attempt = 0; attempt <= options.retries; attempt++) {
+            try {
+                Response response = execute("status", "GET", "status?guid=" + guid, null, null);
+                if (response.isSuccess()) {
+                    BitSet received = new BitSet();
+                    for (int[] range : objectMapper.readValue(response.body, ChunkStatus.class).getRanges()) {
+                        received.set(range[0], range[1] + 1);
+                    }
+                    return received;
+                }
+            } catch (IOException e) {
+                // 已计入接口错误数
+            }
+            if (!sleep(options.retryDelayMillis * (attempt + 1))) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    private boolean checkBlock(String guid, int chunk, long length) throws IOException {
+        Map<String, Object> form = new LinkedHashMap<>();
+        form.put("chunk", chunk);
+        form.put("chunkSize", length);
+        form.put("guid", guid);
+        Response response = execute("check-block", "POST", "check-block", "application/x-www-form-urlencoded",
+                encode(form).getBytes(StandardCharsets.UTF_8));
+        if (!response.isSuccess()) {
+            throw new IOException("check-block status " + response.status);
+        }
+        return "1".equals(response.body.trim());
+    }
+
+    private boolean save(String guid, String fileName, int chunk, long length) throws IOException {
+        byte[][] multipart = multipart(guid, fileName, chunk);
+        long start = System.nanoTime();
+        HttpURLConnection connection = open("POST", "save", "multipart/form-data; boundary=" + BOUNDARY);
+        boolean success = false;
+        try {
+            connection.setFixedLengthStreamingMode(multipart[0].length + length + multipart[1].length);
+            try (OutputStream os = connection.getOutputStream()) {
+                os.write(multipart[0]);
+                os.write(chunkData, 0, (int) length);
+                os.write(multipart[1]);
+            }
+            Response response = read(connection);
+            success = response.isSuccess();
+            return success;
+        } finally {
+            stats.record("save", System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * 发送一半请求体后断开连接
+     */
+    private void abortSave(String guid, String fileName, int chunk, long length) throws IOException {
+        byte[][] multipart = multipart(guid, fileName, chunk);
+        HttpURLConnection connection = open("POST", "save", "multipart/form-data; boundary=" + BOUNDARY);
+        try {
+            connection.setFixedLengthStreamingMode(multipart[0].length + length + multipart[1].length);
+            OutputStream os = connection.getOutputStream();
+            os.write(multipart[0]);
+            os.write(chunkData, 0, (int) (length / 2));
+            os.flush();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * 调用合并接口；异步合并时轮询合并任务直到结束，队列已满时按 Retry-After 重新提交
+     */
+    private boolean combine(String guid, String fileName) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(options.combineTimeoutSeconds);
+        boolean success = false;
+        try {
+            while (System.nanoTime() < deadline) {
+                Response response = submitCombine(guid, fileName);
+                if (response.status == HttpURLConnection.HTTP_UNAVAILABLE) {
+                    counters.increment(LoadTestCounters.COMBINE_REJECTED);
+                    if (!sleep(TimeUnit.SECONDS.toMillis(response.retryAfter(1)))) {
+                        return false;
+                    }
+                    continue;
+                }
+                if (response.status == HttpURLConnection.HTTP_ACCEPTED) {
+                    success = awaitCombineJob(objectMapper.readTree(response.body).path("jobId").asText(), deadline);
+                } else {
+                    success = response.isSuccess();
+                }
+                return success;
+            }
+            return false;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            stats.record("combine-total", System.nanoTime() - start, success);
+        }
+    }
+
+    private Response submitCombine(String guid, String fileName) throws IOException {
+        Map<String, Object> query = new LinkedHashMap<>();
+        query.put("guid", guid);
+        query.put("fileName", fileName);
+        if ("fragment-combine".equals(options.combine)) {
+            return execute(options.combine, "POST", options.combine + "?" + encode(query), "application/json",
+                    "{}".getBytes(StandardCharsets.UTF_8));
+        }
+        return execute(options.combine, "POST", options.combine, "application/x-www-form-urlencoded",
+                encode(query).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private boolean awaitCombineJob(String jobId, long deadline) throws IOException {
+        while (System.nanoTime() < deadline) {
+            Response response = execute("combine-jobs", "GET", "combine-jobs/" + jobId, null, null);
+            if (response.isSuccess()) {
+                String status = objectMapper.readTree(response.body).path("status").asText();
+                if ("SUCCESS".equals(status)) {
+                    return true;
+                }
+                if ("FAILED".equals(status) || "REJECTED".equals(status)) {
+                    return false;
+                }
+            }
+            if (!sleep(POLL_INTERVAL_MILLIS)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 表单字段及文件头、结束分隔符
+     */
+    private byte[][] multipart(String guid, String fileName, int chunk) {
+        StringBuilder head = new StringBuilder();
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("guid", guid);
+        fields.put("name", fileName);
+        fields.put("size", options.fileSize);
+        fields.put("chunks", options.chunkCount());
+        fields.put("chunk", chunk);
+        fields.forEach((name, value) -> head.append("--").append(BOUNDARY).append(CRLF)
+                .append("Content-Disposition: form-data; name=\"").append(name).append('"').append(CRLF)
+                .append(CRLF).append(value).append(CRLF));
+        head.append("--").append(BOUNDARY).append(CRLF)
+                .append("Content-Disposition: form-data; name=\"file\"; filename=\"").append(fileName).append('"').append(CRLF)
+                .append("Content-Type: application/octet-stream").append(CRLF).append(CRLF);
+        String tail = CRLF + "--" + BOUNDARY + "--" + CRLF;
+        return new byte[][]{head.toString().getBytes(StandardCharsets.UTF_8), tail.getBytes(StandardCharsets.UTF_8)};
+    }
+
+    private Response execute(String endpoint, String method, String path, String contentType, byte[] body) throws IOException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            HttpURLConnection connection = open(method, path, contentType);
+            if (body != null) {
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream os = connection.getOutputStream()) {
+                    os.write(body);
+                }
+            }
+            Response response = read(connection);
+            // 合并队列已满属于正常的流量控制，不计为错误
+            success = response.isSuccess() || response.status == HttpURLConnection.HTTP_UNAVAILABLE;
+            return response;
+        } finally {
+            stats.record(endpoint, System.nanoTime() - start, success);
+        }
+    }
+
+    private HttpURLConnection open(String method, String path, String contentType) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout((int) options.timeoutMillis);
+        connection.setReadTimeout((int) options.timeoutMillis);
+        connection.setUseCaches(false);
+        if (contentType != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType);
+        }
+        return connection;
+    }
+
+    /**
+     * 读完响应体，连接才能复用
+     */
+    private static Response read(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        InputStream is = status >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream() : connection.getInputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (is != null) {
+            try (InputStream in = is) {
+                byte[] buffer = new byte[8192];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    body.write(buffer, 0, n);
+                }
+            }
+        }
+        return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8),
+                connection.getHeaderField("Retry-After"));
+    }
+
+    private static String encode(Map<String, Object> params) throws UnsupportedEncodingException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(entry.getKey()).append('=').append(URLEncoder.encode(String.valueOf(entry.getValue()), "UTF-8"));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return 被中断时返回 false
+     */
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static class Response {
+
+        private final int status;
+        private final String body;
+        private final String retryAfter;
+
+        Response(int status, String body, String retryAfter) {
+            this.status = status;
+            this.body = body;
+            this.retryAfter = retryAfter;
+        }
+
+        boolean isSuccess() {
+            return status >= HttpURLConnection.HTTP_OK && status < HttpURLConnection.HTTP_MULT_CHOICE;
+        }
+
+        long retryAfter(long defaultSeconds) {
+            try {
+                return retryAfter == null ? defaultSeconds : Long.parseLong(retryAfter.trim());
+            } catch (NumberFormatException e) {
+                return defaultSeconds;
+            }
+        }
+    }
+}
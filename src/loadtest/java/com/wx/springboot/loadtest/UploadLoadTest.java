@@ -0,0 +1,195 @@
+package com.wx.springboot.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.wx.springboot.SpringbootApplication;
+import com.wx.springboot.config.FragmentExecutors;
+
+import org.apache.commons.io.FileUtils;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分片上传端到端压测：模拟 index.html（webuploader）客户端调用 check-block、save、combine/fragment-combine
+ * <pre>
+ * mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--clients=200 --fileSize=50MB --chunkSize=5MB --abortRate=0.01"
+ * </pre>
+ * 未指定 --url 时在本进程内启动服务端（随机端口、临时目录），带 "." 的参数作为服务端配置，
+ * 如 --hzero.file.execution.virtual-threads=true、--spring.profiles.active=reactive；
+ * 结果输出到控制台和 --output（默认 target/loadtest-result.json），内嵌服务端时记录 JDK 版本和实际的线程模式
+ */
+public class UploadLoadTest {
+
+    private static final double MB = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        // 每个分片线程一个持久连接
+        System.setProperty("http.maxConnections", String.valueOf(options.clients * options.threads));
+        File tempRoot = null;
+        ConfigurableApplicationContext server = null;
+        try {
+            String url = options.url;
+            Map<String, Object> serverInfo = null;
+            if (url == null) {
+                if (options.root == null) {
+                    tempRoot = Files.createTempDirectory("fragment-loadtest").toFile();
+                    options.root = tempRoot.getPath();
+                }
+                server = startServer(options);
+                url = "http://127.0.0.1:" + server.getEnvironment().getProperty("local.server.port");
+                serverInfo = describe(server);
+            }
+            run(options, url, serverInfo);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+            if (tempRoot != null) {
+                FileUtils.deleteDirectory(tempRoot);
+            }
+        }
+    }
+
+    /**
+     * multipart 大小限制默认 1MB，按分片大小放开
+     */
+    private static ConfigurableApplicationContext startServer(LoadTestOptions options) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("hzero.file.root-path", options.root);
+        properties.put("spring.servlet.multipart.max-file-size", options.chunkSize + "B");
+        properties.put("spring.servlet.multipart.max-request-size", (options.chunkSize + 64 * 1024) + "B");
+        properties.put("logging.level.root", "WARN");
+        for (String property : options.serverProperties) {
+            int index = property.indexOf('=');
+            properties.put(property.substring(0, index), property.substring(index + 1));
+        }
+        List<String> args = new ArrayList<>();
+        properties.forEach((name, value) -> args.add("--" + name + "=" + value));
+        return new SpringApplicationBuilder(SpringbootApplication.class)
+                .bannerMode(Banner.Mode.OFF)
+                .run(args.toArray(new String[0]));
+    }
+
+    /**
+     * 记录内嵌服务端实际使用的线程模式，JDK 21 以下开启虚拟线程时会回退为平台线程
+     */
+    private static Map<String, Object> describe(ConfigurableApplicationContext server) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("javaVersion", System.getProperty("java.version"));
+        info.put("threads", server.getBean(FragmentExecutors.class).isVirtual() ? "virtual" : "platform");
+        return info;
+    }
+
+    private static void run(LoadTestOptions options, String url, Map<String, Object> serverInfo) throws Exception {
+        LatencyStats stats = new LatencyStats();
+        LoadTestCounters counters = new LoadTestCounters();
+        ObjectMapper objectMapper = new ObjectMapper();
+        byte[] chunkData = new byte[(int) Math.min(options.chunkSize, options.fileSize)];
+        ThreadLocalRandom.current().nextBytes(chunkData);
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(options.clients);
+        ExecutorService chunkExecutor = Executors.newFixedThreadPool(options.clients * options.threads);
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        UploadClient client = new UploadClient(options, url, chunkData, chunkExecutor, stats, counters, objectMapper);
+        long start = System.nanoTime();
+        DiskUsageSampler disk = new DiskUsageSampler(options.root == null ? null : new File(options.root), start);
+        sampler.scheduleAtFixedRate(() -> printProgress(options, counters, disk.sample(), start),
+                options.sampleIntervalSeconds, options.sampleIntervalSeconds, TimeUnit.SECONDS);
+        System.out.printf("Load test %s : %d clients x %d files, file %.1f MB, chunk %.1f MB, %d threads per client%n",
+                url, options.clients, options.files, options.fileSize / MB, options.chunkSize / MB, options.threads);
+        List<Future<?>> futures = new ArrayList<>(options.clients);
+        try {
+            for (int i = 0; i < options.clients; i++) {
+                int index = i;
+                long delay = options.clients <= 1 ? 0 : TimeUnit.SECONDS.toMillis(options.rampUpSeconds) * index / (options.clients - 1);
+                futures.add(clientExecutor.submit(() -> {
+                    Thread.sleep(delay);
+                    for (int file = 0; file < options.files; file++) {
+                        counters.increment(client.uploadFile(index, file)
+                                ? LoadTestCounters.FILES_COMPLETED : LoadTestCounters.FILES_FAILED);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            sampler.shutdownNow();
+            clientExecutor.shutdownNow();
+            chunkExecutor.shutdownNow();
+        }
+        long elapsed = System.nanoTime() - start;
+        disk.sample();
+        report(options, url, serverInfo, stats, counters, disk, elapsed, objectMapper);
+    }
+
+    private static void printProgress(LoadTestOptions options, LoadTestCounters counters, Map<String, Object> disk, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long bytes = counters.get(LoadTestCounters.BYTES_UPLOADED);
+        StringBuilder line = new StringBuilder(String.format("[%5.0fs] files %d/%d (failed %d), uploaded %.1f MB (%.1f MB/s)",
+                seconds, counters.get(LoadTestCounters.FILES_COMPLETED), options.clients * options.files,
+                counters.get(LoadTestCounters.FILES_FAILED), bytes / MB, bytes / MB / seconds));
+        if (disk != null) {
+            line.append(", disk");
+            disk.forEach((name, value) -> {
+                if (!"seconds".equals(name)) {
+                    line.append(String.format(" %s %.1f MB", name, ((Number) value).longValue() / MB));
+                }
+            });
+        }
+        System.out.println(line);
+    }
+
+    private static void report(LoadTestOptions options, String url, Map<String, Object> serverInfo, LatencyStats stats,
+                               LoadTestCounters counters, DiskUsageSampler disk, long elapsed, ObjectMapper objectMapper) throws Exception {
+        double seconds = elapsed / 1e9;
+        Map<String, Map<String, Object>> endpoints = stats.report(elapsed);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("url", url);
+        if (serverInfo != null) {
+            result.put("server", serverInfo);
+        }
+        result.put("options", options.toMap());
+        result.put("seconds", Math.round(seconds * 100) / 100.0);
+        result.put("throughputMBps", Math.round(counters.get(LoadTestCounters.BYTES_UPLOADED) / MB / seconds * 100) / 100.0);
+        result.put("filesPerSecond", Math.round(counters.get(LoadTestCounters.FILES_COMPLETED) / seconds * 100) / 100.0);
+        result.put("counters", counters.report());
+        result.put("endpoints", endpoints);
+        result.put("disk", disk.getSamples());
+
+        System.out.printf("%nFinished in %.1fs, throughput %s MB/s, %s files/s%n", seconds, result.get("throughputMBps"),
+                result.get("filesPerSecond"));
+        if (serverInfo != null) {
+            System.out.println("server " + serverInfo);
+        }
+        System.out.println(counters.report());
+        System.out.printf("%-18s %8s %7s %9s %9s %9s %9s %9s%n", "endpoint", "count", "errors", "rps", "p50(ms)",
+                "p99(ms)", "p999(ms)", "max(ms)");
+        endpoints.forEach((endpoint, report) -> System.out.printf("%-18s %8s %7s %9s %9s %9s %9s %9s%n", endpoint,
+                report.get("count"), report.get("errors"), report.get("rps"), report.get("p50Ms"), report.get("p99Ms"),
+                report.get("p999Ms"), report.get("maxMs")));
+
+        File output = new File(options.output);
+        if (output.getParentFile() != null) {
+            FileUtils.forceMkdir(output.getParentFile());
+        }
+        objectMapper.enable(SerializationFeature.INDENT_OUTPUT).writeValue(output, result);
+        System.out.println("Result written to " + output.getAbsolutePath());
+    }
+}
@@ -1,22 +1,93 @@
-//package com.wx.springboot.autoconfigure;
-//
-//import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
-//import org.springframework.context.annotation.Bean;
-//import org.springframework.context.annotation.ComponentScan;
-//import org.springframework.context.annotation.Configuration;
-//
-///**
-// * 包扫描
-// *
-// * @author shuangfei.zhu@hand-china.com 2020/2/03 13:31
-// */
-//@Configuration
-//@ComponentScan(basePackages = "org.hzero.fragment")
-//public class FragmentAutoConfig {
-//
-//    @Bean
-//    @ConditionalOnMissingBean
-//    public FragmentInitializeConfig fragmentInitializeConfig() {
-//        return new FragmentInitializeConfig();
-//    }
-//}
\ No newline at end of file
+package com.wx.springboot.autoconfigure;
+
+import com.wx.springboot.config.ByteBufferPool;
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.config.FragmentExecutors;
+import com.wx.springboot.config.FragmentMetrics;
+import com.wx.springboot.domain.UploadSession;
+import com.wx.springboot.service.DiskAdmissionService;
+import com.wx.springboot.service.UploadSessionRegistry;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 分片上传公共组件
+ *
+ * @author shuangfei.zhu@hand-china.com 2020/2/03 13:31
+ */
+@Configuration
+public class FragmentAutoConfig {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public ByteBufferPool byteBufferPool(FragmentConfig fragmentConfig) {
+        FragmentConfig.Upload upload = fragmentConfig.getUpload();
+        return new ByteBufferPool(upload.getBufferSize(), upload.getBufferPoolSize(), upload.getMaxDirectBuffers());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public FragmentExecutors fragmentExecutors(FragmentConfig fragmentConfig) {
+        FragmentConfig.Execution execution = fragmentConfig.getExecution();
+        return new FragmentExecutors(execution.isVirtualThreads(), execution.getDiskPermits());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public FragmentMetrics fragmentMetrics(MeterRegistry meterRegistry, FragmentConfig fragmentConfig) {
+        return new FragmentMetrics(meterRegistry, fragmentConfig.getMetrics().getMaxTenants());
+    }
+
+    /**
+     * 会话数和临时目录占用按需从会话注册表统计，不遍历磁盘
+     */
+    @Bean
+    public MeterBinder fragmentSessionMetrics(UploadSessionRegistry uploadSessionRegistry) {
+        return registry -> {
+            Gauge.builder("fragment.sessions.active", uploadSessionRegistry, sessions -> sessions.sessions().size())
+                    .description("upload sessions not combined yet")
+                    .register(registry);
+            Gauge.builder("fragment.temp.bytes", uploadSessionRegistry,
+                    sessions -> sessions.sessions().stream().mapToLong(UploadSession::getReceivedBytes).sum())
+                    .description("received chunk bytes in temp directory")
+                    .baseUnit("bytes")
+                    .register(registry);
+        };
+    }
+
+    /**
+     * 准入控制依赖 FragmentMetrics，延迟获取以免与指标注册表循环依赖
+     */
+    @Bean
+    public MeterBinder fragmentDiskMetrics(ObjectProvider<DiskAdmissionService> diskAdmissionService) {
+        return registry -> Gauge.builder("fragment.disk.reserved", diskAdmissionService,
+                        service -> service.getObject().reservedBytes())
+                .description("disk space reserved for uploads in progress")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * 虚拟线程模式下 Tomcat 每个请求一个虚拟线程，server.tomcat.threads.max 不再生效
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnProperty(prefix = "hzero.file.execution", name = "virtual-threads", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer(FragmentExecutors fragmentExecutors) {
+        return protocolHandler -> {
+            if (fragmentExecutors.isVirtual()) {
+                protocolHandler.setExecutor(fragmentExecutors.newCachedExecutor("fragment-http"));
+            }
+        };
+    }
+}
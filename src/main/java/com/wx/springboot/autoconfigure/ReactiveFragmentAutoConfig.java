@@ -0,0 +1,38 @@
+package com.wx.springboot.autoconfigure;
+
+import com.wx.springboot.config.FragmentConfig;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * 响应式上传接口组件，spring.profiles.active=reactive 时启用
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveFragmentAutoConfig {
+
+    private static final int IO_THREAD_TTL_SECONDS = 60;
+
+    /**
+     * 类路径上同时有 Tomcat 时 Spring Boot 默认选择 Tomcat，这里固定使用 Netty
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * 磁盘读写等阻塞操作的线程池
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler fragmentIoScheduler(FragmentConfig fragmentConfig) {
+        FragmentConfig.Reactive reactive = fragmentConfig.getReactive();
+        return Schedulers.newBoundedElastic(Math.max(1, reactive.getIoThreads()), Math.max(1, reactive.getIoQueueCapacity()),
+                "fragment-io", IO_THREAD_TTL_SECONDS, true);
+    }
+}
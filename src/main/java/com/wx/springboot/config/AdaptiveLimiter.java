@@ -0,0 +1,192 @@
+package com.wx.springboot.config;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 自适应并发上限（gradient 算法）
+ * <p>
+ * 按窗口统计处理耗时，与长期平均耗时比较：当前耗时超过长期耗时的 tolerance 倍时按比例降低上限（最多减半），
+ * 否则上限增加 sqrt(limit)；实际并发不到上限一半时不提高上限。超过上限的请求立即拒绝而不是排队。
+ * <p>
+ * 获取许可是一次 CAS，耗时样本记录在分段计数器中，每个窗口只有一个线程加锁计算新的上限
+ */
+public class AdaptiveLimiter {
+
+    /**
+     * 长期平均耗时的平滑窗口数
+     */
+    private static final int LONG_WINDOW = 600;
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    private static final double MEBIBYTE = 1 << 20;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final long windowNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+    private final LongAdder windowLatency = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final LongAccumulator windowMaxInFlight = new LongAccumulator(Math::max, 0);
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private volatile long windowStart = System.nanoTime();
+    /**
+     * 以下字段只在持有 updateLock 时访问
+     */
+    private double estimatedLimit;
+    private double longLatency;
+
+    /**
+     * @param name         名称，用于指标标签
+     * @param initialLimit 初始上限
+     * @param minLimit     最小上限
+     * @param maxLimit     最大上限
+     * @param tolerance    允许当前耗时超过长期耗时的倍数
+     * @param smoothing    每个窗口向新上限靠拢的比例
+     * @param windowNanos  统计窗口
+     */
+    public AdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing,
+                           long windowNanos) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.tolerance = Math.max(1, tolerance);
+        this.smoothing = Math.min(1, Math.max(0.01, smoothing));
+        this.windowNanos = windowNanos;
+        this.estimatedLimit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+    }
+
+    /**
+     * @return 许可，超过当前上限时返回 null
+     */
+    public Permit tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                windowMaxInFlight.accumulate(current + 1);
+                return new Permit(this);
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private void sample(long latencyNanos) {
+        windowLatency.add(latencyNanos);
+        windowSamples.increment();
+        long now = System.nanoTime();
+        if (now - windowStart < windowNanos || windowSamples.sum() < MIN_WINDOW_SAMPLES || !updateLock.tryLock()) {
+            return;
+        }
+        try {
+            if (now - windowStart < windowNanos) {
+                return;
+            }
+            windowStart = now;
+            long samples = windowSamples.sumThenReset();
+            long latency = windowLatency.sumThenReset();
+            long maxInFlight = windowMaxInFlight.getThenReset();
+            if (samples > 0) {
+                update((double) latency / samples, maxInFlight);
+            }
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    private void update(double shortLatency, long maxInFlight) {
+        if (longLatency == 0) {
+            longLatency = shortLatency;
+        } else {
+            longLatency += (shortLatency - longLatency) * 2 / (LONG_WINDOW + 1);
+        }
+        // 负载下降后长期耗时明显偏高，加快回落
+        if (longLatency > shortLatency * 2) {
+            longLatency *= 0.95;
+        }
+        // 实际并发远低于上限时，耗时不能说明上限是否合适
+        if (maxInFlight < estimatedLimit / 2 && shortLatency <= longLatency * tolerance) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longLatency / Math.max(1, shortLatency)));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - smoothing) + newLimit * smoothing;
+        estimatedLimit = Math.min(maxLimit, Math.max(minLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    /**
+     * 并发许可，处理结束后调用 {@link #release(long)} 或 {@link #cancel()}，重复调用忽略
+     */
+    public static class Permit {
+
+        /**
+         * 未启用并发控制时使用
+         */
+        public static final Permit NONE = new Permit(null);
+
+        private final AdaptiveLimiter limiter;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(AdaptiveLimiter limiter) {
+            this.limiter = limiter;
+        }
+
+        /**
+         * 处理成功，记录耗时
+         *
+         * @param latencyNanos 用于调整上限的耗时，如磁盘写入耗时
+         */
+        public void release(long latencyNanos) {
+            if (limiter != null && released.compareAndSet(false, true)) {
+                limiter.inFlight.decrementAndGet();
+                limiter.sample(latencyNanos);
+            }
+        }
+
+        /**
+         * 处理失败或取消，不记录耗时
+         */
+        public void cancel() {
+            if (limiter != null && released.compareAndSet(false, true)) {
+                limiter.inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 超过 1 MiB 时按每 MiB 的耗时比较，避免大小差异很大的文件互相影响判断；小分片以固定开销为主，使用原耗时。
+     * 按实际字节数折算，不按整 MiB 取整，避免耗时在整 MiB 处跳变
+     *
+     * @param nanos 耗时
+     * @param bytes 处理的字节数
+     * @return 用于调整上限的耗时
+     */
+    public static long perMebibyte(long nanos, long bytes) {
+        if (bytes <= MEBIBYTE) {
+            return nanos;
+        }
+        return (long) (nanos / (bytes / MEBIBYTE));
+    }
+}
@@ -0,0 +1,80 @@
+package com.wx.springboot.config;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 直接缓冲区池
+ * <p>
+ * 直接缓冲区分配和回收代价较高，上传和合并时复用；池空时临时分配，归还时池满则丢弃。
+ * 已分配的直接缓冲区（池中和借出的）达到上限后改用堆内缓冲区，并发再高直接内存也不会超过 bufferSize * maxDirect
+ */
+public class ByteBufferPool {
+
+    private final int bufferSize;
+    private final int maxDirect;
+    private final BlockingQueue<ByteBuffer> pool;
+    /**
+     * 已分配且未丢弃的直接缓冲区个数
+     */
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    /**
+     * @param bufferSize 缓冲区大小
+     * @param capacity   池中最多缓存的缓冲区个数
+     * @param maxDirect  最多分配的直接缓冲区个数，不小于 capacity
+     */
+    public ByteBufferPool(int bufferSize, int capacity, int maxDirect) {
+        this.bufferSize = bufferSize;
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.maxDirect = Math.max(Math.max(1, capacity), maxDirect);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return 已清空的缓冲区，直接缓冲区已达上限时为堆内缓冲区
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        while (true) {
+            int current = allocated.get();
+            if (current >= maxDirect) {
+                return ByteBuffer.allocate(bufferSize);
+            }
+            if (allocated.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        try {
+            return ByteBuffer.allocateDirect(bufferSize);
+        } catch (OutOfMemoryError e) {
+            allocated.decrementAndGet();
+            throw e;
+        }
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        buffer.clear();
+        if (!pool.offer(buffer)) {
+            allocated.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return 已分配且未丢弃的直接缓冲区个数
+     */
+    public int getAllocated() {
+        return allocated.get();
+    }
+}
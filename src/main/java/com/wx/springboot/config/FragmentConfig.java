@@ -3,6 +3,13 @@ package com.wx.springboot.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * excel配置类
  *
@@ -24,6 +31,76 @@ public class FragmentConfig {
 
     private String rootPath;
 
+    /**
+     * 分片上传配置
+     */
+    private Upload upload = new Upload();
+
+    /**
+     * 分片合并配置
+     */
+    private Merge merge = new Merge();
+
+    /**
+     * 合并任务配置
+     */
+    private Combine combine = new Combine();
+
+    /**
+     * 秒传配置
+     */
+    private Dedup dedup = new Dedup();
+
+    /**
+     * 文件处理器配置
+     */
+    private Handler handler = new Handler();
+
+    /**
+     * 响应式上传接口配置
+     */
+    private Reactive reactive = new Reactive();
+
+    /**
+     * 线程模式配置
+     */
+    private Execution execution = new Execution();
+
+    /**
+     * 监控指标配置
+     */
+    private Metrics metrics = new Metrics();
+
+    /**
+     * 请求跟踪配置
+     */
+    private Trace trace = new Trace();
+
+    /**
+     * 过期上传清理配置
+     */
+    private Sweep sweep = new Sweep();
+
+    /**
+     * 磁盘空间准入控制
+     */
+    private Disk disk = new Disk();
+
+    /**
+     * 租户限流
+     */
+    private TenantLimits tenantLimits = new TenantLimits();
+
+    /**
+     * 自适应并发控制
+     */
+    private Concurrency concurrency = new Concurrency();
+
+    /**
+     * 目录布局
+     */
+    private Layout layout = new Layout();
+
     public String getGatewayPath() {
         return gatewayPath;
     }
@@ -41,4 +118,1047 @@ public class FragmentConfig {
         this.rootPath = rootPath;
         return this;
     }
+
+    public Upload getUpload() {
+        return upload;
+    }
+
+    public FragmentConfig setUpload(Upload upload) {
+        this.upload = upload;
+        return this;
+    }
+
+    public Merge getMerge() {
+        return merge;
+    }
+
+    public FragmentConfig setMerge(Merge merge) {
+        this.merge = merge;
+        return this;
+    }
+
+    public Combine getCombine() {
+        return combine;
+    }
+
+    public FragmentConfig setCombine(Combine combine) {
+        this.combine = combine;
+        return this;
+    }
+
+    public Dedup getDedup() {
+        return dedup;
+    }
+
+    public FragmentConfig setDedup(Dedup dedup) {
+        this.dedup = dedup;
+        return this;
+    }
+
+    public Handler getHandler() {
+        return handler;
+    }
+
+    public FragmentConfig setHandler(Handler handler) {
+        this.handler = handler;
+        return this;
+    }
+
+    public Reactive getReactive() {
+        return reactive;
+    }
+
+    public FragmentConfig setReactive(Reactive reactive) {
+        this.reactive = reactive;
+        return this;
+    }
+
+    public Execution getExecution() {
+        return execution;
+    }
+
+    public FragmentConfig setExecution(Execution execution) {
+        this.execution = execution;
+        return this;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public FragmentConfig setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public Trace getTrace() {
+        return trace;
+    }
+
+    public FragmentConfig setTrace(Trace trace) {
+        this.trace = trace;
+        return this;
+    }
+
+    public Sweep getSweep() {
+        return sweep;
+    }
+
+    public FragmentConfig setSweep(Sweep sweep) {
+        this.sweep = sweep;
+        return this;
+    }
+
+    public Disk getDisk() {
+        return disk;
+    }
+
+    public FragmentConfig setDisk(Disk disk) {
+        this.disk = disk;
+        return this;
+    }
+
+    public TenantLimits getTenantLimits() {
+        return tenantLimits;
+    }
+
+    public FragmentConfig setTenantLimits(TenantLimits tenantLimits) {
+        this.tenantLimits = tenantLimits;
+        return this;
+    }
+
+    public Concurrency getConcurrency() {
+        return concurrency;
+    }
+
+    public FragmentConfig setConcurrency(Concurrency concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public FragmentConfig setLayout(Layout layout) {
+        this.layout = layout;
+        return this;
+    }
+
+    /**
+     * 分片上传配置
+     */
+    public static class Upload {
+
+        /**
+         * 分片写入磁盘时使用的直接缓冲区大小
+         */
+        private int bufferSize = 256 * 1024;
+        /**
+         * 缓冲区池最多缓存的缓冲区个数
+         */
+        private int bufferPoolSize = 64;
+        /**
+         * 最多同时分配的直接缓冲区个数（含池中缓存的），超出时改用堆内缓冲区
+         */
+        private int maxDirectBuffers = 256;
+        /**
+         * 上传过程中计算的整个文件摘要算法，如 MD5、SHA-256，为空时不计算
+         */
+        private List<String> digestAlgorithms = new ArrayList<>(Collections.singletonList("MD5"));
+        /**
+         * 分片写完后是否刷盘再响应，开启后断电也不会丢失已确认的分片
+         */
+        private boolean fsync = false;
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        public Upload setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public int getBufferPoolSize() {
+            return bufferPoolSize;
+        }
+
+        public Upload setBufferPoolSize(int bufferPoolSize) {
+            this.bufferPoolSize = bufferPoolSize;
+            return this;
+        }
+
+        public int getMaxDirectBuffers() {
+            return maxDirectBuffers;
+        }
+
+        public Upload setMaxDirectBuffers(int maxDirectBuffers) {
+            this.maxDirectBuffers = maxDirectBuffers;
+            return this;
+        }
+
+        public List<String> getDigestAlgorithms() {
+            return digestAlgorithms;
+        }
+
+        public Upload setDigestAlgorithms(List<String> digestAlgorithms) {
+            this.digestAlgorithms = digestAlgorithms;
+            return this;
+        }
+
+        public boolean isFsync() {
+            return fsync;
+        }
+
+        public Upload setFsync(boolean fsync) {
+            this.fsync = fsync;
+            return this;
+        }
+    }
+
+    /**
+     * 分片合并方式
+     */
+    public enum MergeStrategy {
+        /**
+         * FileChannel.transferTo 零拷贝合并，数据不经过用户态
+         */
+        TRANSFER,
+        /**
+         * 缓冲区拷贝合并，适用于不支持零拷贝的文件系统
+         */
+        STREAM,
+        /**
+         * 并行合并，按分片长度的前缀和计算偏移，多个线程同时写入预分配的目标文件
+         */
+        PARALLEL
+    }
+
+    /**
+     * 分片合并配置
+     */
+    public static class Merge {
+
+        /**
+         * 合并方式，默认零拷贝
+         */
+        private MergeStrategy strategy = MergeStrategy.TRANSFER;
+        /**
+         * 零拷贝失败时是否回退为缓冲区拷贝
+         */
+        private boolean fallback = true;
+        /**
+         * 缓冲区拷贝时的缓冲区大小
+         */
+        private int bufferSize = 1024 * 1024;
+        /**
+         * 并行合并的线程数，所有合并任务共享
+         */
+        private int parallelism = Math.min(8, Runtime.getRuntime().availableProcessors());
+
+        public MergeStrategy getStrategy() {
+            return strategy;
+        }
+
+        public Merge setStrategy(MergeStrategy strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        public boolean isFallback() {
+            return fallback;
+        }
+
+        public Merge setFallback(boolean fallback) {
+            this.fallback = fallback;
+            return this;
+        }
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        public Merge setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public Merge setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+    }
+
+    /**
+     * 合并任务配置
+     */
+    public static class Combine {
+
+        /**
+         * 已知分片总数和文件名时，最后一个分片上传完成后自动合并；自动合并不带处理器参数，
+         * 排队中的自动合并可被客户端带参数的合并接管，已开始执行时参数不一致会被拒绝
+         */
+        private boolean auto = true;
+        /**
+         * 合并接口提交后台任务并立即返回 202，关闭时在请求线程中合并并返回文件url
+         */
+        private boolean async = true;
+        /**
+         * 合并任务的线程数
+         */
+        private int threads = 2;
+        /**
+         * 等待执行的合并任务上限，超出时拒绝
+         */
+        private int queueCapacity = 100;
+        /**
+         * 合并结果保留时间，供客户端查询
+         */
+        private Duration resultTtl = Duration.ofMinutes(30);
+        /**
+         * 进度推送的最小间隔，间隔内的字节进度合并为一次推送，状态和阶段变化立即推送
+         */
+        private Duration progressInterval = Duration.ofMillis(500);
+        /**
+         * 进度推送连接的超时时间
+         */
+        private Duration progressTimeout = Duration.ofMinutes(30);
+        /**
+         * 单个进度推送连接的一次发送超过此时间仍未完成时视为慢客户端，断开该连接
+         */
+        private Duration progressSendTimeout = Duration.ofSeconds(10);
+
+        public boolean isAuto() {
+            return auto;
+        }
+
+        public Combine setAuto(boolean auto) {
+            this.auto = auto;
+            return this;
+        }
+
+        public boolean isAsync() {
+            return async;
+        }
+
+        public Combine setAsync(boolean async) {
+            this.async = async;
+            return this;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public Combine setThreads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public Combine setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Duration getResultTtl() {
+            return resultTtl;
+        }
+
+        public Combine setResultTtl(Duration resultTtl) {
+            this.resultTtl = resultTtl;
+            return this;
+        }
+
+        public Duration getProgressInterval() {
+            return progressInterval;
+        }
+
+        public Combine setProgressInterval(Duration progressInterval) {
+            this.progressInterval = progressInterval;
+            return this;
+        }
+
+        public Duration getProgressTimeout() {
+            return progressTimeout;
+        }
+
+        public Combine setProgressTimeout(Duration progressTimeout) {
+            this.progressTimeout = progressTimeout;
+            return this;
+        }
+
+        public Duration getProgressSendTimeout() {
+            return progressSendTimeout;
+        }
+
+        public Combine setProgressSendTimeout(Duration progressSendTimeout) {
+            this.progressSendTimeout = progressSendTimeout;
+            return this;
+        }
+    }
+
+    /**
+     * 秒传配置
+     */
+    public static class Dedup {
+
+        /**
+         * 合并后的文件按内容保存在 store 目录，相同内容再次上传时直接处理已有文件；
+         * 关闭时合并后的文件在处理完成后删除
+         */
+        private boolean enabled = false;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public Dedup setEnabled(boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+    }
+
+    /**
+     * 文件处理器配置
+     */
+    public static class Handler {
+
+        /**
+         * Order 相同的处理器是否并发执行，并发时文件只读取一次，分发给各处理器的输入流
+         */
+        private boolean parallel = false;
+        /**
+         * 并发执行时每次读取的字节数
+         */
+        private int bufferSize = 256 * 1024;
+        /**
+         * 并发执行时每个处理器最多缓存的块数，处理最慢的处理器决定读取速度
+         */
+        private int bufferDepth = 16;
+
+        public boolean isParallel() {
+            return parallel;
+        }
+
+        public Handler setParallel(boolean parallel) {
+            this.parallel = parallel;
+            return this;
+        }
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        public Handler setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public int getBufferDepth() {
+            return bufferDepth;
+        }
+
+        public Handler setBufferDepth(int bufferDepth) {
+            this.bufferDepth = bufferDepth;
+            return this;
+        }
+    }
+
+    /**
+     * 响应式上传接口配置，spring.profiles.active=reactive 时生效
+     */
+    public static class Reactive {
+
+        /**
+         * 执行磁盘读写等阻塞操作的线程数，所有请求共享；等待客户端数据时不占用线程
+         */
+        private int ioThreads = Runtime.getRuntime().availableProcessors() * 2;
+        /**
+         * 阻塞操作线程池的等待队列上限
+         */
+        private int ioQueueCapacity = 100000;
+        /**
+         * 每个分片请求最多缓存的数据块数，写盘跟不上时停止读取连接，由 TCP 反压到客户端
+         */
+        private int prefetch = 8;
+
+        public int getIoThreads() {
+            return ioThreads;
+        }
+
+        public Reactive setIoThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        public int getIoQueueCapacity() {
+            return ioQueueCapacity;
+        }
+
+        public Reactive setIoQueueCapacity(int ioQueueCapacity) {
+            this.ioQueueCapacity = ioQueueCapacity;
+            return this;
+        }
+
+        public int getPrefetch() {
+            return prefetch;
+        }
+
+        public Reactive setPrefetch(int prefetch) {
+            this.prefetch = prefetch;
+            return this;
+        }
+    }
+
+    /**
+     * 线程模式配置
+     */
+    public static class Execution {
+
+        /**
+         * 请求处理、合并任务和文件处理器是否运行在虚拟线程上，需要 JDK 21+，低版本 JDK 上忽略
+         */
+        private boolean virtualThreads = false;
+        /**
+         * 虚拟线程模式下同时进行分片写入、摘要补算和合并的上限，避免磁盘过载
+         */
+        private int diskPermits = Runtime.getRuntime().availableProcessors() * 4;
+
+        public boolean isVirtualThreads() {
+            return virtualThreads;
+        }
+
+        public Execution setVirtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public int getDiskPermits() {
+            return diskPermits;
+        }
+
+        public Execution setDiskPermits(int diskPermits) {
+            this.diskPermits = diskPermits;
+            return this;
+        }
+    }
+
+    /**
+     * 监控指标配置
+     */
+    public static class Metrics {
+
+        /**
+         * 带租户标签的租户数上限，超出的租户合并为 other，避免指标数量无限增长
+         */
+        private int maxTenants = 100;
+
+        public int getMaxTenants() {
+            return maxTenants;
+        }
+
+        public Metrics setMaxTenants(int maxTenants) {
+            this.maxTenants = maxTenants;
+            return this;
+        }
+    }
+
+    /**
+     * 请求跟踪配置
+     */
+    public static class Trace {
+
+        /**
+         * 超过该耗时的请求输出慢请求日志，并保留在 /actuator/uploadtraces 中
+         */
+        private Duration slowThreshold = Duration.ofSeconds(3);
+        /**
+         * 保留的最近慢请求个数
+         */
+        private int slowCapacity = 100;
+
+        public Duration getSlowThreshold() {
+            return slowThreshold;
+        }
+
+        public Trace setSlowThreshold(Duration slowThreshold) {
+            this.slowThreshold = slowThreshold;
+            return this;
+        }
+
+        public int getSlowCapacity() {
+            return slowCapacity;
+        }
+
+        public Trace setSlowCapacity(int slowCapacity) {
+            this.slowCapacity = slowCapacity;
+            return this;
+        }
+    }
+
+    /**
+     * 过期上传清理配置
+     */
+    public static class Sweep {
+
+        /**
+         * 是否定时清理长时间没有上传分片、也没有合并的临时目录
+         */
+        private boolean enabled = true;
+        /**
+         * 上传会话最后一次活动后保留的时间
+         */
+        private Duration ttl = Duration.ofHours(24);
+        /**
+         * 清理间隔
+         */
+        private Duration interval = Duration.ofMinutes(10);
+        /**
+         * 每批删除的文件数，每批之间暂停 batchPause，避免删除大量文件时影响上传
+         */
+        private int batchSize = 200;
+        private Duration batchPause = Duration.ofMillis(100);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public Sweep setEnabled(boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public Sweep setTtl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public Sweep setInterval(Duration interval) {
+            this.interval = interval;
+            return this;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public Sweep setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Duration getBatchPause() {
+            return batchPause;
+        }
+
+        public Sweep setBatchPause(Duration batchPause) {
+            this.batchPause = batchPause;
+            return this;
+        }
+    }
+
+    /**
+     * 磁盘空间准入控制
+     * <p>
+     * 使用率按 (已用 + 进行中会话预留) / 总量 计算，空间和 inode 分别判断：
+     * 超过 lowWatermark 时拒绝新的上传会话（429），超过 highWatermark 时未声明大小的会话也不再接收分片（507）；
+     * 已声明大小的会话按声明的大小预留空间，始终可以上传完成
+     */
+    public static class Disk {
+
+        private boolean enabled = true;
+        private double lowWatermark = 0.85;
+        private double highWatermark = 0.95;
+        /**
+         * 是否检查 inode 使用率，通过 df -Pi 读取，不支持时忽略
+         */
+        private boolean inodes = true;
+        /**
+         * 预留空间的统计间隔
+         */
+        private Duration refreshInterval = Duration.ofSeconds(1);
+        /**
+         * inode 使用率的统计间隔，在后台线程中执行 df
+         */
+        private Duration inodeRefreshInterval = Duration.ofSeconds(30);
+        /**
+         * 拒绝时返回的 Retry-After
+         */
+        private Duration retryAfter = Duration.ofSeconds(30);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public Disk setEnabled(boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public double getLowWatermark() {
+            return lowWatermark;
+        }
+
+        public Disk setLowWatermark(double lowWatermark) {
+            this.lowWatermark = lowWatermark;
+            return this;
+        }
+
+        public double getHighWatermark() {
+            return highWatermark;
+        }
+
+        public Disk setHighWatermark(double highWatermark) {
+            this.highWatermark = highWatermark;
+            return this;
+        }
+
+        public boolean isInodes() {
+            return inodes;
+        }
+
+        public Disk setInodes(boolean inodes) {
+            this.inodes = inodes;
+            return this;
+        }
+
+        public Duration getRefreshInterval() {
+            return refreshInterval;
+        }
+
+        public Disk setRefreshInterval(Duration refreshInterval) {
+            this.refreshInterval = refreshInterval;
+            return this;
+        }
+
+        public Duration getInodeRefreshInterval() {
+            return inodeRefreshInterval;
+        }
+
+        public Disk setInodeRefreshInterval(Duration inodeRefreshInterval) {
+            this.inodeRefreshInterval = inodeRefreshInterval;
+            return this;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        public Disk setRetryAfter(Duration retryAfter) {
+            this.retryAfter = retryAfter;
+            return this;
+        }
+    }
+
+    /**
+     * 租户限流
+     * <p>
+     * 默认不限制；tenants 中按租户Id单独配置，整体替换默认配置
+     */
+    public static class TenantLimits {
+
+        private TenantLimit defaults = new TenantLimit();
+        private Map<Long, TenantLimit> tenants = new HashMap<>();
+        /**
+         * 会话数、合并数超限时返回的 Retry-After，速率超限时按令牌补充的时间计算
+         */
+        private Duration retryAfter = Duration.ofSeconds(5);
+        /**
+         * 各租户会话数的统计间隔
+         */
+        private Duration refreshInterval = Duration.ofSeconds(1);
+
+        /**
+         * @param tenantId 租户Id
+         * @return 租户的限制
+         */
+        public TenantLimit of(Long tenantId) {
+            TenantLimit limit = tenants.get(tenantId);
+            return limit == null ? defaults : limit;
+        }
+
+        public TenantLimit getDefaults() {
+            return defaults;
+        }
+
+        public TenantLimits setDefaults(TenantLimit defaults) {
+            this.defaults = defaults;
+            return this;
+        }
+
+        public Map<Long, TenantLimit> getTenants() {
+            return tenants;
+        }
+
+        public TenantLimits setTenants(Map<Long, TenantLimit> tenants) {
+            this.tenants = tenants;
+            return this;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        public TenantLimits setRetryAfter(Duration retryAfter) {
+            this.retryAfter = retryAfter;
+            return this;
+        }
+
+        public Duration getRefreshInterval() {
+            return refreshInterval;
+        }
+
+        public TenantLimits setRefreshInterval(Duration refreshInterval) {
+            this.refreshInterval = refreshInterval;
+            return this;
+        }
+    }
+
+    /**
+     * 单个租户的限制，为 0 时不限制
+     */
+    public static class TenantLimit {
+
+        /**
+         * 上传分片的字节速率
+         */
+        private long bytesPerSecond;
+        /**
+         * 上传分片的请求速率
+         */
+        private double requestsPerSecond;
+        /**
+         * 令牌桶容量，可以突发的时长，容量 = 速率 * burst；字节数最多透支一个容量
+         */
+        private Duration burst = Duration.ofSeconds(1);
+        /**
+         * 同时进行的上传会话数
+         */
+        private int maxSessions;
+        /**
+         * 同时排队和执行的合并任务数
+         */
+        private int maxCombines;
+
+        public long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public TenantLimit setBytesPerSecond(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        public double getRequestsPerSecond() {
+            return requestsPerSecond;
+        }
+
+        public TenantLimit setRequestsPerSecond(double requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        public Duration getBurst() {
+            return burst;
+        }
+
+        public TenantLimit setBurst(Duration burst) {
+            this.burst = burst;
+            return this;
+        }
+
+        public int getMaxSessions() {
+            return maxSessions;
+        }
+
+        public TenantLimit setMaxSessions(int maxSessions) {
+            this.maxSessions = maxSessions;
+            return this;
+        }
+
+        public int getMaxCombines() {
+            return maxCombines;
+        }
+
+        public TenantLimit setMaxCombines(int maxCombines) {
+            this.maxCombines = maxCombines;
+            return this;
+        }
+    }
+
+    /**
+     * 自适应并发控制，分片写入和合并分别按耗时调整并发上限，超过上限时立即返回 503
+     */
+    public static class Concurrency {
+
+        private boolean enabled = true;
+        /**
+         * 当前耗时超过长期平均耗时的倍数后开始降低上限
+         */
+        private double tolerance = 1.5;
+        /**
+         * 每个窗口向新上限靠拢的比例
+         */
+        private double smoothing = 0.2;
+        /**
+         * 统计窗口
+         */
+        private Duration window = Duration.ofMillis(200);
+        private Duration retryAfter = Duration.ofSeconds(1);
+        /**
+         * 分片写入，并发为已准入、尚未保存完成的分片数，耗时为写盘和刷盘的时间，不含从网络接收的时间
+         */
+        private ConcurrencyLimit save = new ConcurrencyLimit().setInitialLimit(256).setMinLimit(16).setMaxLimit(4096);
+        /**
+         * 合并任务，包括排队中的任务
+         */
+        private ConcurrencyLimit combine = new ConcurrencyLimit().setInitialLimit(16).setMinLimit(2).setMaxLimit(256);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public Concurrency setEnabled(boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public double getTolerance() {
+            return tolerance;
+        }
+
+        public Concurrency setTolerance(double tolerance) {
+            this.tolerance = tolerance;
+            return this;
+        }
+
+        public double getSmoothing() {
+            return smoothing;
+        }
+
+        public Concurrency setSmoothing(double smoothing) {
+            this.smoothing = smoothing;
+            return this;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public Concurrency setWindow(Duration window) {
+            this.window = window;
+            return this;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        public Concurrency setRetryAfter(Duration retryAfter) {
+            this.retryAfter = retryAfter;
+            return this;
+        }
+
+        public ConcurrencyLimit getSave() {
+            return save;
+        }
+
+        public Concurrency setSave(ConcurrencyLimit save) {
+            this.save = save;
+            return this;
+        }
+
+        public ConcurrencyLimit getCombine() {
+            return combine;
+        }
+
+        public Concurrency setCombine(ConcurrencyLimit combine) {
+            this.combine = combine;
+            return this;
+        }
+    }
+
+    public static class ConcurrencyLimit {
+
+        private int initialLimit;
+        private int minLimit;
+        private int maxLimit;
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public ConcurrencyLimit setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public ConcurrencyLimit setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public ConcurrencyLimit setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+    }
+
+    /**
+     * 目录布局
+     */
+    public static class Layout {
+
+        /**
+         * 分层目录的层数，每层 256 个子目录；0 为不分层
+         */
+        private int shardDepth = 2;
+        /**
+         * 启动时磁盘上的层数与 shardDepth 不同时是否迁移临时目录和秒传文件；不迁移时层数不同则启动失败
+         */
+        private boolean migrate = true;
+
+        public int getShardDepth() {
+            return shardDepth;
+        }
+
+        public Layout setShardDepth(int shardDepth) {
+            this.shardDepth = shardDepth;
+            return this;
+        }
+
+        public boolean isMigrate() {
+            return migrate;
+        }
+
+        public Layout setMigrate(boolean migrate) {
+            this.migrate = migrate;
+            return this;
+        }
+    }
 }
@@ -0,0 +1,127 @@
+package com.wx.springboot.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 线程创建和磁盘并发控制
+ * <p>
+ * 开启虚拟线程（需要 JDK 21+，通过反射调用，低版本 JDK 上回退为平台线程）时，请求、合并任务和文件处理器都运行在虚拟线程上，
+ * 线程数不再限制并发，磁盘读写改由信号量限制；平台线程模式下由各线程池的大小限制，不使用信号量
+ */
+public class FragmentExecutors {
+
+    private static final Logger logger = LoggerFactory.getLogger(FragmentExecutors.class);
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderName = builder.getMethod("name", String.class, long.class);
+            builderFactory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ReflectiveOperationException e) {
+            // JDK 21 以下
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private final boolean virtual;
+    private final Semaphore diskPermits;
+
+    /**
+     * @param virtualThreads 是否使用虚拟线程
+     * @param diskPermits    虚拟线程模式下同时进行磁盘读写的上限
+     */
+    public FragmentExecutors(boolean virtualThreads, int diskPermits) {
+        if (virtualThreads && OF_VIRTUAL == null) {
+            logger.warn("virtual threads require JDK 21+, fall back to platform threads. java.version : {}",
+                    System.getProperty("java.version"));
+        }
+        this.virtual = virtualThreads && OF_VIRTUAL != null;
+        this.diskPermits = virtual ? new Semaphore(Math.max(1, diskPermits)) : null;
+        if (virtual) {
+            logger.info("virtual threads enabled, disk permits : {}", Math.max(1, diskPermits));
+        }
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * @param prefix 线程名前缀，线程名为 prefix-序号
+     * @return 虚拟线程或守护平台线程的工厂
+     */
+    public ThreadFactory threadFactory(String prefix) {
+        if (virtual) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), prefix + "-", 1L);
+                return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @param prefix 线程名前缀
+     * @return 按需创建线程的线程池，虚拟线程模式下每个任务一个虚拟线程
+     */
+    public ExecutorService newCachedExecutor(String prefix) {
+        ThreadFactory threadFactory = threadFactory(prefix);
+        if (virtual) {
+            try {
+                return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return Executors.newCachedThreadPool(threadFactory);
+    }
+
+    /**
+     * 进入磁盘读写，虚拟线程模式下超出上限时等待，须在 finally 中调用 {@link #releaseDisk()}
+     */
+    public void acquireDisk() {
+        if (diskPermits != null) {
+            diskPermits.acquireUninterruptibly();
+        }
+    }
+
+    public void releaseDisk() {
+        if (diskPermits != null) {
+            diskPermits.release();
+        }
+    }
+}
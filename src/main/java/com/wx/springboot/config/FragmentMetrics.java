@@ -0,0 +1,231 @@
+package com.wx.springboot.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分片上传监控指标，通过 Actuator 发布（/actuator/metrics，引入 micrometer-registry-prometheus 后也可从 /actuator/prometheus 采集）
+ * <pre>
+ * fragment.chunk.save         分片写入耗时（tenant）
+ * fragment.chunk.check        分片校验耗时（tenant, result=hit|miss）
+ * fragment.chunk.size         分片大小（tenant），总量即上传字节数
+ * fragment.chunk.retries      分片重传次数，包括已接收分片再次上传和失败后重新上传（tenant）
+ * fragment.combine            合并及文件处理耗时（tenant）
+ * fragment.handler            单个文件处理器耗时（tenant, handler）
+ * fragment.dedup.hits         秒传命中次数（tenant）
+ * fragment.failures           失败次数（tenant, operation=save|check|combine|handler）
+ * fragment.sessions.active    未合并的上传会话数
+ * fragment.temp.bytes         临时目录中分片占用的字节数
+ * fragment.disk.reserved      进行中会话预留的磁盘空间
+ * fragment.sweep.sessions     清理的过期上传会话数
+ * fragment.sweep.bytes        清理过期上传回收的字节数
+ * fragment.rejections         准入控制拒绝的请求数（reason=disk|save-concurrency|combine-concurrency）
+ * fragment.concurrency.limit  自适应并发上限（operation=save|combine）
+ * fragment.concurrency.inflight 持有并发许可的操作数（operation）
+ * fragment.tenant.rejections  租户限流拒绝的请求数（tenant, reason=requests|bytes|sessions|combines）
+ * </pre>
+ * 指标按租户缓存，热点路径上只有一次 Map 查找；租户数超过上限后合并为 other
+ */
+public class FragmentMetrics {
+
+    public static final String TAG_TENANT = "tenant";
+    private static final String TENANT_OTHER = "other";
+
+    private final MeterRegistry registry;
+    private final int maxTenants;
+    private final ConcurrentMap<Long, TenantMeters> tenants = new ConcurrentHashMap<>();
+    private volatile TenantMeters other;
+    private final Counter sweptSessions;
+    private final Counter sweptBytes;
+    private final ConcurrentMap<String, Counter> rejections = new ConcurrentHashMap<>();
+
+    /**
+     * @param registry   指标注册表
+     * @param maxTenants 带租户标签的租户数上限
+     */
+    public FragmentMetrics(MeterRegistry registry, int maxTenants) {
+        this.registry = registry;
+        this.maxTenants = maxTenants;
+        sweptSessions = Counter.builder("fragment.sweep.sessions").description("expired upload sessions removed")
+                .register(registry);
+        sweptBytes = Counter.builder("fragment.sweep.bytes").description("bytes reclaimed from expired uploads")
+                .baseUnit("bytes").register(registry);
+    }
+
+    /**
+     * @param bytes 清理一个过期上传会话回收的字节数
+     */
+    public void swept(long bytes) {
+        sweptSessions.increment();
+        sweptBytes.increment(bytes);
+    }
+
+    /**
+     * @param reason 拒绝原因
+     */
+    public void rejected(String reason) {
+        rejections.computeIfAbsent(reason, key -> Counter.builder("fragment.rejections")
+                .description("requests rejected by admission control").tag("reason", key).register(registry)).increment();
+    }
+
+    /**
+     * 发布自适应并发上限和当前并发数
+     *
+     * @param limiter 并发限制器
+     */
+    public void concurrency(AdaptiveLimiter limiter) {
+        Gauge.builder("fragment.concurrency.limit", limiter, AdaptiveLimiter::getLimit)
+                .description("adaptive concurrency limit").tag("operation", limiter.getName()).register(registry);
+        Gauge.builder("fragment.concurrency.inflight", limiter, AdaptiveLimiter::getInFlight)
+                .description("operations holding a concurrency permit").tag("operation", limiter.getName()).register(registry);
+    }
+
+    /**
+     * @param tenantId 租户Id，为空时归入 other
+     * @return 租户的指标
+     */
+    public TenantMeters tenant(Long tenantId) {
+        if (tenantId == null) {
+            return other();
+        }
+        TenantMeters meters = tenants.get(tenantId);
+        if (meters != null) {
+            return meters;
+        }
+        if (tenants.size() >= maxTenants) {
+            return other();
+        }
+        return tenants.computeIfAbsent(tenantId, key -> new TenantMeters(String.valueOf(key)));
+    }
+
+    private TenantMeters other() {
+        if (other == null) {
+            synchronized (this) {
+                if (other == null) {
+                    other = new TenantMeters(TENANT_OTHER);
+                }
+            }
+        }
+        return other;
+    }
+
+    /**
+     * 单个租户的指标
+     */
+    public class TenantMeters {
+
+        private final String tenant;
+        private final Timer save;
+        private final Timer checkHit;
+        private final Timer checkMiss;
+        private final Timer combine;
+        private final DistributionSummary chunkSize;
+        private final Counter retries;
+        private final Counter dedupHits;
+        private final Counter saveFailures;
+        private final Counter checkFailures;
+        private final Counter combineFailures;
+        private final Counter handlerFailures;
+        private final ConcurrentMap<String, Timer> handlers = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, Counter> rejections = new ConcurrentHashMap<>();
+
+        TenantMeters(String tenant) {
+            this.tenant = tenant;
+            save = Timer.builder("fragment.chunk.save").description("chunk write time")
+                    .tag(TAG_TENANT, tenant).register(registry);
+            checkHit = checkTimer("hit");
+            checkMiss = checkTimer("miss");
+            combine = Timer.builder("fragment.combine").description("combine and file handler time")
+                    .tag(TAG_TENANT, tenant).register(registry);
+            chunkSize = DistributionSummary.builder("fragment.chunk.size").description("received chunk size")
+                    .baseUnit("bytes").tag(TAG_TENANT, tenant).register(registry);
+            retries = Counter.builder("fragment.chunk.retries").description("chunks uploaded again")
+                    .tag(TAG_TENANT, tenant).register(registry);
+            dedupHits = Counter.builder("fragment.dedup.hits").description("instant upload hits")
+                    .tag(TAG_TENANT, tenant).register(registry);
+            saveFailures = failureCounter("save");
+            checkFailures = failureCounter("check");
+            combineFailures = failureCounter("combine");
+            handlerFailures = failureCounter("handler");
+        }
+
+        private Timer checkTimer(String result) {
+            return Timer.builder("fragment.chunk.check").description("chunk check time")
+                    .tag(TAG_TENANT, tenant).tag("result", result).register(registry);
+        }
+
+        private Counter failureCounter(String operation) {
+            return Counter.builder("fragment.failures").tag(TAG_TENANT, tenant).tag("operation", operation).register(registry);
+        }
+
+        /**
+         * @param nanos  分片写入耗时
+         * @param length 分片大小
+         */
+        public void chunkSaved(long nanos, long length) {
+            save.record(nanos, TimeUnit.NANOSECONDS);
+            chunkSize.record(length);
+        }
+
+        public void chunkRetried() {
+            retries.increment();
+        }
+
+        public void chunkSaveFailed() {
+            saveFailures.increment();
+        }
+
+        /**
+         * @param nanos 校验耗时
+         * @param hit   分片是否已存在
+         */
+        public void chunkChecked(long nanos, boolean hit) {
+            (hit ? checkHit : checkMiss).record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void chunkCheckFailed() {
+            checkFailures.increment();
+        }
+
+        public void combined(long nanos) {
+            combine.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void combineFailed() {
+            combineFailures.increment();
+        }
+
+        /**
+         * @param handler 文件处理器名称
+         * @param nanos   处理耗时
+         * @param success 是否成功
+         */
+        public void handled(String handler, long nanos, boolean success) {
+            handlers.computeIfAbsent(handler, key -> Timer.builder("fragment.handler").description("file handler time")
+                    .tag(TAG_TENANT, tenant).tag("handler", key).register(registry)).record(nanos, TimeUnit.NANOSECONDS);
+            if (!success) {
+                handlerFailures.increment();
+            }
+        }
+
+        public void dedupHit() {
+            dedupHits.increment();
+        }
+
+        /**
+         * @param reason 超出的限制
+         */
+        public void rejected(String reason) {
+            rejections.computeIfAbsent(reason, key -> Counter.builder("fragment.tenant.rejections")
+                    .description("requests rejected by tenant limits").tag(TAG_TENANT, tenant).tag("reason", key)
+                    .register(registry)).increment();
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package com.wx.springboot.config;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * 分片上传文件目录
+ * <pre>
+ * {rootPath}/temp/{shard}/{guid}/{chunk}       分片文件
+ * {rootPath}/temp/{shard}/{guid}/{chunk}.crc   分片校验和
+ * {rootPath}/temp/{shard}/{guid}/.data         直写模式预分配的目标文件
+ * {rootPath}/temp/{shard}/{guid}/.meta         会话元数据，分片模式在声明文件大小后写入
+ * {rootPath}/temp/{shard}/{guid}/.journal      已接收分片日志
+ * {rootPath}/real/{shard}/{guid}.{ext}         合并后的文件，以 guid 命名避免同名文件互相覆盖
+ * {rootPath}/store/{sha256 前缀}/{sha256}-{size}      秒传文件
+ * {rootPath}/store/{sha256 前缀}/{sha256}-{size}.ref  秒传文件按租户的引用计数
+ * {rootPath}/store/{md5 前缀}/{md5}-{size}.alias      MD5 对应的 SHA-256
+ * {rootPath}/.layout                           磁盘上的分层层数
+ * </pre>
+ * {shard} 为 guid 散列值的前 shardDepth 个字节，如 shardDepth 为 2 时是 temp/3f/a0/{guid}，
+ * 每层最多 256 个子目录，目录项数量不随会话数线性增长；shardDepth 为 0 时不分层。
+ * 启动时磁盘上的层数与配置不同则把临时目录和秒传文件迁移到新的层数，合并后的文件处理完即删除，无需迁移。
+ * 没有 .layout 时按不分层迁移，已在分层目录中的文件保持不动
+ */
+@Component
+public class FragmentPaths implements InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(FragmentPaths.class);
+
+    public static final String ROOT = System.getProperty("user.dir") + File.separator + "file";
+    public static final String TEMP = "temp";
+    public static final String REAL = "real";
+    public static final String CHUNK_CHECKSUM = ".crc";
+    public static final String DIRECT_DATA = ".data";
+    public static final String META = ".meta";
+    public static final String JOURNAL = ".journal";
+    public static final String STORE = "store";
+    public static final String STORE_REF = ".ref";
+    public static final String STORE_ALIAS = ".alias";
+    public static final String TRASH_PREFIX = ".trash-";
+    public static final String LAYOUT = ".layout";
+
+    /**
+     * guid 会作为目录名，禁止路径字符
+     */
+    private static final Pattern GUID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,128}");
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{32,128}");
+    private static final Pattern SHARD_PATTERN = Pattern.compile("[0-9a-f]{2}");
+    private static final Pattern EXTENSION_PATTERN = Pattern.compile("\\.[A-Za-z0-9]{1,16}");
+    private static final int MAX_SHARD_DEPTH = 4;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final String LAYOUT_SHARD_DEPTH = "shardDepth";
+
+    @Autowired
+    private FragmentConfig fragmentConfig;
+
+    public String getRootPath() {
+        String rootPath = fragmentConfig.getRootPath();
+        if (StringUtils.isEmpty(rootPath)) {
+            return ROOT;
+        }
+        return rootPath;
+    }
+
+    public File getTempRoot() {
+        return new File(getRootPath(), TEMP);
+    }
+
+    public File getTempDir(String guid) {
+        Assert.isTrue(guid != null && GUID_PATTERN.matcher(guid).matches(), BaseConstants.ErrorCode.DATA_INVALID);
+        return new File(shard(getTempRoot(), hash(guid)), guid);
+    }
+
+    /**
+     * @return 临时目录的最底层分层目录，上传会话目录和 .trash 目录都在其中；不分层时为临时目录本身
+     */
+    public List<File> getTempShards() {
+        return shards(getTempRoot(), shardDepth());
+    }
+
+    /**
+     * @return root 下第 depth 层的分层目录，depth 为 0 时为 root 本身
+     */
+    private static List<File> shards(File root, int depth) {
+        List<File> shards = Collections.singletonList(root);
+        for (; depth > 0; depth--) {
+            List<File> children = new ArrayList<>(shards.size() * 16);
+            for (File shard : shards) {
+                File[] dirs = shard.listFiles(file -> isShard(file) && file.isDirectory());
+                if (dirs != null) {
+                    Collections.addAll(children, dirs);
+                }
+            }
+            shards = children;
+        }
+        return shards;
+    }
+
+    public File getChunkFile(String guid, int chunk) {
+        return new File(getTempDir(guid), String.valueOf(chunk));
+    }
+
+    public File getChunkChecksumFile(String guid, int chunk) {
+        return new File(getTempDir(guid), chunk + CHUNK_CHECKSUM);
+    }
+
+    public File getDirectDataFile(String guid) {
+        return new File(getTempDir(guid), DIRECT_DATA);
+    }
+
+    public File getMetaFile(String guid) {
+        return new File(getTempDir(guid), META);
+    }
+
+    public File getJournalFile(String guid) {
+        return new File(getTempDir(guid), JOURNAL);
+    }
+
+    public File getRealDir() {
+        return new File(getRootPath(), REAL);
+    }
+
+    /**
+     * @param guid     当前文件的MD5值
+     * @param fileName 原始文件名，只保留扩展名
+     */
+    public File getRealFile(String guid, String fileName) {
+        Assert.isTrue(guid != null && GUID_PATTERN.matcher(guid).matches(), BaseConstants.ErrorCode.DATA_INVALID);
+        return new File(shard(getRealDir(), hash(guid)), guid + extension(fileName));
+    }
+
+    public File getStoreDir() {
+        return new File(getRootPath(), STORE);
+    }
+
+    public File getStoreFile(String hash, long size) {
+        Assert.isTrue(hash != null && HASH_PATTERN.matcher(hash).matches() && size >= 0, BaseConstants.ErrorCode.DATA_INVALID);
+        return new File(shard(getStoreDir(), hash), hash + "-" + size);
+    }
+
+    public File getStoreRefFile(String hash, long size) {
+        File storeFile = getStoreFile(hash, size);
+        return new File(storeFile.getParentFile(), storeFile.getName() + STORE_REF);
+    }
+
+    /**
+     * @param md5 文件MD5值，文件内容仍以 SHA-256 保存
+     */
+    public File getStoreAliasFile(String md5, long size) {
+        File aliasFile = getStoreFile(md5, size);
+        return new File(aliasFile.getParentFile(), aliasFile.getName() + STORE_ALIAS);
+    }
+
+    /**
+     * 分片文件以分片编号命名，临时目录下的其他文件（如直写模式的元数据）不是分片
+     */
+    public static boolean isChunkFile(File file) {
+        String name = file.getName();
+        return !name.isEmpty() && name.length() < 10 && name.chars().allMatch(Character::isDigit);
+    }
+
+    /**
+     * 临时目录以 .trash- 开头时为待删除的过期上传
+     */
+    public static boolean isTrash(File file) {
+        return file.getName().startsWith(TRASH_PREFIX);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        int depth = shardDepth();
+        Integer current = readLayout();
+        if (current != null && current == depth) {
+            return;
+        }
+        if (!fragmentConfig.getLayout().isMigrate()) {
+            // 按配置的层数无法找到已有的文件
+            Assert.state(current == null, "shard depth on disk is " + current + " but configured " + depth
+                    + ", enable hzero.file.layout.migrate to migrate");
+            return;
+        }
+        if (migrate(current == null ? 0 : current, depth)) {
+            writeLayout(depth);
+        }
+    }
+
+    /**
+     * 把 from 层的临时目录和秒传文件移动到当前配置的层数，同一文件系统内只是改名；
+     * 在接收请求前执行，迁移中断后 .layout 仍是原层数，下次启动继续
+     *
+     * @return 是否全部迁移成功
+     */
+    private boolean migrate(int from, int to) {
+        long start = System.currentTimeMillis();
+        File tempRoot = getTempRoot();
+        int sessions = 0;
+        int failed = 0;
+        for (File shard : shards(tempRoot, from)) {
+            // 已迁移的文件在新的分层目录中，不会再列出
+            File[] dirs = shard.listFiles(file -> !isShard(file) && file.isDirectory());
+            if (dirs == null) {
+                continue;
+            }
+            for (File dir : dirs) {
+                String name = dir.getName();
+                File target = null;
+                if (isTrash(dir)) {
+                    target = new File(shard(tempRoot, hash(name)), name);
+                } else if (GUID_PATTERN.matcher(name).matches()) {
+                    target = getTempDir(name);
+                }
+                if (target != null && !target.equals(dir)) {
+                    if (move(dir, target)) {
+                        sessions++;
+                    } else {
+                        failed++;
+                    }
+                }
+            }
+        }
+        int stored = 0;
+        for (File shard : shards(getStoreDir(), from)) {
+            File[] files = shard.listFiles(File::isFile);
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                String name = file.getName();
+                int index = name.indexOf('-');
+                String hash = index < 0 ? null : name.substring(0, index);
+                if (hash == null || !HASH_PATTERN.matcher(hash).matches()) {
+                    continue;
+                }
+                File target = new File(shard(getStoreDir(), hash), name);
+                if (!target.equals(file)) {
+                    if (move(file, target)) {
+                        stored++;
+                    } else {
+                        failed++;
+                    }
+                }
+            }
+        }
+        if (to < from) {
+            deleteEmptyShards(tempRoot, from - 1);
+            deleteEmptyShards(getStoreDir(), from - 1);
+        }
+        if (sessions > 0 || stored > 0 || failed > 0) {
+            logger.info("migrate shard depth {} -> {}, upload sessions : {}, stored files : {}, failed : {}, cost : {}ms",
+                    from, to, sessions, stored, failed, System.currentTimeMillis() - start);
+        }
+        return failed == 0;
+    }
+
+    /**
+     * 层数减少后删除多余的空分层目录
+     */
+    private static void deleteEmptyShards(File root, int depth) {
+        File[] dirs = root.listFiles(file -> isShard(file) && file.isDirectory());
+        if (dirs == null) {
+            return;
+        }
+        for (File dir : dirs) {
+            if (depth > 0) {
+                deleteEmptyShards(dir, depth - 1);
+            }
+            String[] children = dir.list();
+            if (children != null && children.length == 0 && !dir.delete()) {
+                logger.warn("Delete file error! file path : {}", dir.getPath());
+            }
+        }
+    }
+
+    /**
+     * @return 磁盘上记录的层数，没有记录时返回 null
+     */
+    private Integer readLayout() {
+        File layout = new File(getRootPath(), LAYOUT);
+        if (!layout.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream is = new FileInputStream(layout)) {
+            properties.load(is);
+            return Integer.valueOf(properties.getProperty(LAYOUT_SHARD_DEPTH));
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("Read layout error! file path : " + layout.getPath(), e);
+        }
+    }
+
+    /**
+     * 根目录不存在时还没有任何文件，不记录，首次启动不创建目录
+     */
+    private void writeLayout(int depth) {
+        File layout = new File(getRootPath(), LAYOUT);
+        if (!layout.getParentFile().isDirectory()) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty(LAYOUT_SHARD_DEPTH, String.valueOf(depth));
+        try (OutputStream os = new FileOutputStream(layout)) {
+            properties.store(os, null);
+        } catch (IOException e) {
+            logger.error("Write layout error! file path : {}", layout.getPath(), e);
+        }
+    }
+
+    private static boolean move(File source, File target) {
+        try {
+            FileUtils.forceMkdir(target.getParentFile());
+            Files.move(source.toPath(), target.toPath());
+            return true;
+        } catch (IOException e) {
+            logger.error("Migrate file error! file path : {}, target : {}", source.getPath(), target.getPath(), e);
+            return false;
+        }
+    }
+
+    private int shardDepth() {
+        return Math.max(0, Math.min(MAX_SHARD_DEPTH, fragmentConfig.getLayout().getShardDepth()));
+    }
+
+    /**
+     * @param hex 至少 2 * shardDepth 位的十六进制字符串，每两位一层
+     */
+    private File shard(File root, String hex) {
+        int depth = shardDepth();
+        if (depth == 0) {
+            return root;
+        }
+        StringBuilder path = new StringBuilder(depth * 3);
+        for (int i = 0; i < depth; i++) {
+            path.append(hex, i * 2, i * 2 + 2).append(File.separatorChar);
+        }
+        return new File(root, path.toString());
+    }
+
+    private static boolean isShard(File file) {
+        return SHARD_PATTERN.matcher(file.getName()).matches();
+    }
+
+    /**
+     * guid 不一定是十六进制，取 String.hashCode 经 murmur3 混淆后的十六进制，结果与 JVM 无关
+     */
+    private static String hash(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        char[] hex = new char[8];
+        for (int i = 7; i >= 0; i--) {
+            hex[i] = HEX[h & 0xf];
+            h >>>= 4;
+        }
+        return new String(hex);
+    }
+
+    private static String extension(String fileName) {
+        int index = fileName == null ? -1 : fileName.lastIndexOf('.');
+        if (index < 0) {
+            return "";
+        }
+        String extension = fileName.substring(index);
+        return EXTENSION_PATTERN.matcher(extension).matches() ? extension : "";
+    }
+}
@@ -0,0 +1,45 @@
+package com.wx.springboot.config;
+
+import com.wx.springboot.domain.RequestTrace;
+import com.wx.springboot.service.RequestTraceService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+/**
+ * 响应式版本的请求跟踪，请求跟踪放入 Reactor Context，由控制器在 IO 线程池中执行阻塞操作时绑定到线程
+ *
+ * @see RequestTraceFilter
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveRequestTraceFilter implements WebFilter {
+
+    public static final String CONTEXT_KEY = RequestTrace.class.getName();
+
+    @Autowired
+    private RequestTraceService requestTraceService;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        RequestTrace trace = requestTraceService.start(request.getHeaders().getFirst(BaseHeaders.H_REQUEST_ID),
+                request.getMethodValue(), request.getPath().value());
+        exchange.getResponse().getHeaders().set(BaseHeaders.H_REQUEST_ID, trace.getRequestId());
+        return chain.filter(exchange).contextWrite(Context.of(CONTEXT_KEY, trace)).doFinally(signal -> {
+            HttpStatus status = exchange.getResponse().getStatusCode();
+            requestTraceService.finish(trace, status == null ? HttpStatus.OK.value() : status.value());
+        });
+    }
+}
@@ -0,0 +1,46 @@
+package com.wx.springboot.config;
+
+import com.wx.springboot.domain.RequestTrace;
+import com.wx.springboot.service.RequestTraceService;
+
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * 读取或生成 H-Request-Id 并在响应中返回，请求处理期间绑定到当前线程，记录各阶段耗时
+ *
+ * @see ReactiveRequestTraceFilter
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class RequestTraceFilter extends OncePerRequestFilter {
+
+    @Autowired
+    private RequestTraceService requestTraceService;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        RequestTrace trace = requestTraceService.start(request.getHeader(BaseHeaders.H_REQUEST_ID),
+                request.getMethod(), request.getRequestURI());
+        response.setHeader(BaseHeaders.H_REQUEST_ID, trace.getRequestId());
+        trace.bind();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            requestTraceService.finish(trace, response.getStatus());
+            RequestTrace.unbind();
+        }
+    }
+}
@@ -43,6 +43,16 @@ public class Results {
         return ResponseEntity.status(HttpStatus.CREATED).body(data);
     }
 
+    /**
+     * 请求已接受, 后台处理
+     *
+     * @param data 返回值
+     * @return HttpStatus 202
+     */
+    public static <T> ResponseEntity<T> accepted(T data) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(data);
+    }
+
     /**
      * 请求成功,无返回值
      * 
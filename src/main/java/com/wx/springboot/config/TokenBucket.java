@@ -0,0 +1,101 @@
+package com.wx.springboot.config;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶
+ * <p>
+ * 按 GCRA 实现：只保存令牌补满的时间点，取令牌是一次 CAS，不需要定时补充令牌。
+ * 令牌数 = (now + burst - fullAt) / 每个令牌的时长，fullAt 不晚于 now 时桶是满的。
+ * 允许欠令牌的操作最多欠下一个桶容量，即 fullAt 不超过 now + 2 * burst，避免长时间透支后很久无法恢复
+ */
+public class TokenBucket {
+
+    private final double nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    /**
+     * @param tokensPerSecond 令牌补充速率
+     * @param burstNanos      桶容量对应的时长，至少容纳一个令牌
+     */
+    public TokenBucket(double tokensPerSecond, long burstNanos) {
+        this.nanosPerToken = 1_000_000_000D / tokensPerSecond;
+        this.burstNanos = Math.max(burstNanos, (long) Math.ceil(nanosPerToken));
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * 令牌足够时取出
+     *
+     * @param tokens 令牌数，为 0 时仅判断是否欠令牌
+     * @return 是否取到
+     */
+    public boolean tryAcquire(long tokens) {
+        long cost = (long) (tokens * nanosPerToken);
+        while (true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + cost;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 未欠令牌时取出令牌，不足部分欠下；用于事先只知道大致数量的场景，如按分片大小预扣字节数
+     *
+     * @param tokens 令牌数
+     * @return 已欠令牌时返回 false，不取出
+     */
+    public boolean tryConsume(long tokens) {
+        long cost = (long) (tokens * nanosPerToken);
+        while (true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            if (current - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next(current, now, cost))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 取出令牌，不足时欠下，之后的请求需等待补足；用于事先不知道数量的场景，如流式上传的字节数
+     *
+     * @param tokens 令牌数
+     */
+    public void consume(long tokens) {
+        long cost = (long) (tokens * nanosPerToken);
+        fullAt.getAndUpdate(current -> next(current, System.nanoTime(), cost));
+    }
+
+    /**
+     * 退回多取的令牌，最多退到桶满
+     *
+     * @param tokens 令牌数
+     */
+    public void refund(long tokens) {
+        long cost = (long) (tokens * nanosPerToken);
+        fullAt.getAndUpdate(current -> Math.max(System.nanoTime(), current - cost));
+    }
+
+    private long next(long current, long now, long cost) {
+        return Math.min(Math.max(current, now) + cost, now + 2 * burstNanos);
+    }
+
+    /**
+     * @param tokens 令牌数
+     * @return 还需等待多久才有足够的令牌（纳秒）
+     */
+    public long waitNanos(long tokens) {
+        long now = System.nanoTime();
+        return Math.max(0, Math.max(fullAt.get(), now) + (long) (tokens * nanosPerToken) - now - burstNanos);
+    }
+}
@@ -0,0 +1,31 @@
+package com.wx.springboot.config;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * 服务端资源不足时拒绝上传，控制器返回对应状态码和 Retry-After
+ */
+public class UploadRejectedException extends RuntimeException {
+
+    private final HttpStatus status;
+    private final long retryAfterSeconds;
+
+    /**
+     * @param message           错误信息
+     * @param status            响应状态码，如 429、507
+     * @param retryAfterSeconds 建议客户端重试的间隔（秒）
+     */
+    public UploadRejectedException(String message, HttpStatus status, long retryAfterSeconds) {
+        super(message);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -3,11 +3,20 @@ package com.wx.springboot.controller;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wx.springboot.config.BaseConstants;
 import com.wx.springboot.config.FragmentConfig;
 import com.wx.springboot.config.Results;
 import com.wx.springboot.config.TokenConstants;
 import com.wx.springboot.config.TokenUtils;
+import com.wx.springboot.config.UploadRejectedException;
+import com.wx.springboot.domain.ChunkChecksum;
+import com.wx.springboot.domain.ChunkStatus;
+import com.wx.springboot.domain.CombineJob;
+import com.wx.springboot.domain.RequestTrace;
+import com.wx.springboot.service.CombineJobService;
+import com.wx.springboot.service.ContentStore;
 import com.wx.springboot.service.FragmentService;
+import com.wx.springboot.service.ProgressStreamService;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -15,24 +24,40 @@ import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 
 /**
  * 分片上传相关接口
  *
  * @author shuangfei.zhu@hand-china.com 2020/02/18 10:23
+ * @see ReactiveFragmentController
  */
 @Controller("fragmentController.v1")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class FragmentController {
 
+    private static final int COMBINE_RETRY_AFTER_SECONDS = 5;
+
     @Autowired
     private FragmentService fragmentService;
     @Autowired
+    private CombineJobService combineJobService;
+    @Autowired
+    private ContentStore contentStore;
+    @Autowired
+    private ProgressStreamService progressStreamService;
+    @Autowired
     private FragmentConfig fragmentConfig;
     @Autowired
     private ObjectMapper objectMapper;
@@ -55,34 +80,136 @@ public class FragmentController {
         return modelAndView;
     }
 
+    @PostMapping("/v1/{organizationId}/upload/init")
+    //"初始化直写模式上传")
+    @ResponseBody
+    public ResponseEntity<Void> init(@PathVariable Long organizationId, String guid, String fileName, String hash,
+                                     Long totalSize, Long chunkSize) {
+        fragmentService.init(guid, organizationId, fileName, hash, totalSize, chunkSize);
+        return Results.success();
+    }
+
     @PostMapping("/v1/{organizationId}/upload/check-block")
 //    @ApiOperation(value = "查看当前分片是否上传")
 //    @Permission(permissionLogin = true)
     //查看当前分片是否上传
     @ResponseBody
-    public ResponseEntity<Integer> checkMd5(@PathVariable Long organizationId, String chunk, String chunkSize, String guid) {
-        return Results.success(fragmentService.checkMd5(chunk, chunkSize, guid));
+    public ResponseEntity<Integer> checkMd5(@PathVariable Long organizationId, String chunk, String chunkSize, String guid,
+                                            String checksumType, String checksum) {
+        Integer exists = fragmentService.checkMd5(chunk, chunkSize, guid, organizationId, ChunkChecksum.of(checksumType, checksum));
+        // 其他租户的上传会话视为不存在
+        return exists == null ? Results.newResult(HttpStatus.NOT_FOUND.value()) : Results.success(exists);
+    }
+
+    @GetMapping("/v1/{organizationId}/upload/status")
+    //"查看文件已上传的全部分片")
+    @ResponseBody
+    public ResponseEntity<ChunkStatus> status(@PathVariable Long organizationId, String guid) {
+        ChunkStatus status = fragmentService.status(guid, organizationId);
+        return status == null ? Results.newResult(HttpStatus.NOT_FOUND.value()) : Results.success(status);
     }
 
     @PostMapping("/v1/{organizationId}/upload/save")
     //"上传分片")
     @ResponseBody
-    public ResponseEntity<Void> upload(@PathVariable Long organizationId, @RequestParam MultipartFile file, Integer chunk, String guid) {
-        fragmentService.upload(file, chunk, guid);
+    public ResponseEntity<Void> upload(@PathVariable Long organizationId, @RequestParam MultipartFile file, Integer chunk, String guid,
+                                       Integer chunks, Long size, String name, String hash, String checksumType, String checksum) {
+        // multipart 请求体在进入控制器前已接收并解析完成
+        RequestTrace trace = RequestTrace.current();
+        if (trace != null) {
+            trace.recordSinceStart(RequestTrace.MULTIPART);
+        }
+        // webuploader 默认携带文件名、文件大小和分片总数
+        fragmentService.declare(guid, organizationId, name, hash, size, chunks);
+        fragmentService.upload(file, chunk, guid, organizationId, ChunkChecksum.of(checksumType, checksum));
+        return Results.success();
+    }
+
+    @PostMapping(value = "/v1/{organizationId}/upload/stream/{guid}/{chunk}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    //"上传分片(请求体即分片内容，不经过multipart解析)")
+    @ResponseBody
+    public ResponseEntity<Void> uploadStream(@PathVariable Long organizationId, @PathVariable String guid, @PathVariable Integer chunk,
+                                             Integer chunks, Long size, String fileName, String hash,
+                                             String checksumType, String checksum, HttpServletRequest request) throws IOException {
+        fragmentService.declare(guid, organizationId, fileName, hash, size, chunks);
+        fragmentService.upload(request.getInputStream(), chunk, guid, organizationId, ChunkChecksum.of(checksumType, checksum));
         return Results.success();
     }
 
     @PostMapping("/v1/{organizationId}/upload/combine")
     //"合并文件(前后端不分离使用)")
     @ResponseBody
-    public ResponseEntity<String> combineBlock(@PathVariable Long organizationId, String guid, String fileName, String args) throws IOException {
-        return Results.success(fragmentService.combineUpload(guid, organizationId, fileName, null));
+    public ResponseEntity<Object> combineBlock(@PathVariable Long organizationId, String guid, String fileName, String args) throws IOException {
+        return combine(organizationId, guid, fileName, null);
     }
 
     @PostMapping("/v1/{organizationId}/upload/fragment-combine")
     // "分片文件合并(独立前端使用)")
     @ResponseBody
-    public ResponseEntity<String> fragmentCombineBlock(@PathVariable Long organizationId, String guid, String fileName, @RequestBody(required = false) Map<String, String> args) {
-        return Results.success(fragmentService.combineUpload(guid, organizationId, fileName, args));
+    public ResponseEntity<Object> fragmentCombineBlock(@PathVariable Long organizationId, String guid, String fileName, @RequestBody(required = false) Map<String, String> args) {
+        return combine(organizationId, guid, fileName, args);
+    }
+
+    /**
+     * 异步合并时返回 202 和合并任务，队列已满时返回 503；同步合并时返回文件url
+     */
+    private ResponseEntity<Object> combine(Long organizationId, String guid, String fileName, Map<String, String> args) {
+        if (!fragmentConfig.getCombine().isAsync()) {
+            return Results.success(combineJobService.combine(guid, organizationId, fileName, args));
+        }
+        CombineJob job = combineJobService.submit(guid, organizationId, fileName, args);
+        if (job.getStatus() == CombineJob.Status.REJECTED) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(COMBINE_RETRY_AFTER_SECONDS)).body(job);
+        }
+        return Results.accepted(job);
+    }
+
+    @GetMapping("/v1/{organizationId}/upload/combine-jobs/{jobId}")
+    //"查询合并任务状态、进度及结果")
+    @ResponseBody
+    public ResponseEntity<CombineJob> combineJob(@PathVariable Long organizationId, @PathVariable String jobId) {
+        return Results.success(combineJobService.getJob(jobId, organizationId));
+    }
+
+    @PostMapping("/v1/{organizationId}/upload/instant")
+    //"秒传(本租户已上传过相同内容时直接返回文件url，否则返回204)")
+    @ResponseBody
+    public ResponseEntity<String> instantUpload(@PathVariable Long organizationId, String hash, Long size, String fileName,
+                                                @RequestBody(required = false) Map<String, String> args) {
+        return Results.success(fragmentService.instantUpload(hash, size, organizationId, fileName, args));
+    }
+
+    @DeleteMapping("/v1/{organizationId}/upload/content")
+    //"释放秒传文件的引用")
+    @ResponseBody
+    public ResponseEntity<Void> releaseContent(@PathVariable Long organizationId, String hash, Long size) {
+        Assert.isTrue(hash != null && size != null, BaseConstants.ErrorCode.DATA_INVALID);
+        // 只能释放本租户持有的引用
+        return contentStore.release(hash.toLowerCase(), size, organizationId)
+                ? Results.success() : Results.newResult(HttpStatus.NOT_FOUND.value());
+    }
+
+    @GetMapping(value = "/v1/{organizationId}/upload/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    //"推送合并进度(Server-Sent Events)，任务结束后关闭")
+    public SseEmitter progress(@PathVariable Long organizationId, String guid) {
+        return progressStreamService.subscribe(guid, organizationId, combineJobService.get(guid, organizationId));
+    }
+
+    @GetMapping("/v1/{organizationId}/upload/combine-result")
+    //"查询合并结果(最后一个分片上传后自动合并)")
+    @ResponseBody
+    public ResponseEntity<CombineJob> combineResult(@PathVariable Long organizationId, String guid) {
+        return Results.success(combineJobService.get(guid, organizationId));
+    }
+
+    /**
+     * 磁盘空间不足等资源不足时返回 429 或 507，客户端在 Retry-After 后重试
+     */
+    @ExceptionHandler(UploadRejectedException.class)
+    @ResponseBody
+    public ResponseEntity<String> rejected(UploadRejectedException e) {
+        return ResponseEntity.status(e.getStatus())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds())).body(e.getMessage());
     }
 }
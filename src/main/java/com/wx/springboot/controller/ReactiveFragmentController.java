@@ -0,0 +1,353 @@
+package com.wx.springboot.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wx.springboot.config.BaseConstants;
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.config.ReactiveRequestTraceFilter;
+import com.wx.springboot.config.Results;
+import com.wx.springboot.config.TokenConstants;
+import com.wx.springboot.config.TokenUtils;
+import com.wx.springboot.config.UploadRejectedException;
+import com.wx.springboot.domain.ChunkChecksum;
+import com.wx.springboot.domain.ChunkStatus;
+import com.wx.springboot.domain.CombineJob;
+import com.wx.springboot.domain.RequestTrace;
+import com.wx.springboot.service.ChunkUpload;
+import com.wx.springboot.service.CombineJobService;
+import com.wx.springboot.service.ContentStore;
+import com.wx.springboot.service.FragmentService;
+import com.wx.springboot.service.ProgressStreamService;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.codec.multipart.DefaultPartHttpMessageReader;
+import org.springframework.http.codec.multipart.FormFieldPart;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.util.Assert;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+
+/**
+ * 分片上传相关接口（响应式），spring.profiles.active=reactive 时代替 {@link FragmentController}
+ * <p>
+ * 接口路径、参数和返回值与 servlet 版本一致。分片内容按数据块从连接读取，每块在 IO 线程池中写盘并更新摘要，
+ * 等待客户端数据时不占用线程；写盘跟不上时停止读取连接，由 TCP 反压到客户端
+ */
+@Controller("reactiveFragmentController.v1")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveFragmentController {
+
+    private static final int COMBINE_RETRY_AFTER_SECONDS = 5;
+    private static final String FILE_PART = "file";
+    private static final ResolvableType PART_TYPE = ResolvableType.forClass(Part.class);
+
+    @Autowired
+    private FragmentService fragmentService;
+    @Autowired
+    private CombineJobService combineJobService;
+    @Autowired
+    private ContentStore contentStore;
+    @Autowired
+    private FragmentConfig fragmentConfig;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private Scheduler fragmentIoScheduler;
+
+    /**
+     * 流式解析 multipart，文件内容不落临时文件
+     */
+    private final DefaultPartHttpMessageReader partReader = new DefaultPartHttpMessageReader();
+
+    public ReactiveFragmentController() {
+        partReader.setStreaming(true);
+    }
+
+    @GetMapping
+    public String indexPage(ServerWebExchange exchange, Model model) throws JsonProcessingException {
+        Map<String, String> params = new HashMap<>(exchange.getRequest().getQueryParams().toSingleValueMap());
+        params.remove(TokenConstants.ACCESS_TOKEN);
+        model.addAttribute("authHeaderName", TokenConstants.HEADER_AUTH);
+        model.addAttribute("accessToken", TokenUtils.getToken(exchange));
+        model.addAttribute("organizationId", 1);
+        model.addAttribute("gatewayPath", fragmentConfig.getGatewayPath());
+        model.addAttribute("args", objectMapper.writeValueAsString(params));
+        return "index";
+    }
+
+    @PostMapping("/v1/{organizationId}/upload/init")
+    //"初始化直写模式上传")
+    @ResponseBody
+    public Mono<ResponseEntity<Void>> init(@PathVariable Long organizationId, ServerWebExchange exchange) {
+        return params(exchange).flatMap(params -> blocking(() -> {
+            fragmentService.init(params.get("guid"), organizationId, params.get("fileName"), params.get("hash"),
+                    toLong(params.get("totalSize")), toLong(params.get("chunkSize")));
+            return Results.success();
+        }));
+    }
+
+    @PostMapping("/v1/{organizationId}/upload/check-block")
+    //查看当前分片是否上传
+    @ResponseBody
+    public Mono<ResponseEntity<Integer>> checkMd5(@PathVariable Long organizationId, ServerWebExchange exchange) {
+        return params(exchange).flatMap(params -> blocking(() -> {
+            Integer exists = fragmentService.checkMd5(params.get("chunk"), params.get("chunkSize"), params.get("guid"),
+                    organizationId, ChunkChecksum.of(params.get("checksumType"), params.get("checksum")));
+            // 其他租户的上传会话视为不存在
+            return exists == null ? Results.<Integer>newResult(HttpStatus.NOT_FOUND.value()) : Results.success(exists);
+        }));
+    }
+
+    @GetMapping("/v1/{organizationId}/upload/status")
+    //"查看文件已上传的全部分片")
+    @ResponseBody
+    public Mono<ResponseEntity<ChunkStatus>> status(@PathVariable Long organizationId, @RequestParam(required = false) String guid) {
+        return blocking(() -> {
+            ChunkStatus status = fragmentService.status(guid, organizationId);
+            return status == null ? Results.<ChunkStatus>newResult(HttpStatus.NOT_FOUND.value()) : Results.success(status);
+        });
+    }
+
+    @PostMapping(value = "/v1/{organizationId}/upload/save", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    //"上传分片")
+    @ResponseBody
+    public Mono<ResponseEntity<Void>> upload(@PathVariable Long organizationId, ServerWebExchange exchange) {
+        // webuploader 先发送表单字段，最后发送文件
+        Map<String, String> fields = new HashMap<>(exchange.getRequest().getQueryParams().toSingleValueMap());
+        AtomicBoolean received = new AtomicBoolean();
+        return partReader.read(PART_TYPE, exchange.getRequest(), Collections.emptyMap())
+                .concatMap(part -> {
+                    if (part instanceof FormFieldPart) {
+                        fields.put(part.name(), ((FormFieldPart) part).value());
+                        return Mono.empty();
+                    }
+                    if (!FILE_PART.equals(part.name()) || !received.compareAndSet(false, true)) {
+                        return part.content().doOnNext(DataBufferUtils::release).then();
+                    }
+                    String guid = fields.get("guid");
+                    return write(part.content(), toInteger(fields.get("chunk")), guid, organizationId,
+                            ChunkChecksum.of(fields.get("checksumType"), fields.get("checksum")),
+                            // webuploader 默认携带文件名、文件大小和分片总数
+                            () -> fragmentService.declare(guid, organizationId, fields.get("name"), fields.get("hash"),
+                                    toLong(fields.get("size")), toInteger(fields.get("chunks"))));
+                })
+                .then(Mono.fromCallable(() -> {
+                    Assert.isTrue(received.get(), BaseConstants.ErrorCode.DATA_INVALID);
+                    return Results.<Void>success();
+                }));
+    }
+
+    @PostMapping(value = "/v1/{organizationId}/upload/stream/{guid}/{chunk}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    //"上传分片(请求体即分片内容，不经过multipart解析)")
+    @ResponseBody
+    public Mono<ResponseEntity<Void>> uploadStream(@PathVariable Long organizationId, @PathVariable String guid, @PathVariable Integer chunk,
+                                                   @RequestParam(required = false) Integer chunks, @RequestParam(required = false) Long size,
+                                                   @RequestParam(required = false) String fileName, @RequestParam(required = false) String hash,
+                                                   @RequestParam(required = false) String checksumType,
+                                                   @RequestParam(required = false) String checksum, ServerWebExchange exchange) {
+        return write(exchange.getRequest().getBody(), chunk, guid, organizationId, ChunkChecksum.of(checksumType, checksum),
+                () -> fragmentService.declare(guid, organizationId, fileName, hash, size, chunks))
+                .then(Mono.fromCallable(Results::<Void>success));
+    }
+
+    @PostMapping("/v1/{organizationId}/upload/combine")
+    //"合并文件(前后端不分离使用)")
+    @ResponseBody
+    public Mono<ResponseEntity<Object>> combineBlock(@PathVariable Long organizationId, ServerWebExchange exchange) {
+        return params(exchange).flatMap(params -> combine(organizationId, params.get("guid"), params.get("fileName"), null));
+    }
+
+    @PostMapping("/v1/{organizationId}/upload/fragment-combine")
+    // "分片文件合并(独立前端使用)")
+    @ResponseBody
+    public Mono<ResponseEntity<Object>> fragmentCombineBlock(@PathVariable Long organizationId, @RequestParam(required = false) String guid,
+                                                             @RequestParam(required = false) String fileName,
+                                                             @RequestBody(required = false) Mono<Map<String, String>> args) {
+        return args.map(Optional::of).defaultIfEmpty(Optional.empty())
+                .flatMap(body -> combine(organizationId, guid, fileName, body.orElse(null)));
+    }
+
+    /**
+     * 异步合并时返回 202 和合并任务，队列已满时返回 503；同步合并时在 IO 线程池中合并并返回文件url
+     */
+    private Mono<ResponseEntity<Object>> combine(Long organizationId, String guid, String fileName, Map<String, String> args) {
+        if (!fragmentConfig.getCombine().isAsync()) {
+            return blocking(() -> Results.success(combineJobService.combine(guid, organizationId, fileName, args)));
+        }
+        return blocking(() -> {
+            CombineJob job = combineJobService.submit(guid, organizationId, fileName, args);
+            if (job.getStatus() == CombineJob.Status.REJECTED) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(COMBINE_RETRY_AFTER_SECONDS)).body(job);
+            }
+            return Results.accepted(job);
+        });
+    }
+
+    @GetMapping("/v1/{organizationId}/upload/combine-jobs/{jobId}")
+    //"查询合并任务状态、进度及结果")
+    @ResponseBody
+    public ResponseEntity<CombineJob> combineJob(@PathVariable Long organizationId, @PathVariable String jobId) {
+        return Results.success(combineJobService.getJob(jobId, organizationId));
+    }
+
+    @PostMapping("/v1/{organizationId}/upload/instant")
+    //"秒传(本租户已上传过相同内容时直接返回文件url，否则返回204)")
+    @ResponseBody
+    public Mono<ResponseEntity<String>> instantUpload(@PathVariable Long organizationId, @RequestParam(required = false) String hash,
+                                                      @RequestParam(required = false) Long size,
+                                                      @RequestParam(required = false) String fileName,
+                                                      @RequestBody(required = false) Mono<Map<String, String>> args) {
+        return args.map(Optional::of).defaultIfEmpty(Optional.empty())
+                .flatMap(body -> blocking(() -> Results.success(
+                        fragmentService.instantUpload(hash, size, organizationId, fileName, body.orElse(null)))));
+    }
+
+    @DeleteMapping("/v1/{organizationId}/upload/content")
+    //"释放秒传文件的引用")
+    @ResponseBody
+    public Mono<ResponseEntity<Void>> releaseContent(@PathVariable Long organizationId, @RequestParam(required = false) String hash,
+                                                     @RequestParam(required = false) Long size) {
+        Assert.isTrue(hash != null && size != null, BaseConstants.ErrorCode.DATA_INVALID);
+        return blocking(() -> {
+            // 只能释放本租户持有的引用
+            return contentStore.release(hash.toLowerCase(), size, organizationId)
+                    ? Results.<Void>success() : Results.<Void>newResult(HttpStatus.NOT_FOUND.value());
+        });
+    }
+
+    /**
+     * 按 progressInterval 推送合并任务，任务结束后关闭；servlet 版本的状态变化即时推送，这里在下一个间隔推送
+     */
+    @GetMapping(value = "/v1/{organizationId}/upload/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    //"推送合并进度(Server-Sent Events)，任务结束后关闭")
+    @ResponseBody
+    public Flux<ServerSentEvent<CombineJob>> progress(@PathVariable Long organizationId, @RequestParam(required = false) String guid) {
+        FragmentConfig.Combine combine = fragmentConfig.getCombine();
+        Duration interval = combine.getProgressInterval().isZero() ? Duration.ofMillis(1) : combine.getProgressInterval();
+        return Flux.interval(Duration.ZERO, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> Mono.justOrEmpty(combineJobService.get(guid, organizationId)))
+                .takeUntil(CombineJob::isFinished)
+                .take(combine.getProgressTimeout())
+                .map(job -> ServerSentEvent.builder(job).event(ProgressStreamService.EVENT_NAME).build());
+    }
+
+    @GetMapping("/v1/{organizationId}/upload/combine-result")
+    //"查询合并结果(最后一个分片上传后自动合并)")
+    @ResponseBody
+    public ResponseEntity<CombineJob> combineResult(@PathVariable Long organizationId, @RequestParam(required = false) String guid) {
+        return Results.success(combineJobService.get(guid, organizationId));
+    }
+
+    /**
+     * 将请求体写入分片，每个数据块在 IO 线程池中写盘；最多预取 prefetch 块，写盘跟不上时不再读取连接
+     *
+     * @param content 分片内容
+     * @param declare 开始写入前执行，如声明文件大小和分片总数
+     */
+    private Mono<Void> write(Flux<DataBuffer> content, Integer chunk, String guid, Long tenantId, ChunkChecksum checksum,
+                             Runnable declare) {
+        int prefetch = Math.max(1, fragmentConfig.getReactive().getPrefetch());
+        return blocking(() -> {
+            declare.run();
+            return fragmentService.begin(chunk, guid, tenantId, checksum);
+        }).flatMap(upload -> content
+                .publishOn(fragmentIoScheduler, prefetch)
+                .doOnNext(buffer -> write(upload, buffer))
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                // 最后一个分片完成时触发自动合并，合并任务沿用当前请求ID
+                .then(blocking(() -> {
+                    upload.complete();
+                    return Boolean.TRUE;
+                }))
+                .doOnError(e -> upload.abort())
+                .doOnCancel(upload::abort)
+                .then());
+    }
+
+    private static void write(ChunkUpload upload, DataBuffer buffer) {
+        try {
+            upload.write(buffer.asByteBuffer());
+        } catch (IOException e) {
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    /**
+     * 在 IO 线程池中执行阻塞操作
+     */
+    private <T> Mono<T> blocking(Callable<T> task) {
+        return Mono.deferContextual(context -> Mono.fromCallable(() -> {
+            // 请求跟踪绑定到执行线程，服务层按线程记录各阶段耗时
+            RequestTrace trace = context.getOrDefault(ReactiveRequestTraceFilter.CONTEXT_KEY, null);
+            if (trace == null) {
+                return task.call();
+            }
+            trace.bind();
+            try {
+                return task.call();
+            } finally {
+                RequestTrace.unbind();
+            }
+        })).subscribeOn(fragmentIoScheduler);
+    }
+
+    /**
+     * 查询参数和 application/x-www-form-urlencoded 表单参数
+     */
+    private static Mono<Map<String, String>> params(ServerWebExchange exchange) {
+        return exchange.getFormData().map(form -> {
+            MultiValueMap<String, String> params = new LinkedMultiValueMap<>(exchange.getRequest().getQueryParams());
+            params.addAll(form);
+            return params.toSingleValueMap();
+        });
+    }
+
+    private static Long toLong(String value) {
+        return StringUtils.hasText(value) ? Long.valueOf(value) : null;
+    }
+
+    private static Integer toInteger(String value) {
+        return StringUtils.hasText(value) ? Integer.valueOf(value) : null;
+    }
+
+    /**
+     * 磁盘空间不足等资源不足时返回 429 或 507，客户端在 Retry-After 后重试
+     */
+    @ExceptionHandler(UploadRejectedException.class)
+    @ResponseBody
+    public ResponseEntity<String> rejected(UploadRejectedException e) {
+        return ResponseEntity.status(e.getStatus())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds())).body(e.getMessage());
+    }
+}
@@ -0,0 +1,27 @@
+package com.wx.springboot.controller;
+
+import com.wx.springboot.domain.RequestTrace;
+import com.wx.springboot.service.RequestTraceService;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * 最近的慢请求及各阶段耗时：GET /actuator/uploadtraces
+ */
+@Component
+@Endpoint(id = "uploadtraces")
+public class UploadTraceEndpoint {
+
+    @Autowired
+    private RequestTraceService requestTraceService;
+
+    @ReadOperation
+    public List<RequestTrace> slowTraces() {
+        return requestTraceService.slowTraces();
+    }
+}
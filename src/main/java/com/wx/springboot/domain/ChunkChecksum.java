@@ -0,0 +1,154 @@
+package com.wx.springboot.domain;
+
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * 分片校验和
+ * <p>
+ * 支持 crc32c 和 crc32，均由 JDK 使用 CPU 指令计算；CRC32C 需要 Java 9 及以上，运行在 Java 8 时只支持 crc32
+ */
+public class ChunkChecksum {
+
+    public static final String CRC32C = "crc32c";
+    public static final String CRC32_TYPE = "crc32";
+
+    private static final Constructor<? extends Checksum> CRC32C_CONSTRUCTOR = crc32cConstructor();
+    private static final int SCRATCH_SIZE = 8192;
+
+    private final String type;
+    private final long value;
+
+    private ChunkChecksum(String type, long value) {
+        this.type = type;
+        this.value = value;
+    }
+
+    /**
+     * @param type  算法，为空时为 crc32c
+     * @param value 十六进制校验和
+     * @return 校验和，value 为空时返回 null
+     * @throws IllegalArgumentException 算法不支持或校验和格式错误
+     */
+    public static ChunkChecksum of(String type, String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        type = type == null || type.isEmpty() ? CRC32C : type.toLowerCase();
+        if (!isSupported(type)) {
+            throw new IllegalArgumentException("fragment.error.checksum-unsupported");
+        }
+        try {
+            return new ChunkChecksum(type, Long.parseLong(value, 16));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("fragment.error.checksum-invalid", e);
+        }
+    }
+
+    /**
+     * @param text toString 的结果，如 crc32c:e3069283
+     * @return 校验和，格式错误时返回 null
+     */
+    public static ChunkChecksum parse(String text) {
+        int index = text == null ? -1 : text.indexOf(':');
+        if (index < 0) {
+            return null;
+        }
+        try {
+            return of(text.substring(0, index), text.substring(index + 1).trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public static boolean isSupported(String type) {
+        return CRC32_TYPE.equals(type) || (CRC32C.equals(type) && CRC32C_CONSTRUCTOR != null);
+    }
+
+    /**
+     * @return 新的同类型校验和计算器
+     */
+    public Checksum newChecksum() {
+        if (CRC32_TYPE.equals(type)) {
+            return new CRC32();
+        }
+        try {
+            return CRC32C_CONSTRUCTOR.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 更新校验和，不改变 buffer 的位置
+     * <p>
+     * Checksum.update(ByteBuffer) 自 Java 9 起才提供，CRC32C 只能经由 byte[] 计算：堆内 buffer 直接使用其数组，堆外 buffer 分段复制
+     */
+    public static void update(Checksum checksum, ByteBuffer buffer) {
+        if (checksum instanceof CRC32) {
+            ((CRC32) checksum).update(buffer.duplicate());
+        } else if (buffer.hasArray()) {
+            checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            ByteBuffer source = buffer.duplicate();
+            byte[] scratch = new byte[Math.min(source.remaining(), SCRATCH_SIZE)];
+            while (source.hasRemaining()) {
+                int length = Math.min(source.remaining(), scratch.length);
+                source.get(scratch, 0, length);
+                checksum.update(scratch, 0, length);
+            }
+        }
+    }
+
+    public boolean matches(Checksum checksum) {
+        return checksum.getValue() == value;
+    }
+
+    /**
+     * @return 与 computed 相同类型的校验和
+     */
+    public ChunkChecksum withValue(Checksum computed) {
+        return new ChunkChecksum(type, computed.getValue());
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ChunkChecksum)) {
+            return false;
+        }
+        ChunkChecksum that = (ChunkChecksum) o;
+        return value == that.value && type.equals(that.type);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + Long.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return type + ":" + String.format("%08x", value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Constructor<? extends Checksum> crc32cConstructor() {
+        try {
+            return (Constructor<? extends Checksum>) Class.forName("java.util.zip.CRC32C").getConstructor();
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.wx.springboot.domain;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 已接收分片状态
+ * <p>
+ * 已接收分片以连续区间表示，如 [[0,99],[101,200]]；
+ * 分片大小默认均为 chunkSize，不同的（通常是最后一片）单独列在 sizes 中
+ */
+public class ChunkStatus {
+
+    private String guid;
+    /**
+     * 分片总数，未知时为空
+     */
+    private Integer chunkCount;
+    /**
+     * 已接收分片数
+     */
+    private int receivedCount;
+    private long chunkSize;
+    /**
+     * 已接收分片区间，首尾均包含
+     */
+    private List<int[]> ranges = new ArrayList<>();
+    /**
+     * 大小不等于 chunkSize 的分片
+     */
+    private Map<Integer, Long> sizes = new LinkedHashMap<>();
+
+    public ChunkStatus() {
+    }
+
+    public ChunkStatus(String guid) {
+        this.guid = guid;
+    }
+
+    /**
+     * 按分片编号升序追加已接收分片
+     *
+     * @param chunk 分片编号
+     * @param size  分片大小
+     */
+    public void append(int chunk, long size) {
+        int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+        if (last != null && last[1] == chunk - 1) {
+            last[1] = chunk;
+        } else {
+            ranges.add(new int[]{chunk, chunk});
+        }
+        if (size != chunkSize) {
+            sizes.put(chunk, size);
+        }
+        receivedCount++;
+    }
+
+    public String getGuid() {
+        return guid;
+    }
+
+    public void setGuid(String guid) {
+        this.guid = guid;
+    }
+
+    public Integer getChunkCount() {
+        return chunkCount;
+    }
+
+    public void setChunkCount(Integer chunkCount) {
+        this.chunkCount = chunkCount;
+    }
+
+    public int getReceivedCount() {
+        return receivedCount;
+    }
+
+    public void setReceivedCount(int receivedCount) {
+        this.receivedCount = receivedCount;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public List<int[]> getRanges() {
+        return ranges;
+    }
+
+    public void setRanges(List<int[]> ranges) {
+        this.ranges = ranges;
+    }
+
+    public Map<Integer, Long> getSizes() {
+        return sizes;
+    }
+
+    public void setSizes(Map<Integer, Long> sizes) {
+        this.sizes = sizes;
+    }
+}
@@ -0,0 +1,267 @@
+package com.wx.springboot.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并任务
+ */
+public class CombineJob implements CombineProgress {
+
+    public enum Status {
+        /**
+         * 等待执行
+         */
+        QUEUED,
+        /**
+         * 合并及文件处理中
+         */
+        RUNNING,
+        SUCCESS,
+        FAILED,
+        /**
+         * 队列已满，未执行
+         */
+        REJECTED
+    }
+
+    /**
+     * 执行阶段
+     */
+    public enum Phase {
+        /**
+         * 补算并校验整个文件摘要
+         */
+        HASHING,
+        /**
+         * 合并分片
+         */
+        MERGING,
+        /**
+         * 调用文件处理器
+         */
+        PROCESSING
+    }
+
+    /**
+     * 任务变化监听
+     */
+    public interface Listener {
+
+        /**
+         * @param job       任务
+         * @param important 状态或阶段变化时为 true，字节进度变化时为 false
+         */
+        void changed(CombineJob job, boolean important);
+    }
+
+    private final String jobId;
+    private final String guid;
+    private final Long tenantId;
+    private final String fileName;
+    @JsonIgnore
+    private volatile Map<String, String> params;
+    private final long createdTime;
+    private volatile Status status = Status.QUEUED;
+    private volatile Phase phase;
+    private volatile String url;
+    private volatile String errorMessage;
+    private volatile long finishedTime;
+    private volatile long totalBytes = -1;
+    private final AtomicLong hashedBytes = new AtomicLong();
+    private final AtomicLong mergedBytes = new AtomicLong();
+    private final List<HandlerResult> results = new CopyOnWriteArrayList<>();
+    @JsonIgnore
+    private final CompletableFuture<String> future = new CompletableFuture<>();
+    @JsonIgnore
+    private volatile Listener listener;
+
+    public CombineJob(String guid, Long tenantId, String fileName, Map<String, String> params) {
+        this.jobId = UUID.randomUUID().toString().replace("-", "");
+        this.guid = guid;
+        this.tenantId = tenantId;
+        this.fileName = fileName;
+        this.params = params == null ? Collections.emptyMap() : params;
+        this.createdTime = System.currentTimeMillis();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void begin() {
+        synchronized (this) {
+            status = Status.RUNNING;
+        }
+        changed(true);
+    }
+
+    /**
+     * 替换尚未开始执行的任务的文件处理器参数
+     *
+     * @return 任务已开始或已结束时返回 false
+     */
+    public synchronized boolean attach(Map<String, String> params) {
+        if (status != Status.QUEUED) {
+            return false;
+        }
+        this.params = params == null ? Collections.emptyMap() : params;
+        return true;
+    }
+
+    @Override
+    public void phase(Phase phase) {
+        this.phase = phase;
+        changed(true);
+    }
+
+    @Override
+    public void start(long totalBytes) {
+        this.totalBytes = totalBytes;
+        changed(false);
+    }
+
+    @Override
+    public void hashed(long bytes) {
+        hashedBytes.addAndGet(bytes);
+        changed(false);
+    }
+
+    @Override
+    public void merged(long bytes) {
+        mergedBytes.addAndGet(bytes);
+        changed(false);
+    }
+
+    @Override
+    public void handled(HandlerResult result) {
+        results.add(result);
+        changed(true);
+    }
+
+    public void reject(Throwable e) {
+        this.errorMessage = e.getMessage();
+        this.finishedTime = System.currentTimeMillis();
+        this.status = Status.REJECTED;
+        future.completeExceptionally(e);
+        changed(true);
+    }
+
+    public void succeed(String url) {
+        this.url = url;
+        this.finishedTime = System.currentTimeMillis();
+        this.status = Status.SUCCESS;
+        future.complete(url);
+        changed(true);
+    }
+
+    public void fail(Throwable e) {
+        this.errorMessage = e.getMessage();
+        this.finishedTime = System.currentTimeMillis();
+        this.status = Status.FAILED;
+        future.completeExceptionally(e);
+        changed(true);
+    }
+
+    private void changed(boolean important) {
+        Listener current = listener;
+        if (current != null) {
+            current.changed(this, important);
+        }
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return status == Status.SUCCESS || status == Status.FAILED || status == Status.REJECTED;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getGuid() {
+        return guid;
+    }
+
+    public Long getTenantId() {
+        return tenantId;
+    }
+
+    /**
+     * @return 文件处理器参数，没有时为空 Map；开始执行前可能被 attach 替换
+     */
+    @JsonIgnore
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return 执行阶段，未开始时为空
+     */
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public long getFinishedTime() {
+        return finishedTime;
+    }
+
+    /**
+     * @return 待合并的字节数，开始合并前为 -1
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return 合并前补算摘要的字节数，上传时已计算的部分不计入
+     */
+    public long getHashedBytes() {
+        return hashedBytes.get();
+    }
+
+    /**
+     * @return 已合并的字节数，等于 totalBytes 后开始调用文件处理器
+     */
+    public long getMergedBytes() {
+        return mergedBytes.get();
+    }
+
+    /**
+     * @return 已完成的文件处理器结果，包括耗时
+     */
+    public List<HandlerResult> getResults() {
+        return results;
+    }
+
+    public CompletableFuture<String> getFuture() {
+        return future;
+    }
+}
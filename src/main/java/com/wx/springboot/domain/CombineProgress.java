@@ -0,0 +1,52 @@
+package com.wx.springboot.domain;
+
+/**
+ * 合并进度
+ */
+public interface CombineProgress {
+
+    /**
+     * 不记录进度
+     */
+    CombineProgress NONE = bytes -> {
+    };
+
+    /**
+     * 进入新的阶段
+     *
+     * @param phase 阶段
+     */
+    default void phase(CombineJob.Phase phase) {
+    }
+
+    /**
+     * 合并前补算了部分摘要
+     *
+     * @param bytes 本次计算的字节数
+     */
+    default void hashed(long bytes) {
+    }
+
+    /**
+     * 一个文件处理器执行完成
+     *
+     * @param result 处理结果
+     */
+    default void handled(HandlerResult result) {
+    }
+
+    /**
+     * 开始合并
+     *
+     * @param totalBytes 文件大小
+     */
+    default void start(long totalBytes) {
+    }
+
+    /**
+     * 已合并部分内容，可能被多个线程同时调用
+     *
+     * @param bytes 本次合并的字节数
+     */
+    void merged(long bytes);
+}
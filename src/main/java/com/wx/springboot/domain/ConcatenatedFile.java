@@ -0,0 +1,221 @@
+package com.wx.springboot.domain;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按顺序拼接的多个文件组成的只读视图，不生成合并后的文件
+ * <p>
+ * 每次打开的通道或输入流相互独立，可以在多个线程中分别读取；分片文件只在读到时才打开
+ */
+public class ConcatenatedFile {
+
+    private final List<Segment> segments;
+    /**
+     * 各段在视图中的起始位置，最后一个元素为总长度
+     */
+    private final long[] offsets;
+
+    private ConcatenatedFile(List<Segment> segments) {
+        this.segments = segments;
+        this.offsets = new long[segments.size() + 1];
+        for (int i = 0; i < segments.size(); i++) {
+            offsets[i + 1] = offsets[i] + segments.get(i).length;
+        }
+    }
+
+    /**
+     * @param files 已排序的分片文件
+     * @return 视图
+     */
+    public static ConcatenatedFile of(List<File> files) {
+        List<Segment> segments = new ArrayList<>(files.size());
+        for (File file : files) {
+            segments.add(new Segment(file, 0, file.length()));
+        }
+        return new ConcatenatedFile(segments);
+    }
+
+    /**
+     * @param file 单个文件
+     * @return 视图
+     */
+    public static ConcatenatedFile of(File file) {
+        return of(Collections.singletonList(file));
+    }
+
+    /**
+     * @return 总长度
+     */
+    public long size() {
+        return offsets[segments.size()];
+    }
+
+    /**
+     * @return 组成视图的文件
+     */
+    public List<File> getFiles() {
+        List<File> files = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            files.add(segment.file);
+        }
+        return files;
+    }
+
+    /**
+     * @return 新的可定位只读通道，使用后需要关闭
+     */
+    public SeekableByteChannel openChannel() {
+        return new ConcatenatedChannel();
+    }
+
+    /**
+     * @return 新的输入流，使用后需要关闭
+     */
+    public InputStream openStream() {
+        return Channels.newInputStream(openChannel());
+    }
+
+    private static class Segment {
+
+        private final File file;
+        private final long start;
+        private final long length;
+
+        Segment(File file, long start, long length) {
+            this.file = file;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    private class ConcatenatedChannel implements SeekableByteChannel {
+
+        private long position;
+        private int current = -1;
+        private FileChannel channel;
+        private boolean open = true;
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ensureOpen();
+            if (position >= size()) {
+                return -1;
+            }
+            int total = 0;
+            while (dst.hasRemaining() && position < size()) {
+                int index = segmentOf(position);
+                Segment segment = segments.get(index);
+                long offsetInSegment = position - offsets[index];
+                FileChannel in = channel(index);
+                int limit = dst.limit();
+                long remaining = segment.length - offsetInSegment;
+                if (dst.remaining() > remaining) {
+                    dst.limit(dst.position() + (int) remaining);
+                }
+                int read;
+                try {
+                    read = in.read(dst, segment.start + offsetInSegment);
+                } finally {
+                    dst.limit(limit);
+                }
+                if (read < 0) {
+                    throw new IOException("file truncated : " + segment.file);
+                }
+                position += read;
+                total += read;
+            }
+            return total;
+        }
+
+        /**
+         * 二分查找 position 所在的段，跳过长度为 0 的段
+         */
+        private int segmentOf(long position) {
+            int index = Arrays.binarySearch(offsets, position);
+            if (index < 0) {
+                return -index - 2;
+            }
+            while (index < segments.size() - 1 && offsets[index + 1] == position) {
+                index++;
+            }
+            return index;
+        }
+
+        private FileChannel channel(int index) throws IOException {
+            if (index != current) {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+                channel = FileChannel.open(segments.get(index).file.toPath(), StandardOpenOption.READ);
+                current = index;
+            }
+            return channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            ensureOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("negative position");
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            ensureOpen();
+            return ConcatenatedFile.this.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+
+        private void ensureOpen() throws ClosedChannelException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.wx.springboot.domain;
+
+/**
+ * 单个文件处理器的处理结果
+ */
+public class HandlerResult {
+
+    private final String handler;
+    private final int order;
+    private final String url;
+    private final long cost;
+    private final String errorMessage;
+
+    public HandlerResult(String handler, int order, String url, long cost, String errorMessage) {
+        this.handler = handler;
+        this.order = order;
+        this.url = url;
+        this.cost = cost;
+        this.errorMessage = errorMessage;
+    }
+
+    /**
+     * @return 处理器类名
+     */
+    public String getHandler() {
+        return handler;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return 耗时，毫秒
+     */
+    public long getCost() {
+        return cost;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public boolean isSuccess() {
+        return errorMessage == null;
+    }
+}
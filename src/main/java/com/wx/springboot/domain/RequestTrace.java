@@ -0,0 +1,154 @@
+package com.wx.springboot.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import org.slf4j.MDC;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求耗时分解，按阶段（receive、multipart、write、fsync、digest、merge、handler.{处理器}）累计耗时
+ * <p>
+ * 请求线程通过 {@link #current()} 获取；在其他线程中执行的阶段（如并发的文件处理器）需先取得对象再传递
+ */
+public class RequestTrace {
+
+    public static final String RECEIVE = "receive";
+    public static final String MULTIPART = "multipart";
+    public static final String WRITE = "write";
+    public static final String FSYNC = "fsync";
+    public static final String DIGEST = "digest";
+    public static final String MERGE = "merge";
+    public static final String HANDLER = "handler.";
+    /**
+     * 日志 MDC 中的请求ID，日志格式中以 %X{requestId} 输出
+     */
+    public static final String MDC_KEY = "requestId";
+
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+    private final String requestId;
+    private final String method;
+    private final String uri;
+    private final long startTime;
+    private final long startNanos;
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private volatile int status;
+    private volatile long totalNanos = -1;
+
+    public RequestTrace(String requestId, String method, String uri) {
+        this.requestId = requestId;
+        this.method = method;
+        this.uri = uri;
+        this.startTime = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return 当前线程的请求，没有时返回 null
+     */
+    public static RequestTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 绑定到当前线程，请求ID同时放入日志 MDC
+     */
+    public void bind() {
+        CURRENT.set(this);
+        MDC.put(MDC_KEY, requestId);
+    }
+
+    /**
+     * 解除当前线程绑定的请求
+     */
+    public static void unbind() {
+        CURRENT.remove();
+        MDC.remove(MDC_KEY);
+    }
+
+    /**
+     * 累计阶段耗时，trace 为空时忽略
+     */
+    public static void record(RequestTrace trace, String phase, long nanos) {
+        if (trace != null) {
+            trace.record(phase, nanos);
+        }
+    }
+
+    public synchronized void record(String phase, long nanos) {
+        phases.merge(phase, nanos, Long::sum);
+    }
+
+    /**
+     * 从请求开始到现在的耗时记为一个阶段，如 multipart 解析在进入控制器前完成
+     */
+    public void recordSinceStart(String phase) {
+        record(phase, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param status 响应状态码
+     */
+    public void finish(int status) {
+        this.status = status;
+        this.totalNanos = System.nanoTime() - startNanos;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return 总耗时（毫秒），未结束时为 -1
+     */
+    public long getTotal() {
+        return totalNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    @JsonIgnore
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return 各阶段耗时（毫秒，保留一位小数）
+     */
+    public synchronized Map<String, Double> getPhases() {
+        Map<String, Double> millis = new LinkedHashMap<>(phases.size());
+        phases.forEach((phase, nanos) -> millis.put(phase, Math.round(nanos / 100_000.0) / 10.0));
+        return millis;
+    }
+
+    /**
+     * 单行结构化输出，便于日志检索
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("requestId=").append(requestId)
+                .append(" method=").append(method)
+                .append(" uri=").append(uri)
+                .append(" status=").append(status)
+                .append(" total=").append(getTotal()).append("ms");
+        getPhases().forEach((phase, millis) -> sb.append(' ').append(phase).append('=').append(millis).append("ms"));
+        return sb.toString();
+    }
+}
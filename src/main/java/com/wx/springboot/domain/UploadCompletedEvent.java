@@ -0,0 +1,29 @@
+package com.wx.springboot.domain;
+
+/**
+ * 文件的全部分片已上传
+ */
+public class UploadCompletedEvent {
+
+    private final String guid;
+    private final Long tenantId;
+    private final String fileName;
+
+    public UploadCompletedEvent(String guid, Long tenantId, String fileName) {
+        this.guid = guid;
+        this.tenantId = tenantId;
+        this.fileName = fileName;
+    }
+
+    public String getGuid() {
+        return guid;
+    }
+
+    public Long getTenantId() {
+        return tenantId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+}
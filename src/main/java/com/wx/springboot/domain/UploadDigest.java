@@ -0,0 +1,179 @@
+package com.wx.springboot.domain;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 上传过程中按分片顺序增量计算的整个文件摘要
+ * <p>
+ * 只有下一个待计算的分片可以在写盘的同时计算，先到达的后续分片在前一分片完成后从磁盘补算；
+ * 同一时刻只有一个分片在计算，计算失败时丢弃副本，已提交的摘要不受影响。
+ * 使用 ReentrantLock 而不是 synchronized，等待时不会占住虚拟线程的载体线程
+ */
+public class UploadDigest {
+
+    private final MessageDigest[] digests;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition idle = lock.newCondition();
+    /**
+     * 下一个待计算的分片
+     */
+    private int next;
+    private boolean busy;
+    /**
+     * 正在计算的摘要副本，重置后作废
+     */
+    private MessageDigest[] pending;
+
+    public UploadDigest(List<String> algorithms) {
+        digests = new MessageDigest[algorithms.size()];
+        try {
+            for (int i = 0; i < digests.length; i++) {
+                digests[i] = MessageDigest.getInstance(algorithms.get(i));
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * 开始计算分片
+     *
+     * @param chunk 分片编号
+     * @return 摘要副本，不是下一个待计算的分片或其他分片正在计算时返回 null
+     */
+    public MessageDigest[] begin(int chunk) {
+        lock.lock();
+        try {
+            if (busy || chunk != next) {
+                return null;
+            }
+            busy = true;
+            pending = copy();
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 开始计算分片，其他分片正在计算时等待
+     *
+     * @param chunk 分片编号
+     * @return 摘要副本，不是下一个待计算的分片时返回 null
+     */
+    public MessageDigest[] await(int chunk) throws InterruptedException {
+        lock.lock();
+        try {
+            while (busy) {
+                idle.await();
+            }
+            return begin(chunk);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 分片计算完成
+     *
+     * @param working begin 返回的摘要副本
+     */
+    public void commit(MessageDigest[] working) {
+        lock.lock();
+        try {
+            if (working == pending) {
+                System.arraycopy(working, 0, digests, 0, digests.length);
+                next++;
+            }
+            pending = null;
+            busy = false;
+            idle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 放弃本次计算
+     */
+    public void abort() {
+        lock.lock();
+        try {
+            pending = null;
+            busy = false;
+            idle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 已计算过的分片被重新上传，内容可能变化，从头计算
+     */
+    public void reset(int chunk) {
+        lock.lock();
+        try {
+            if (chunk < next) {
+                for (MessageDigest digest : digests) {
+                    digest.reset();
+                }
+                next = 0;
+                pending = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getNext() {
+        lock.lock();
+        try {
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 算法 -> 十六进制摘要，算法名为小写
+     */
+    public Map<String, String> result() {
+        lock.lock();
+        try {
+            Map<String, String> result = new LinkedHashMap<>(digests.length);
+            for (MessageDigest digest : copy()) {
+                result.put(digest.getAlgorithm().toLowerCase(), toHex(digest.digest()));
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private MessageDigest[] copy() {
+        MessageDigest[] copy = new MessageDigest[digests.length];
+        try {
+            for (int i = 0; i < digests.length; i++) {
+                copy[i] = (MessageDigest) digests[i].clone();
+            }
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        return copy;
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+}
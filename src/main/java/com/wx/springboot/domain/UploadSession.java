@@ -0,0 +1,371 @@
+package com.wx.springboot.domain;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 上传会话
+ * <p>
+ * 分片模式：每个分片保存为单独的文件，合并时按编号顺序拼接；
+ * 直写模式：客户端预先声明文件大小和分片大小，分片 n 直接写入目标文件偏移 n * chunkSize 处
+ */
+public class UploadSession {
+
+    private static final int UNKNOWN = -1;
+
+    private final String guid;
+    private final boolean direct;
+    private final long createdTime;
+    /**
+     * 文件大小，未声明时为 -1
+     */
+    private long totalSize = UNKNOWN;
+    /**
+     * 分片大小，分片模式下为已接收分片中的最大值
+     */
+    private long chunkSize;
+    /**
+     * 分片总数，未声明时为 -1
+     */
+    private int chunkCount = UNKNOWN;
+    /**
+     * 已接收分片
+     */
+    private final BitSet received = new BitSet();
+    /**
+     * 开始上传过的分片，用于统计重传
+     */
+    private final BitSet attempted = new BitSet();
+    /**
+     * 分片模式下各分片的长度
+     */
+    private long[] chunkLengths = new long[0];
+    private long receivedBytes;
+    private volatile long lastActivityTime;
+    /**
+     * 正在写入的分片数，大于 0 时不清理
+     */
+    private int writers;
+    /**
+     * 已被清理，不再接受写入
+     */
+    private boolean expired;
+    private volatile Long tenantId;
+    private volatile String fileName;
+    /**
+     * 客户端声明的整个文件摘要，合并前校验
+     */
+    private volatile String expectedHash;
+    private UploadDigest digest;
+
+    private UploadSession(String guid, boolean direct) {
+        this.guid = guid;
+        this.direct = direct;
+        this.createdTime = System.currentTimeMillis();
+        this.lastActivityTime = createdTime;
+    }
+
+    /**
+     * @param guid 当前文件的MD5值
+     * @return 分片模式会话
+     */
+    public static UploadSession chunked(String guid) {
+        return new UploadSession(guid, false);
+    }
+
+    /**
+     * @param guid      当前文件的MD5值
+     * @param totalSize 文件大小
+     * @param chunkSize 分片大小
+     * @return 直写模式会话
+     */
+    public static UploadSession direct(String guid, long totalSize, long chunkSize) {
+        UploadSession session = new UploadSession(guid, true);
+        session.totalSize = totalSize;
+        session.chunkSize = chunkSize;
+        session.chunkCount = (int) Math.max(1, (totalSize + chunkSize - 1) / chunkSize);
+        return session;
+    }
+
+    /**
+     * 分片模式下声明文件大小和分片总数，已声明时忽略
+     *
+     * @param totalSize  文件大小
+     * @param chunkCount 分片总数
+     * @return 是否本次声明
+     */
+    public synchronized boolean declare(long totalSize, int chunkCount) {
+        if (direct || this.chunkCount != UNKNOWN || totalSize < 0 || chunkCount <= 0) {
+            return false;
+        }
+        this.totalSize = totalSize;
+        this.chunkCount = chunkCount;
+        return true;
+    }
+
+    /**
+     * 记录租户和文件名，自动合并时使用；租户只记录第一次，即会话的所有者
+     *
+     * @param tenantId 租户Id
+     * @param fileName 文件名
+     */
+    public synchronized void describe(Long tenantId, String fileName) {
+        if (this.tenantId == null && tenantId != null) {
+            this.tenantId = tenantId;
+        }
+        if (fileName != null && !fileName.isEmpty()) {
+            this.fileName = fileName;
+        }
+    }
+
+    public String getExpectedHash() {
+        return expectedHash;
+    }
+
+    public void setExpectedHash(String expectedHash) {
+        if (expectedHash != null && !expectedHash.isEmpty()) {
+            this.expectedHash = expectedHash.toLowerCase();
+        }
+    }
+
+    /**
+     * @param algorithms 摘要算法，为空时不计算
+     * @return 整个文件摘要，不计算时返回 null
+     */
+    public synchronized UploadDigest digest(List<String> algorithms) {
+        if (digest == null && algorithms != null && !algorithms.isEmpty()) {
+            digest = new UploadDigest(algorithms);
+        }
+        return digest;
+    }
+
+    public Long getTenantId() {
+        return tenantId;
+    }
+
+    /**
+     * @return 是否属于该租户，旧版本创建的会话没有记录租户，视为属于任何租户
+     */
+    public boolean isOwnedBy(Long tenantId) {
+        Long owner = this.tenantId;
+        return owner == null || owner.equals(tenantId);
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getGuid() {
+        return guid;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    public synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    public synchronized long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return 分片总数，未声明时为 -1
+     */
+    public synchronized int getChunkCount() {
+        return chunkCount;
+    }
+
+    public synchronized long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public long getLastActivityTime() {
+        return lastActivityTime;
+    }
+
+    public void setLastActivityTime(long lastActivityTime) {
+        this.lastActivityTime = lastActivityTime;
+    }
+
+    public void touch() {
+        lastActivityTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 开始写入分片，结束后调用 {@link #endWrite()}
+     *
+     * @return 会话已被清理时返回 false，需要重新获取会话
+     */
+    public synchronized boolean beginWrite() {
+        if (expired) {
+            return false;
+        }
+        writers++;
+        touch();
+        return true;
+    }
+
+    public synchronized void endWrite() {
+        writers--;
+        touch();
+    }
+
+    /**
+     * 没有正在写入的分片且最后活动时间早于指定时间时标记为已清理
+     *
+     * @param expireBefore 过期时间
+     * @return 是否已清理
+     */
+    public synchronized boolean expire(long expireBefore) {
+        if (!expired && (writers > 0 || lastActivityTime >= expireBefore)) {
+            return false;
+        }
+        expired = true;
+        return true;
+    }
+
+    public synchronized boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * 直写模式
+     *
+     * @param chunk 分片编号
+     * @return 分片在目标文件中的偏移
+     */
+    public long offset(int chunk) {
+        return chunk * chunkSize;
+    }
+
+    /**
+     * 直写模式
+     *
+     * @param chunk 分片编号
+     * @return 分片应有的长度，最后一片可能小于 chunkSize
+     */
+    public long expectedLength(int chunk) {
+        return Math.min(chunkSize, totalSize - offset(chunk));
+    }
+
+    /**
+     * @param chunk 分片编号
+     * @return 分片的预计长度：直写模式为应有长度，分片模式为已接收分片的最大长度，未知时为 0
+     */
+    public synchronized long estimateLength(int chunk) {
+        if (!isValidChunk(chunk)) {
+            return 0;
+        }
+        return direct ? expectedLength(chunk) : chunkSize;
+    }
+
+    public synchronized boolean isValidChunk(int chunk) {
+        return chunk >= 0 && (chunkCount == UNKNOWN || chunk < chunkCount);
+    }
+
+    /**
+     * 标记分片已接收
+     *
+     * @param chunk  分片编号
+     * @param length 分片长度
+     * @return 是否首次接收
+     */
+    public synchronized boolean markReceived(int chunk, long length) {
+        touch();
+        boolean first = !received.get(chunk);
+        received.set(chunk);
+        if (direct) {
+            if (first) {
+                receivedBytes += length;
+            }
+            return first;
+        }
+        if (chunk >= chunkLengths.length) {
+            chunkLengths = Arrays.copyOf(chunkLengths, Math.max(chunk + 1, chunkLengths.length * 2));
+        }
+        receivedBytes += length - chunkLengths[chunk];
+        chunkLengths[chunk] = length;
+        chunkSize = Math.max(chunkSize, length);
+        return first;
+    }
+
+    /**
+     * 取消分片接收标记
+     *
+     * @param chunk 分片编号
+     * @return 之前是否已接收
+     */
+    public synchronized boolean unmarkReceived(int chunk) {
+        touch();
+        if (!received.get(chunk)) {
+            return false;
+        }
+        received.clear(chunk);
+        receivedBytes -= getChunkLengthInternal(chunk);
+        if (!direct) {
+            chunkLengths[chunk] = 0;
+        }
+        return true;
+    }
+
+    /**
+     * 标记分片开始上传
+     *
+     * @param chunk 分片编号
+     * @return 是否首次上传，分片已接收或之前上传失败时为重传
+     */
+    public synchronized boolean attempt(int chunk) {
+        boolean first = !attempted.get(chunk) && !received.get(chunk);
+        attempted.set(chunk);
+        return first;
+    }
+
+    public synchronized boolean isReceived(int chunk) {
+        return chunk >= 0 && received.get(chunk);
+    }
+
+    /**
+     * @param chunk 分片编号
+     * @return 已接收分片的长度，未接收时为 -1
+     */
+    public synchronized long getChunkLength(int chunk) {
+        return isReceived(chunk) ? getChunkLengthInternal(chunk) : UNKNOWN;
+    }
+
+    private long getChunkLengthInternal(int chunk) {
+        return direct ? expectedLength(chunk) : chunkLengths[chunk];
+    }
+
+    /**
+     * @return 已接收分片的快照
+     */
+    public synchronized BitSet getReceived() {
+        return (BitSet) received.clone();
+    }
+
+    public synchronized int getReceivedCount() {
+        return received.cardinality();
+    }
+
+    /**
+     * @return 已声明分片总数且全部接收
+     */
+    public synchronized boolean isComplete() {
+        return chunkCount != UNKNOWN && received.cardinality() == chunkCount;
+    }
+
+    /**
+     * @return 已接收分片从 0 开始连续，未声明分片总数时以此判断能否合并
+     */
+    public synchronized boolean isContiguous() {
+        return !received.isEmpty() && received.nextClearBit(0) == received.length();
+    }
+}
@@ -0,0 +1,35 @@
+package com.wx.springboot.service;
+
+import com.wx.springboot.domain.CombineProgress;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * 分片合并
+ *
+ * @see com.wx.springboot.config.FragmentConfig.Merge
+ */
+public interface ChunkMerger {
+
+    /**
+     * 按顺序将分片写入目标文件，目标文件已存在时覆盖
+     *
+     * @param chunks 已排序的分片文件
+     * @param target 目标文件
+     * @return 合并后的文件大小
+     */
+    default long merge(List<File> chunks, File target) {
+        return merge(chunks, target, CombineProgress.NONE);
+    }
+
+    /**
+     * 按顺序将分片写入目标文件，每写完一个分片报告一次进度
+     *
+     * @param chunks   已排序的分片文件
+     * @param target   目标文件
+     * @param progress 合并进度
+     * @return 合并后的文件大小
+     */
+    long merge(List<File> chunks, File target, CombineProgress progress);
+}
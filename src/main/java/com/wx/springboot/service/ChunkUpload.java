@@ -0,0 +1,30 @@
+package com.wx.springboot.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 一个分片的写入过程，分片内容可以分多次写入
+ * <p>
+ * 阻塞的输入流和响应式的请求体共用同一套会话、摘要和校验和逻辑；
+ * 各方法互斥，可以在不同线程中依次调用
+ */
+public interface ChunkUpload {
+
+    /**
+     * 写入分片内容，同时更新摘要和校验和
+     *
+     * @param buffer 分片内容，返回时已全部写入
+     */
+    void write(ByteBuffer buffer) throws IOException;
+
+    /**
+     * 分片写入完成，校验通过后记录分片已接收；失败时分片作废并抛出异常
+     */
+    void complete();
+
+    /**
+     * 放弃写入，分片作废，已完成或已放弃时忽略
+     */
+    void abort();
+}
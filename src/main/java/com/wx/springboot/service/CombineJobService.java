@@ -0,0 +1,61 @@
+package com.wx.springboot.service;
+
+import com.wx.springboot.domain.CombineJob;
+
+import java.util.Map;
+
+/**
+ * 合并任务
+ * <p>
+ * 同一个 guid 同时只有一个合并任务，租户和文件名相同的自动合并和客户端发起的合并共用未结束的任务，未开始时以客户端的参数为准
+ */
+public interface CombineJobService {
+
+    /**
+     * 合并文件，已有合并任务时等待其结果
+     *
+     * @param guid     当前文件的MD5值
+     * @param tenantId 租户Id
+     * @param fileName 文件名
+     * @param params   参数
+     * @return 文件url
+     */
+    String combine(String guid, Long tenantId, String fileName, Map<String, String> params);
+
+    /**
+     * 提交后台合并任务，已有合并任务时返回原任务
+     *
+     * @param guid     当前文件的MD5值
+     * @param tenantId 租户Id
+     * @param fileName 文件名
+     * @param params   参数
+     * @return 合并任务
+     */
+    CombineJob submit(String guid, Long tenantId, String fileName, Map<String, String> params);
+
+    /**
+     * 查询合并任务
+     *
+     * @param guid 当前文件的MD5值
+     * @return 合并任务，不存在或结果已过期时返回 null
+     */
+    CombineJob get(String guid);
+
+    /**
+     * 查询租户的合并任务
+     *
+     * @param guid     当前文件的MD5值
+     * @param tenantId 租户Id
+     * @return 合并任务，不存在、属于其他租户或结果已过期时返回 null
+     */
+    CombineJob get(String guid, Long tenantId);
+
+    /**
+     * 查询租户的合并任务
+     *
+     * @param jobId    任务Id
+     * @param tenantId 租户Id
+     * @return 合并任务，不存在、属于其他租户或结果已过期时返回 null
+     */
+    CombineJob getJob(String jobId, Long tenantId);
+}
@@ -0,0 +1,22 @@
+package com.wx.springboot.service;
+
+import com.wx.springboot.config.AdaptiveLimiter;
+
+/**
+ * 自适应并发控制
+ * <p>
+ * 分片写入和合并各有一个随耗时调整的并发上限，超过上限时抛出 {@link com.wx.springboot.config.UploadRejectedException}（503）。
+ * 分片写入的许可在开始接收时获取，持有到分片保存结束，并发数包括接收请求体的阶段
+ */
+public interface ConcurrencyLimitService {
+
+    /**
+     * @return 分片写入许可，分片保存结束后以写盘、刷盘耗时释放
+     */
+    AdaptiveLimiter.Permit acquireSave();
+
+    /**
+     * @return 合并许可，合并结束后以合并耗时释放
+     */
+    AdaptiveLimiter.Permit acquireCombine();
+}
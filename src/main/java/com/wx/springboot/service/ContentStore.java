@@ -0,0 +1,44 @@
+package com.wx.springboot.service;
+
+import java.io.File;
+
+/**
+ * 秒传文件库
+ * <p>
+ * 合并后的文件以 SHA-256 和文件大小为键保存，不同租户的相同内容只保存一份；另以 MD5 建立别名，供只计算了 MD5 的客户端查找。
+ * 引用按租户计数，租户只能增加和释放自己持有的引用，全部引用释放后才真正删除，重启后从磁盘恢复
+ */
+public interface ContentStore {
+
+    /**
+     * 保存文件并增加租户的引用，已有相同内容时删除源文件
+     *
+     * @param sha256   文件SHA-256值（完整文件，服务端计算）
+     * @param md5      文件MD5值（完整文件，服务端计算），可为空
+     * @param size     文件大小
+     * @param tenantId 租户Id
+     * @param source   源文件，会被移动到文件库
+     * @return 文件库中的文件
+     */
+    File put(String sha256, String md5, long size, Long tenantId, File source);
+
+    /**
+     * 增加租户的引用；客户端只提供了摘要，无法证明持有内容，租户未持有该文件的引用时不授予
+     *
+     * @param hash     文件SHA-256值或MD5值
+     * @param size     文件大小
+     * @param tenantId 租户Id
+     * @return 文件库中的文件，不存在或租户未持有引用时返回 null
+     */
+    File retain(String hash, long size, Long tenantId);
+
+    /**
+     * 减少租户的引用，全部引用归零时删除文件
+     *
+     * @param hash     文件SHA-256值或MD5值
+     * @param size     文件大小
+     * @param tenantId 租户Id
+     * @return 租户是否持有该文件的引用
+     */
+    boolean release(String hash, long size, Long tenantId);
+}
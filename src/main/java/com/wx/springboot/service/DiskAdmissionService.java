@@ -0,0 +1,39 @@
+package com.wx.springboot.service;
+
+import com.wx.springboot.domain.UploadSession;
+
+/**
+ * 磁盘空间准入控制
+ * <p>
+ * 磁盘空间或 inode 不足时拒绝新的上传，已声明大小的会话按声明的大小预留空间，保证已开始的上传可以完成；
+ * 拒绝时抛出 {@link com.wx.springboot.config.UploadRejectedException}
+ */
+public interface DiskAdmissionService {
+
+    /**
+     * 开始新的上传会话前调用，通过后为其预留空间
+     *
+     * @param size 声明的文件大小
+     * @param direct 是否直写模式，分片模式合并时还需要同样大小的空间
+     */
+    void admitSession(long size, boolean direct);
+
+    /**
+     * 接收分片前调用
+     *
+     * @param session 会话
+     */
+    void admitChunk(UploadSession session);
+
+    /**
+     * 合并分片前调用，剩余空间不足以写入合并后的文件时拒绝，避免写到一半失败
+     *
+     * @param session 会话
+     */
+    void admitMerge(UploadSession session);
+
+    /**
+     * @return 进行中会话预留、尚未写入的字节数
+     */
+    long reservedBytes();
+}
@@ -0,0 +1,50 @@
+package com.wx.springboot.service;
+
+import com.wx.springboot.domain.CombineProgress;
+import com.wx.springboot.domain.ConcatenatedFile;
+import com.wx.springboot.domain.HandlerResult;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文件处理器流水线
+ * <p>
+ * 处理器在启动时解析一次并按 @Order 排序；开启并行时 @Order 相同的处理器并发执行，共享同一次文件读取
+ *
+ * @see com.wx.springboot.config.FragmentConfig.Handler
+ */
+public interface FileHandlerPipeline {
+
+    /**
+     * 依次调用文件处理器，任一处理器失败时抛出异常
+     *
+     * @param tenantId 租户Id
+     * @param filename 文件名
+     * @param filePath 文件本地路径
+     * @param params   参数
+     * @param progress 每个处理器完成时报告结果
+     * @return 各处理器的结果，按 @Order 排序
+     */
+    List<HandlerResult> process(Long tenantId, String filename, String filePath, Map<String, String> params,
+                                CombineProgress progress) throws IOException;
+
+    /**
+     * 依次调用文件处理器，文件内容为按顺序拼接的分片，仅在 {@link #requiresPath()} 为 false 时可用
+     *
+     * @param tenantId 租户Id
+     * @param filename 文件名
+     * @param file     文件内容
+     * @param params   参数
+     * @param progress 每个处理器完成时报告结果
+     * @return 各处理器的结果，按 @Order 排序
+     */
+    List<HandlerResult> process(Long tenantId, String filename, ConcatenatedFile file, Map<String, String> params,
+                                CombineProgress progress) throws IOException;
+
+    /**
+     * @return 是否有处理器需要本地文件路径，即不是 {@link StreamingFileHandler}
+     */
+    boolean requiresPath();
+}
@@ -1,6 +1,10 @@
 package com.wx.springboot.service;
 
 import com.wx.springboot.config.Pair;
+import com.wx.springboot.domain.ChunkChecksum;
+import com.wx.springboot.domain.ChunkStatus;
+import com.wx.springboot.domain.CombineProgress;
+import java.io.InputStream;
 import java.util.Map;
 
 import org.springframework.web.multipart.MultipartFile;
@@ -12,24 +16,83 @@ import org.springframework.web.multipart.MultipartFile;
  */
 public interface FragmentService {
 
+    /**
+     * 初始化直写模式上传，预分配目标文件，之后的分片直接写入目标文件对应偏移，合并时仅需移动文件
+     *
+     * @param guid      当前文件的MD5值
+     * @param tenantId  租户Id
+     * @param fileName  文件名，不为空时最后一个分片上传后自动合并
+     * @param hash      整个文件的摘要（MD5 或 SHA-256），不为空时合并前校验
+     * @param totalSize 文件大小
+     * @param chunkSize 分片大小
+     */
+    void init(String guid, Long tenantId, String fileName, String hash, Long totalSize, Long chunkSize);
+
+    /**
+     * 分片模式下声明文件大小和分片总数，用于判断分片是否全部上传
+     *
+     * @param guid      当前文件的MD5值
+     * @param tenantId  租户Id
+     * @param fileName  文件名，不为空时最后一个分片上传后自动合并
+     * @param hash      整个文件的摘要（MD5 或 SHA-256），不为空时合并前校验
+     * @param totalSize 文件大小
+     * @param chunks    分片总数，为空时视为只有一片
+     */
+    void declare(String guid, Long tenantId, String fileName, String hash, Long totalSize, Integer chunks);
+
     /**
      * 验证文件分片是否需要上传
      *
      * @param chunk     当前分片
      * @param chunkSize 分片大小
      * @param guid      当前文件的MD5值
-     * @return 是否存在
+     * @param tenantId  租户Id
+     * @param checksum  分片校验和，不为空时与上传时保存的校验和比较
+     * @return 是否存在，会话属于其他租户时返回 null
+     */
+    Integer checkMd5(String chunk, String chunkSize, String guid, Long tenantId, ChunkChecksum checksum);
+
+    /**
+     * 查询文件已接收的全部分片，断点续传时一次请求代替逐个分片校验
+     *
+     * @param guid     当前文件的MD5值
+     * @param tenantId 租户Id
+     * @return 已接收分片状态，会话属于其他租户时返回 null
      */
-    Integer checkMd5(String chunk, String chunkSize, String guid);
+    ChunkStatus status(String guid, Long tenantId);
 
     /**
      * 上传文件分片
      *
-     * @param file  分片
-     * @param chunk 当前分片编号
-     * @param guid  当前文件的MD5值
+     * @param file     分片
+     * @param chunk    当前分片编号
+     * @param guid     当前文件的MD5值
+     * @param tenantId 租户Id
+     * @param checksum 分片校验和，不为空时校验，不一致则拒绝
+     */
+    void upload(MultipartFile file, Integer chunk, String guid, Long tenantId, ChunkChecksum checksum);
+
+    /**
+     * 上传文件分片，分片内容直接从输入流写入磁盘
+     *
+     * @param inputStream 分片内容
+     * @param chunk       当前分片编号
+     * @param guid        当前文件的MD5值
+     * @param tenantId    租户Id
+     * @param checksum    分片校验和，不为空时校验，不一致则拒绝
+     */
+    void upload(InputStream inputStream, Integer chunk, String guid, Long tenantId, ChunkChecksum checksum);
+
+    /**
+     * 开始上传文件分片，由调用方分多次写入分片内容，最后调用 {@link ChunkUpload#complete()}
+     *
+     * @param chunk    当前分片编号
+     * @param guid     当前文件的MD5值
+     * @param tenantId 租户Id
+     * @param checksum 分片校验和，不为空时校验，不一致则拒绝
+     * @return 分片写入过程
      */
-    void upload(MultipartFile file, Integer chunk, String guid);
+    ChunkUpload begin(Integer chunk, String guid, Long tenantId, ChunkChecksum checksum);
 
     /**
      * 合并文件
@@ -38,7 +101,19 @@ public interface FragmentService {
      * @param fileName 文件名
      * @return 合并后文件地址, 分片文件夹
      */
-    Pair<String, String> combineBlock(String guid, String fileName);
+    default Pair<String, String> combineBlock(String guid, String fileName) {
+        return combineBlock(guid, fileName, CombineProgress.NONE);
+    }
+
+    /**
+     * 合并分片
+     *
+     * @param guid     当前文件的MD5值
+     * @param fileName 文件名
+     * @param progress 合并进度
+     * @return 合并后文件地址, 分片文件夹
+     */
+    Pair<String, String> combineBlock(String guid, String fileName, CombineProgress progress);
 
     /**
      * 合并文件
@@ -49,5 +124,31 @@ public interface FragmentService {
      * @param params   参数
      * @return 合并后文件地址, 分片文件夹
      */
-    String combineUpload(String guid, Long tenantId, String filename, Map<String, String> params);
+    default String combineUpload(String guid, Long tenantId, String filename, Map<String, String> params) {
+        return combineUpload(guid, tenantId, filename, params, CombineProgress.NONE);
+    }
+
+    /**
+     * 合并文件
+     *
+     * @param guid     当前文件的MD5值
+     * @param tenantId 租户Id
+     * @param filename 文件名
+     * @param params   参数
+     * @param progress 合并进度
+     * @return 文件url
+     */
+    String combineUpload(String guid, Long tenantId, String filename, Map<String, String> params, CombineProgress progress);
+
+    /**
+     * 秒传：租户已上传过相同内容时直接处理，不再上传；只凭客户端声明的摘要无法证明持有内容，不授予其他租户的文件
+     *
+     * @param hash     完整文件的SHA-256值或MD5值
+     * @param size     文件大小
+     * @param tenantId 租户Id
+     * @param filename 文件名
+     * @param params   参数
+     * @return 文件url，文件库中不存在时返回 null
+     */
+    String instantUpload(String hash, Long size, Long tenantId, String filename, Map<String, String> params);
 }
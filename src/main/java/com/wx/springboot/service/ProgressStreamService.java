@@ -0,0 +1,26 @@
+package com.wx.springboot.service;
+
+import com.wx.springboot.domain.CombineJob;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * 合并进度推送（Server-Sent Events）
+ */
+public interface ProgressStreamService extends CombineJob.Listener {
+
+    /**
+     * 推送事件名，数据为合并任务
+     */
+    String EVENT_NAME = "progress";
+
+    /**
+     * 订阅文件的合并进度，只推送同一租户的任务，任务结束后连接关闭
+     *
+     * @param guid     当前文件的MD5值
+     * @param tenantId 租户Id
+     * @param current  当前的合并任务，可为空，任务创建后开始推送
+     * @return 推送连接
+     */
+    SseEmitter subscribe(String guid, Long tenantId, CombineJob current);
+}
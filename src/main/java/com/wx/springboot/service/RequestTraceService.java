@@ -0,0 +1,34 @@
+package com.wx.springboot.service;
+
+import com.wx.springboot.domain.RequestTrace;
+
+import java.util.List;
+
+/**
+ * 请求跟踪，按 H-Request-Id 关联网关、分片写入、合并和文件处理器的耗时
+ */
+public interface RequestTraceService {
+
+    /**
+     * 开始跟踪
+     *
+     * @param requestId 请求头中的请求ID，为空或不合法时生成
+     * @param method    请求方法
+     * @param uri       请求路径
+     * @return 请求跟踪
+     */
+    RequestTrace start(String requestId, String method, String uri);
+
+    /**
+     * 结束跟踪，耗时超过阈值时输出一行慢请求日志并保留
+     *
+     * @param trace  请求跟踪
+     * @param status 响应状态码
+     */
+    void finish(RequestTrace trace, int status);
+
+    /**
+     * @return 最近的慢请求，最新的在前
+     */
+    List<RequestTrace> slowTraces();
+}
@@ -0,0 +1,27 @@
+package com.wx.springboot.service;
+
+import com.wx.springboot.domain.ConcatenatedFile;
+
+import java.util.Map;
+
+/**
+ * 流式文件处理
+ * <p>
+ * 不需要本地文件路径的处理器实现此接口；全部处理器均为流式且未开启秒传时，合并时不再生成合并后的文件，
+ * 处理器直接读取按顺序拼接的分片
+ *
+ * @see ConcatenatedFile
+ */
+public interface StreamingFileHandler extends FileHandler {
+
+    /**
+     * 文件处理
+     *
+     * @param tenantId 租户Id
+     * @param filename 文件名
+     * @param file     文件内容，可多次打开 {@link ConcatenatedFile#openStream()} 或 {@link ConcatenatedFile#openChannel()}
+     * @param params   参数
+     * @return string
+     */
+    String process(Long tenantId, String filename, ConcatenatedFile file, Map<String, String> params);
+}
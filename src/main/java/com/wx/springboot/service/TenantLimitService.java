@@ -0,0 +1,54 @@
+package com.wx.springboot.service;
+
+/**
+ * 租户限流
+ * <p>
+ * 按租户限制上传分片的请求速率和字节速率、同时进行的上传会话数和合并任务数，
+ * 超限时抛出 {@link com.wx.springboot.config.UploadRejectedException}（429）
+ */
+public interface TenantLimitService {
+
+    /**
+     * 接收分片前调用，请求速率超限或字节速率已透支时拒绝，否则按分片的预计长度预扣字节数
+     *
+     * @param tenantId 租户Id
+     * @param bytes    预计接收的字节数，未知时为 0
+     * @return 实际预扣的字节数，不限制字节速率时为 0
+     */
+    long admitRequest(Long tenantId, long bytes);
+
+    /**
+     * 接收过程中按写入的字节数扣减，已预扣的部分不再扣减
+     *
+     * @param tenantId 租户Id
+     * @param bytes    接收的字节数
+     */
+    void consumeBytes(Long tenantId, long bytes);
+
+    /**
+     * 退回多预扣的字节数
+     *
+     * @param tenantId 租户Id
+     * @param bytes    字节数
+     */
+    void refundBytes(Long tenantId, long bytes);
+
+    /**
+     * 开始新的上传会话前调用
+     *
+     * @param tenantId 租户Id
+     */
+    void admitSession(Long tenantId);
+
+    /**
+     * 提交合并任务前调用，任务结束后须调用 {@link #releaseCombine(Long)}
+     *
+     * @param tenantId 租户Id
+     */
+    void acquireCombine(Long tenantId);
+
+    /**
+     * @param tenantId 租户Id
+     */
+    void releaseCombine(Long tenantId);
+}
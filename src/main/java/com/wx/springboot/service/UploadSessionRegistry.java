@@ -0,0 +1,107 @@
+package com.wx.springboot.service;
+
+import com.wx.springboot.domain.UploadSession;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * 上传会话注册表
+ * <p>
+ * 在内存中维护每个 guid 的上传状态，校验、上传、合并均直接查询内存；
+ * 会话不在内存中时（如服务重启后）从临时目录恢复一次
+ */
+public interface UploadSessionRegistry {
+
+    /**
+     * 获取会话
+     *
+     * @param guid 当前文件的MD5值
+     * @return 会话，内存和磁盘上都不存在时返回 null
+     */
+    UploadSession get(String guid);
+
+    /**
+     * 获取会话，不存在时创建分片模式会话，并在 .meta 中记录所有者租户
+     *
+     * @param guid     当前文件的MD5值
+     * @param tenantId 租户Id
+     * @return 会话
+     */
+    UploadSession getOrCreate(String guid, Long tenantId);
+
+    /**
+     * 创建直写模式会话并持久化元数据，会话已存在时返回原会话
+     *
+     * @param guid      当前文件的MD5值
+     * @param tenantId  租户Id
+     * @param fileName  文件名
+     * @param totalSize 文件大小
+     * @param chunkSize 分片大小
+     * @return 会话
+     */
+    UploadSession createDirect(String guid, Long tenantId, String fileName, long totalSize, long chunkSize);
+
+    /**
+     * 分片模式声明文件大小和分片总数，首次声明时持久化，已声明时只记录租户和文件名
+     *
+     * @param session    会话
+     * @param tenantId   租户Id
+     * @param fileName   文件名
+     * @param totalSize  文件大小
+     * @param chunkCount 分片总数
+     */
+    void declare(UploadSession session, Long tenantId, String fileName, long totalSize, int chunkCount);
+
+    /**
+     * 记录分片已接收
+     *
+     * @param session 会话
+     * @param chunk   分片编号
+     * @param length  分片长度
+     * @return 是否首次接收该分片
+     */
+    boolean chunkReceived(UploadSession session, int chunk, long length);
+
+    /**
+     * 记录分片作废，需要重新上传
+     *
+     * @param session 会话
+     * @param chunk   分片编号
+     */
+    void chunkDiscarded(UploadSession session, int chunk);
+
+    /**
+     * 移除会话，不删除磁盘文件
+     *
+     * @param guid 当前文件的MD5值
+     */
+    void remove(String guid);
+
+    /**
+     * 清理过期会话：标记为已清理并把临时目录改名为 .trash，之后同一 guid 的上传使用新的会话和目录。
+     * 会话不在内存中时先从临时目录恢复
+     *
+     * @param guid         当前文件的MD5值
+     * @param expireBefore 最后活动时间早于此时间的会话过期
+     * @return 改名后的目录，会话仍在使用或临时目录不存在时返回 null
+     */
+    File expire(String guid, long expireBefore);
+
+    /**
+     * @return 内存中的全部会话
+     */
+    Collection<UploadSession> sessions();
+
+    /**
+     * 登记启动扫描到的、尚未加载到内存的临时目录，只读取 .meta 中声明的大小，不读取日志；加载或清理后移除
+     *
+     * @param guid 当前文件的MD5值
+     */
+    void scanned(String guid);
+
+    /**
+     * @return 已登记、尚未加载到内存的会话，只包含声明的大小，已接收的字节数按 0 计
+     */
+    Collection<UploadSession> unloaded();
+}
@@ -0,0 +1,16 @@
+package com.wx.springboot.service;
+
+/**
+ * 过期上传清理
+ * <p>
+ * 客户端放弃上传后临时目录不会被合并删除，超过 ttl 没有活动的上传会话在后台分批删除
+ */
+public interface UploadSweepService {
+
+    /**
+     * 清理一次过期的上传会话
+     *
+     * @return 回收的字节数
+     */
+    long sweep();
+}
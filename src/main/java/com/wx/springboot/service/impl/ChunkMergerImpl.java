@@ -0,0 +1,227 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.BaseConstants;
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.domain.CombineProgress;
+import com.wx.springboot.service.ChunkMerger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 基于 NIO 通道的分片合并
+ * <p>
+ * TRANSFER 模式使用 FileChannel.transferTo，在 Linux 上由内核完成拷贝（sendfile），数据不经过用户态；
+ * STREAM 模式使用直接缓冲区逐块拷贝，用于不支持零拷贝的文件系统；
+ * PARALLEL 模式预分配目标文件，由共享的 ForkJoinPool 按偏移并发写入各分片
+ */
+@Component
+public class ChunkMergerImpl implements ChunkMerger, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkMergerImpl.class);
+
+    /**
+     * 并行合并时单个任务处理的分片数
+     */
+    private static final int PARALLEL_THRESHOLD = 4;
+
+    @Autowired
+    private FragmentConfig fragmentConfig;
+
+    private volatile ForkJoinPool mergePool;
+
+    @Override
+    public long merge(List<File> chunks, File target, CombineProgress progress) {
+        FragmentConfig.Merge merge = fragmentConfig.getMerge();
+        if (merge.getStrategy() == FragmentConfig.MergeStrategy.PARALLEL && chunks.size() > 1) {
+            return parallelMerge(chunks, target, merge, progress);
+        }
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = null;
+            for (File chunk : chunks) {
+                try (FileChannel in = FileChannel.open(chunk.toPath(), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    long position = 0;
+                    if (merge.getStrategy() == FragmentConfig.MergeStrategy.TRANSFER) {
+                        position = transfer(in, out, size, merge.isFallback());
+                    }
+                    if (position < size) {
+                        if (buffer == null) {
+                            buffer = ByteBuffer.allocateDirect(merge.getBufferSize());
+                        }
+                        copy(in, out, position, buffer);
+                    }
+                    progress.merged(size);
+                }
+            }
+            return out.size();
+        } catch (IOException e) {
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
+        }
+    }
+
+    /**
+     * 零拷贝写入，返回已写入的位置，小于 size 时由调用方继续拷贝剩余部分
+     */
+    private long transfer(FileChannel in, FileChannel out, long size, boolean fallback) throws IOException {
+        long start = out.position();
+        long position = 0;
+        try {
+            while (position < size) {
+                long count = in.transferTo(position, size - position, out);
+                if (count <= 0) {
+                    break;
+                }
+                position += count;
+            }
+        } catch (IOException e) {
+            if (!fallback) {
+                throw e;
+            }
+            logger.warn("transferTo not available, fallback to buffered copy : {}", e.getMessage());
+            // 以目标文件实际写入位置为准，避免重复写入
+            position = out.position() - start;
+        }
+        return position;
+    }
+
+    private void copy(FileChannel in, FileChannel out, long position, ByteBuffer buffer) throws IOException {
+        in.position(position);
+        buffer.clear();
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private long parallelMerge(List<File> chunks, File target, FragmentConfig.Merge merge, CombineProgress progress) {
+        // 分片长度的前缀和即为各分片在目标文件中的偏移
+        long[] offsets = new long[chunks.size() + 1];
+        for (int i = 0; i < chunks.size(); i++) {
+            offsets[i + 1] = offsets[i] + chunks.get(i).length();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+            raf.setLength(offsets[chunks.size()]);
+            FileChannel out = raf.getChannel();
+            getMergePool(merge).invoke(new ParallelMergeTask(chunks, offsets, out, merge, progress, 0, chunks.size()));
+            return out.size();
+        } catch (IOException e) {
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e.getCause());
+        }
+    }
+
+    private ForkJoinPool getMergePool(FragmentConfig.Merge merge) {
+        if (mergePool == null) {
+            synchronized (this) {
+                if (mergePool == null) {
+                    mergePool = new ForkJoinPool(Math.max(1, merge.getParallelism()));
+                }
+            }
+        }
+        return mergePool;
+    }
+
+    @Override
+    public void destroy() {
+        if (mergePool != null) {
+            mergePool.shutdown();
+        }
+    }
+
+    /**
+     * 按分片区间二分拆分的并行写入任务
+     */
+    private static class ParallelMergeTask extends RecursiveAction {
+
+        private final transient List<File> chunks;
+        private final long[] offsets;
+        private final transient FileChannel out;
+        private final transient FragmentConfig.Merge merge;
+        private final transient CombineProgress progress;
+        private final int from;
+        private final int to;
+
+        ParallelMergeTask(List<File> chunks, long[] offsets, FileChannel out, FragmentConfig.Merge merge,
+                          CombineProgress progress, int from, int to) {
+            this.chunks = chunks;
+            this.offsets = offsets;
+            this.out = out;
+            this.merge = merge;
+            this.progress = progress;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    try {
+                        write(chunks.get(i), offsets[i], offsets[i + 1]);
+                        progress.merged(offsets[i + 1] - offsets[i]);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ParallelMergeTask(chunks, offsets, out, merge, progress, from, middle),
+                    new ParallelMergeTask(chunks, offsets, out, merge, progress, middle, to));
+        }
+
+        /**
+         * 按偏移写入，FileChannel 的定位读写可以并发执行
+         */
+        private void write(File chunk, long start, long end) throws IOException {
+            try (FileChannel in = FileChannel.open(chunk.toPath(), StandardOpenOption.READ)) {
+                long position = start;
+                try {
+                    while (position < end) {
+                        long count = out.transferFrom(in, position, end - position);
+                        if (count <= 0) {
+                            break;
+                        }
+                        position += count;
+                    }
+                } catch (IOException e) {
+                    if (!merge.isFallback()) {
+                        throw e;
+                    }
+                    logger.warn("transferFrom not available, fallback to buffered copy : {}", e.getMessage());
+                }
+                if (position < end) {
+                    ByteBuffer buffer = ByteBuffer.allocate(merge.getBufferSize());
+                    in.position(position - start);
+                    while (position < end && in.read(buffer) != -1) {
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            position += out.write(buffer, position);
+                        }
+                        buffer.clear();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.AdaptiveLimiter;
+import com.wx.springboot.config.BaseConstants;
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.config.FragmentExecutors;
+import com.wx.springboot.config.UploadRejectedException;
+import com.wx.springboot.domain.CombineJob;
+import com.wx.springboot.domain.RequestTrace;
+import com.wx.springboot.domain.UploadCompletedEvent;
+import com.wx.springboot.service.CombineJobService;
+import com.wx.springboot.service.ConcurrencyLimitService;
+import com.wx.springboot.service.FragmentService;
+import com.wx.springboot.service.ProgressStreamService;
+import com.wx.springboot.service.RequestTraceService;
+import com.wx.springboot.service.TenantLimitService;
+import com.wx.springboot.service.UploadSessionRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并任务
+ * <p>
+ * 任务在固定大小的线程池中执行，等待队列有上限；任务结果保留 resultTtl，供客户端轮询
+ */
+@Service
+public class CombineJobServiceImpl implements CombineJobService, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CombineJobServiceImpl.class);
+
+    private static final int CONFLICT_RETRY_AFTER_SECONDS = 5;
+
+    @Autowired
+    private FragmentService fragmentService;
+    @Autowired
+    private FragmentConfig fragmentConfig;
+    @Autowired
+    private ProgressStreamService progressStreamService;
+    @Autowired
+    private FragmentExecutors fragmentExecutors;
+    @Autowired
+    private RequestTraceService requestTraceService;
+    @Autowired
+    private TenantLimitService tenantLimitService;
+    @Autowired
+    private ConcurrencyLimitService concurrencyLimitService;
+    @Autowired
+    private UploadSessionRegistry uploadSessionRegistry;
+
+    /**
+     * guid -> 任务
+     */
+    private final ConcurrentMap<String, CombineJob> jobs = new ConcurrentHashMap<>();
+    /**
+     * 任务Id -> 任务
+     */
+    private final ConcurrentMap<String, CombineJob> jobsById = new ConcurrentHashMap<>();
+    /**
+     * 任务Id -> 未结束任务的并发许可
+     */
+    private final ConcurrentMap<String, AdaptiveLimiter.Permit> permits = new ConcurrentHashMap<>();
+    private volatile ThreadPoolExecutor executor;
+    /**
+     * 按到期时间移除任务结果
+     */
+    private volatile ScheduledExecutorService scheduler;
+
+    @EventListener
+    public void onUploadCompleted(UploadCompletedEvent event) {
+        if (!fragmentConfig.getCombine().isAuto()) {
+            return;
+        }
+        CombineJob job;
+        try {
+            job = submit(new CombineJob(event.getGuid(), event.getTenantId(), event.getFileName(), null), false);
+        } catch (UploadRejectedException e) {
+            // 租户合并数已满，由客户端稍后发起合并
+            logger.info("upload completed, combine deferred by tenant limit, filename : {}, MD5 : {}",
+                    event.getFileName(), event.getGuid());
+            return;
+        }
+        logger.info("upload completed, combine job {}, filename : {}, MD5 : {}",
+                job.getStatus(), event.getFileName(), event.getGuid());
+    }
+
+    @Override
+    public String combine(String guid, Long tenantId, String fileName, Map<String, String> params) {
+        CombineJob job = new CombineJob(guid, tenantId, fileName, params);
+        CombineJob existing = register(job, true);
+        if (existing == null) {
+            run(job, null);
+        } else {
+            job = existing;
+        }
+        try {
+            return job.getFuture().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("fragment.error.combine", cause);
+        }
+    }
+
+    @Override
+    public CombineJob submit(String guid, Long tenantId, String fileName, Map<String, String> params) {
+        return submit(new CombineJob(guid, tenantId, fileName, params), true);
+    }
+
+    /**
+     * @param override 已有未开始的任务时是否以本次参数替换其参数，自动合并不替换客户端的参数
+     */
+    private CombineJob submit(CombineJob job, boolean override) {
+        CombineJob existing = register(job, override);
+        if (existing != null) {
+            return existing;
+        }
+        String guid = job.getGuid();
+        Long tenantId = job.getTenantId();
+        RequestTrace current = RequestTrace.current();
+        String requestId = current == null ? null : current.getRequestId();
+        try {
+            getExecutor().execute(() -> run(job, requestId));
+        } catch (RejectedExecutionException e) {
+            // 队列已满，客户端可稍后再次发起合并
+            jobs.remove(guid, job);
+            jobsById.remove(job.getJobId(), job);
+            tenantLimitService.releaseCombine(tenantId);
+            permits.remove(job.getJobId()).cancel();
+            job.reject(e);
+            logger.warn("combine queue is full, MD5 : {}", guid);
+        }
+        return job;
+    }
+
+    @Override
+    public CombineJob get(String guid) {
+        return jobs.get(guid);
+    }
+
+    @Override
+    public CombineJob get(String guid, Long tenantId) {
+        return owned(get(guid), tenantId);
+    }
+
+    @Override
+    public CombineJob getJob(String jobId, Long tenantId) {
+        return owned(jobsById.get(jobId), tenantId);
+    }
+
+    private static CombineJob owned(CombineJob job, Long tenantId) {
+        return job != null && Objects.equals(job.getTenantId(), tenantId) ? job : null;
+    }
+
+    /**
+     * 登记任务，同一租户和文件名已有未结束的任务时返回该任务：参数不同且任务尚未开始时以本次参数为准，
+     * 使客户端带参数的合并可以接管排队中的自动合并；任务已开始后参数不同，或其他租户、文件名的任务未结束时拒绝。
+     * 已成功且分片已清理的任务同样返回该任务（自动合并完成后客户端再发起合并），其他已结束的任务被替换，重新上传后可再次合并。
+     * 新登记的任务占用租户的合并数和合并并发许可，任务结束后释放
+     *
+     * @param override 参数不同时是否替换未开始任务的参数，为 false 时直接返回已有任务
+     */
+    private CombineJob register(CombineJob job, boolean override) {
+        CombineJob[] existing = new CombineJob[1];
+        jobs.compute(job.getGuid(), (key, current) -> {
+            if (current != null && (!current.isFinished() || isCombined(current))) {
+                if (!Objects.equals(current.getTenantId(), job.getTenantId())
+                        || !Objects.equals(current.getFileName(), job.getFileName())
+                        || override && !current.getParams().equals(job.getParams()) && !current.attach(job.getParams())) {
+                    // 已开始的任务（如进行中的自动合并）参数不同时不能共用结果
+                    throw new UploadRejectedException("fragment.error.combine-conflict", HttpStatus.CONFLICT,
+                            CONFLICT_RETRY_AFTER_SECONDS);
+                }
+                existing[0] = current;
+                return current;
+            }
+            tenantLimitService.acquireCombine(job.getTenantId());
+            try {
+                permits.put(job.getJobId(), concurrencyLimitService.acquireCombine());
+            } catch (RuntimeException e) {
+                tenantLimitService.releaseCombine(job.getTenantId());
+                throw e;
+            }
+            return job;
+        });
+        if (existing[0] == null) {
+            jobsById.put(job.getJobId(), job);
+            job.setListener(progressStreamService);
+            progressStreamService.changed(job, true);
+        }
+        return existing[0];
+    }
+
+    /**
+     * @return 任务已成功且上传会话已清理，再次合并没有可用的分片
+     */
+    private boolean isCombined(CombineJob job) {
+        return job.getStatus() == CombineJob.Status.SUCCESS && uploadSessionRegistry.get(job.getGuid()) == null;
+    }
+
+    /**
+     * @param requestId 异步执行时发起合并的请求ID，合并耗时以该ID单独跟踪；同步执行时计入当前请求
+     */
+    private void run(CombineJob job, String requestId) {
+        RequestTrace trace = null;
+        if (RequestTrace.current() == null) {
+            trace = requestTraceService.start(requestId, "COMBINE", job.getGuid());
+            trace.bind();
+        }
+        job.begin();
+        // 许可在登记时获取，排队期间计入并发但不计入耗时，耗时从开始执行算起
+        long startTime = System.nanoTime();
+        try {
+            // 开始后参数不再变化
+            job.succeed(fragmentService.combineUpload(job.getGuid(), job.getTenantId(), job.getFileName(),
+                    job.getParams(), job));
+        } catch (Throwable e) {
+            logger.error("Combine file error! filename : {}, MD5 : {}", job.getFileName(), job.getGuid(), e);
+            job.fail(e);
+        } finally {
+            tenantLimitService.releaseCombine(job.getTenantId());
+            AdaptiveLimiter.Permit permit = permits.remove(job.getJobId());
+            if (job.getStatus() == CombineJob.Status.SUCCESS) {
+                permit.release(AdaptiveLimiter.perMebibyte(System.nanoTime() - startTime, job.getTotalBytes()));
+            } else {
+                permit.cancel();
+            }
+            expireLater(job);
+            if (trace != null) {
+                requestTraceService.finish(trace, job.getStatus() == CombineJob.Status.SUCCESS
+                        ? HttpStatus.OK.value() : HttpStatus.INTERNAL_SERVER_ERROR.value());
+                RequestTrace.unbind();
+            }
+        }
+    }
+
+    /**
+     * 任务结果保留 resultTtl 后移除，期间已被新任务替换的不受影响
+     */
+    private void expireLater(CombineJob job) {
+        getScheduler().schedule(() -> {
+            jobs.remove(job.getGuid(), job);
+            jobsById.remove(job.getJobId(), job);
+        }, fragmentConfig.getCombine().getResultTtl().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            synchronized (this) {
+                if (scheduler == null) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                            fragmentExecutors.threadFactory("fragment-combine-expire"));
+                    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+                    scheduler = executor;
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    FragmentConfig.Combine combine = fragmentConfig.getCombine();
+                    // 虚拟线程模式下线程数仍限制同时执行的合并任务数
+                    ThreadFactory threadFactory = fragmentExecutors.threadFactory("fragment-combine");
+                    int threads = Math.max(1, combine.getThreads());
+                    executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<>(Math.max(1, combine.getQueueCapacity())), threadFactory);
+                }
+            }
+        }
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.AdaptiveLimiter;
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.config.FragmentMetrics;
+import com.wx.springboot.config.UploadRejectedException;
+import com.wx.springboot.service.ConcurrencyLimitService;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+/**
+ * 自适应并发控制
+ */
+@Service
+public class ConcurrencyLimitServiceImpl implements ConcurrencyLimitService, InitializingBean {
+
+    @Autowired
+    private FragmentConfig fragmentConfig;
+    @Autowired
+    private FragmentMetrics fragmentMetrics;
+
+    private AdaptiveLimiter save;
+    private AdaptiveLimiter combine;
+
+    @Override
+    public void afterPropertiesSet() {
+        FragmentConfig.Concurrency concurrency = fragmentConfig.getConcurrency();
+        if (concurrency.isEnabled()) {
+            save = newLimiter("save", concurrency, concurrency.getSave());
+            combine = newLimiter("combine", concurrency, concurrency.getCombine());
+            fragmentMetrics.concurrency(save);
+            fragmentMetrics.concurrency(combine);
+        }
+    }
+
+    @Override
+    public AdaptiveLimiter.Permit acquireSave() {
+        return acquire(save);
+    }
+
+    @Override
+    public AdaptiveLimiter.Permit acquireCombine() {
+        return acquire(combine);
+    }
+
+    private AdaptiveLimiter.Permit acquire(AdaptiveLimiter limiter) {
+        if (limiter == null) {
+            return AdaptiveLimiter.Permit.NONE;
+        }
+        AdaptiveLimiter.Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+            throw rejected(limiter);
+        }
+        return permit;
+    }
+
+    private UploadRejectedException rejected(AdaptiveLimiter limiter) {
+        fragmentMetrics.rejected(limiter.getName() + "-concurrency");
+        return new UploadRejectedException("fragment.error.overloaded", HttpStatus.SERVICE_UNAVAILABLE,
+                Math.max(1, fragmentConfig.getConcurrency().getRetryAfter().getSeconds()));
+    }
+
+    private static AdaptiveLimiter newLimiter(String name, FragmentConfig.Concurrency concurrency,
+                                              FragmentConfig.ConcurrencyLimit limit) {
+        return new AdaptiveLimiter(name, limit.getInitialLimit(), limit.getMinLimit(), limit.getMaxLimit(),
+                concurrency.getTolerance(), concurrency.getSmoothing(), concurrency.getWindow().toNanos());
+    }
+}
@@ -0,0 +1,265 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.BaseConstants;
+import com.wx.springboot.config.FragmentPaths;
+import com.wx.springboot.service.ContentStore;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * 秒传文件库
+ * <p>
+ * 引用计数按租户写在同名的 .ref 文件中；内存中只缓存访问过的条目，同一条目的操作在 compute 中串行执行
+ */
+@Component
+public class ContentStoreImpl implements ContentStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentStoreImpl.class);
+
+    private static final Pattern SHA256_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern MD5_PATTERN = Pattern.compile("[0-9a-f]{32}");
+    private static final String REF_MD5 = "md5";
+    private static final String REF_TENANT = "tenant.";
+    /**
+     * 引用计数文件损坏时文件至少有一个引用，归属未知，任何租户都不能释放
+     */
+    private static final String UNKNOWN_OWNER = "?";
+
+    @Autowired
+    private FragmentPaths fragmentPaths;
+
+    /**
+     * 文件名 -> 引用
+     */
+    private final ConcurrentMap<String, References> refs = new ConcurrentHashMap<>();
+
+    @Override
+    public File put(String sha256, String md5, long size, Long tenantId, File source) {
+        File target = fragmentPaths.getStoreFile(sha256, size);
+        try {
+            refs.compute(target.getName(), (key, current) -> {
+                current = current == null ? load(sha256, size) : current;
+                if (current == null) {
+                    // 先写引用计数再移动文件，文件存在时引用计数一定已写入
+                    References created = store(sha256, size, new References(md5, Collections.emptyMap()).retain(tenantId));
+                    move(source, target);
+                    alias(md5, size, sha256);
+                    return created;
+                }
+                FileUtils.deleteQuietly(source);
+                if (current.md5 == null && md5 != null) {
+                    alias(md5, size, sha256);
+                    current = new References(md5, current.owners);
+                }
+                return store(sha256, size, current.retain(tenantId));
+            });
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e.getCause());
+        }
+        return target;
+    }
+
+    @Override
+    public File retain(String hash, long size, Long tenantId) {
+        String sha256 = resolve(hash, size);
+        if (sha256 == null) {
+            return null;
+        }
+        File target = fragmentPaths.getStoreFile(sha256, size);
+        boolean[] retained = new boolean[1];
+        try {
+            refs.compute(target.getName(), (key, current) -> {
+                current = current == null ? load(sha256, size) : current;
+                if (current == null || !current.owns(tenantId)) {
+                    return current;
+                }
+                retained[0] = true;
+                return store(sha256, size, current.retain(tenantId));
+            });
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e.getCause());
+        }
+        return retained[0] ? target : null;
+    }
+
+    @Override
+    public boolean release(String hash, long size, Long tenantId) {
+        String sha256 = resolve(hash, size);
+        if (sha256 == null) {
+            return false;
+        }
+        File target = fragmentPaths.getStoreFile(sha256, size);
+        boolean[] released = new boolean[1];
+        try {
+            refs.compute(target.getName(), (key, current) -> {
+                current = current == null ? load(sha256, size) : current;
+                if (current == null || !current.owns(tenantId)) {
+                    return current;
+                }
+                released[0] = true;
+                References remaining = current.release(tenantId);
+                if (!remaining.owners.isEmpty()) {
+                    return store(sha256, size, remaining);
+                }
+                FileUtils.deleteQuietly(target);
+                FileUtils.deleteQuietly(fragmentPaths.getStoreRefFile(sha256, size));
+                if (current.md5 != null) {
+                    FileUtils.deleteQuietly(fragmentPaths.getStoreAliasFile(current.md5, size));
+                }
+                logger.info("stored file released, SHA-256 : {}, size : {}", sha256, size);
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e.getCause());
+        }
+        return released[0];
+    }
+
+    /**
+     * @param hash SHA-256 值或 MD5 值
+     * @return SHA-256 值，MD5 没有对应的文件时返回 null
+     */
+    private String resolve(String hash, long size) {
+        if (hash == null || SHA256_PATTERN.matcher(hash).matches()) {
+            return hash;
+        }
+        if (!MD5_PATTERN.matcher(hash).matches()) {
+            return null;
+        }
+        File aliasFile = fragmentPaths.getStoreAliasFile(hash, size);
+        try {
+            String sha256 = new String(Files.readAllBytes(aliasFile.toPath()), StandardCharsets.US_ASCII).trim();
+            return SHA256_PATTERN.matcher(sha256).matches() ? sha256 : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void alias(String md5, long size, String sha256) {
+        if (md5 != null) {
+            write(fragmentPaths.getStoreAliasFile(md5, size).toPath(), sha256);
+        }
+    }
+
+    private void move(File source, File target) {
+        try {
+            FileUtils.forceMkdir(target.getParentFile());
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 从磁盘读取引用计数
+     *
+     * @return 文件不存在时返回 null
+     */
+    private References load(String sha256, long size) {
+        if (!fragmentPaths.getStoreFile(sha256, size).isFile()) {
+            return null;
+        }
+        File refFile = fragmentPaths.getStoreRefFile(sha256, size);
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(refFile.toPath())) {
+            properties.load(is);
+            Map<String, Long> owners = new HashMap<>(4);
+            for (String name : properties.stringPropertyNames()) {
+                if (name.startsWith(REF_TENANT)) {
+                    owners.put(name.substring(REF_TENANT.length()), Long.parseLong(properties.getProperty(name)));
+                }
+            }
+            if (!owners.isEmpty()) {
+                return new References(properties.getProperty(REF_MD5), owners);
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Load stored file reference count error! file : {}", refFile, e);
+        }
+        return new References(null, Collections.singletonMap(UNKNOWN_OWNER, 1L));
+    }
+
+    /**
+     * 写入引用计数
+     */
+    private References store(String sha256, long size, References references) {
+        StringBuilder content = new StringBuilder();
+        if (references.md5 != null) {
+            content.append(REF_MD5).append('=').append(references.md5).append('\n');
+        }
+        references.owners.forEach((owner, count) ->
+                content.append(REF_TENANT).append(owner).append('=').append(count).append('\n'));
+        write(fragmentPaths.getStoreRefFile(sha256, size).toPath(), content.toString());
+        return references;
+    }
+
+    /**
+     * 先写临时文件再替换，避免宕机时留下不完整的内容
+     */
+    private static void write(Path file, String content) {
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            Files.write(tmpFile, content.getBytes(StandardCharsets.US_ASCII));
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 一个文件的引用，不可变
+     */
+    private static final class References {
+
+        private final String md5;
+        /**
+         * 租户 -> 引用计数
+         */
+        private final Map<String, Long> owners;
+
+        References(String md5, Map<String, Long> owners) {
+            this.md5 = md5;
+            this.owners = owners;
+        }
+
+        boolean owns(Long tenantId) {
+            return owners.containsKey(owner(tenantId));
+        }
+
+        References retain(Long tenantId) {
+            Map<String, Long> updated = new HashMap<>(owners);
+            updated.merge(owner(tenantId), 1L, Long::sum);
+            return new References(md5, updated);
+        }
+
+        References release(Long tenantId) {
+            Map<String, Long> updated = new HashMap<>(owners);
+            updated.computeIfPresent(owner(tenantId), (key, count) -> count > 1 ? count - 1 : null);
+            return new References(md5, updated);
+        }
+
+        private static String owner(Long tenantId) {
+            return tenantId == null ? "" : tenantId.toString();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.config.FragmentExecutors;
+import com.wx.springboot.config.FragmentMetrics;
+import com.wx.springboot.config.FragmentPaths;
+import com.wx.springboot.config.UploadRejectedException;
+import com.wx.springboot.domain.UploadSession;
+import com.wx.springboot.service.DiskAdmissionService;
+import com.wx.springboot.service.UploadSessionRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * 磁盘空间准入控制
+ * <p>
+ * 可用空间每次直接读取（一次 statvfs）；文件系统总量、为 root 保留的空间和预留空间按 refreshInterval 统计，
+ * 由第一个到达的请求刷新，其他请求使用上次的结果。两次统计之间通过的新会话累加到 pending，避免同时涌入的会话超额。
+ * 启动扫描到、尚未加载到内存的会话按 .meta 声明的大小预留，加载或清理后按实际进度统计。
+ * inode 使用率需要执行 df，在后台线程中按 inodeRefreshInterval 读取，请求线程只读取上次的结果
+ */
+@Service
+public class DiskAdmissionServiceImpl implements DiskAdmissionService, InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskAdmissionServiceImpl.class);
+
+    private static final String REJECTION_REASON = "disk";
+    private static final long UNKNOWN = -1;
+    private static final long PROBE_TIMEOUT_SECONDS = 5;
+
+    @Autowired
+    private FragmentConfig fragmentConfig;
+    @Autowired
+    private FragmentPaths fragmentPaths;
+    @Autowired
+    private UploadSessionRegistry uploadSessionRegistry;
+    @Autowired
+    private FragmentMetrics fragmentMetrics;
+    @Autowired
+    private FragmentExecutors fragmentExecutors;
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile long refreshedAt = UNKNOWN;
+    private volatile long reserved;
+    private volatile long totalSpace = UNKNOWN;
+    /**
+     * 文件系统为 root 保留、普通用户不可用的空间
+     */
+    private volatile long rootReserved;
+    /**
+     * 上次统计后通过的新会话预留的字节数
+     */
+    private final AtomicLong pending = new AtomicLong();
+    /**
+     * inode 使用率，未知时为 -1
+     */
+    private volatile double inodeUsage = UNKNOWN;
+    private volatile boolean inodesUnsupported;
+    private volatile boolean pressure;
+    private volatile ScheduledExecutorService inodeProbe;
+    /**
+     * 超时后未能结束的 df 进程（如 NFS 挂载失效），结束前不再启动新的进程
+     */
+    private volatile Process stuckProbe;
+
+    @Override
+    public void afterPropertiesSet() {
+        FragmentConfig.Disk disk = fragmentConfig.getDisk();
+        if (!disk.isEnabled() || !disk.isInodes()) {
+            return;
+        }
+        long interval = Math.max(1, disk.getInodeRefreshInterval().toMillis());
+        inodeProbe = Executors.newSingleThreadScheduledExecutor(fragmentExecutors.threadFactory("fragment-inode"));
+        inodeProbe.scheduleWithFixedDelay(this::probeInodes, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (inodeProbe != null) {
+            inodeProbe.shutdownNow();
+        }
+    }
+
+    @Override
+    public void admitSession(long size, boolean direct) {
+        if (!fragmentConfig.getDisk().isEnabled()) {
+            return;
+        }
+        refresh();
+        long need = outstanding(size, 0, direct);
+        check(need, true);
+        pending.addAndGet(need);
+    }
+
+    @Override
+    public void admitChunk(UploadSession session) {
+        // 已声明大小的会话已预留空间
+        if (!fragmentConfig.getDisk().isEnabled() || session.getTotalSize() >= 0) {
+            return;
+        }
+        refresh();
+        check(0, session.getReceivedBytes() == 0);
+    }
+
+    @Override
+    public void admitMerge(UploadSession session) {
+        if (!fragmentConfig.getDisk().isEnabled() || session.isDirect()) {
+            return;
+        }
+        refresh();
+        File root = existing(new File(fragmentPaths.getRootPath()));
+        // 当前会话自身的预留即用于合并，其他会话的预留不可占用
+        long others = Math.max(0, reserved + pending.get() - outstanding(session));
+        long available = root.getUsableSpace() - others;
+        if (available < session.getReceivedBytes()) {
+            logger.warn("no space left to merge, MD5 : {}, size : {}, available : {}",
+                    session.getGuid(), session.getReceivedBytes(), available);
+            reject(HttpStatus.INSUFFICIENT_STORAGE, "fragment.error.disk-full");
+        }
+    }
+
+    @Override
+    public long reservedBytes() {
+        return reserved + pending.get();
+    }
+
+    /**
+     * @param need       本次需要预留的字节数
+     * @param newSession 是否新的上传会话
+     */
+    private void check(long need, boolean newSession) {
+        FragmentConfig.Disk disk = fragmentConfig.getDisk();
+        double usage = usage(need);
+        double inodes = inodeUsage;
+        if (usage >= disk.getHighWatermark() || inodes >= disk.getHighWatermark()) {
+            reject(HttpStatus.INSUFFICIENT_STORAGE, "fragment.error.disk-full");
+        }
+        if (newSession && (usage >= disk.getLowWatermark() || inodes >= disk.getLowWatermark())) {
+            reject(HttpStatus.TOO_MANY_REQUESTS, "fragment.error.disk-busy");
+        }
+    }
+
+    private void reject(HttpStatus status, String message) {
+        fragmentMetrics.rejected(REJECTION_REASON);
+        throw new UploadRejectedException(message, status,
+                Math.max(1, fragmentConfig.getDisk().getRetryAfter().getSeconds()));
+    }
+
+    /**
+     * 与 df 一致，使用率 = 已用 / (已用 + 可用)，已用包含进行中会话的预留
+     */
+    private double usage(long need) {
+        File root = existing(new File(fragmentPaths.getRootPath()));
+        if (totalSpace == UNKNOWN) {
+            readSpace(root);
+        }
+        // 已用 = 总量 - 空闲，空闲 = 可用 + root 保留
+        long capacity = totalSpace - rootReserved;
+        long used = capacity - root.getUsableSpace();
+        if (capacity <= 0) {
+            return 0;
+        }
+        return (double) (used + reserved + pending.get() + need) / capacity;
+    }
+
+    private void refresh() {
+        long now = System.nanoTime();
+        long last = refreshedAt;
+        if (last != UNKNOWN && now - last < fragmentConfig.getDisk().getRefreshInterval().toNanos()) {
+            return;
+        }
+        if (!refreshLock.tryLock()) {
+            return;
+        }
+        try {
+            // 先清零再统计，统计期间通过的会话最多被重复计算一次
+            pending.set(0);
+            reserved = Stream.concat(uploadSessionRegistry.sessions().stream(), uploadSessionRegistry.unloaded().stream())
+                    .mapToLong(this::outstanding).sum();
+            readSpace(existing(new File(fragmentPaths.getRootPath())));
+            refreshedAt = System.nanoTime();
+            boolean over = usage(0) >= fragmentConfig.getDisk().getLowWatermark()
+                    || inodeUsage >= fragmentConfig.getDisk().getLowWatermark();
+            if (over != pressure) {
+                pressure = over;
+                if (over) {
+                    logger.warn("disk usage exceeds low watermark, new uploads are rejected, usage : {}, inodes : {}, reserved : {}",
+                            usage(0), inodeUsage, reserved);
+                } else {
+                    logger.info("disk usage is below low watermark, usage : {}, inodes : {}", usage(0), inodeUsage);
+                }
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     * 总量和 root 保留的空间不随写入变化，随预留一起刷新
+     */
+    private void readSpace(File root) {
+        rootReserved = Math.max(0, root.getFreeSpace() - root.getUsableSpace());
+        totalSpace = root.getTotalSpace();
+    }
+
+    /**
+     * 进行中会话尚未写入的字节数，分片模式合并时还需要一份文件大小的空间
+     */
+    private long outstanding(UploadSession session) {
+        long totalSize = session.getTotalSize();
+        if (totalSize < 0) {
+            return 0;
+        }
+        return outstanding(totalSize, session.getReceivedBytes(), session.isDirect());
+    }
+
+    private static long outstanding(long totalSize, long receivedBytes, boolean direct) {
+        return Math.max(0, totalSize - receivedBytes) + (direct ? 0 : totalSize);
+    }
+
+    private void probeInodes() {
+        if (inodesUnsupported) {
+            inodeProbe.shutdown();
+            return;
+        }
+        try {
+            inodeUsage = readInodeUsage();
+        } catch (RuntimeException e) {
+            logger.error("Read inode usage error!", e);
+        }
+    }
+
+    /**
+     * Java 没有读取 inode 的接口，通过 df -Pi 读取；不支持时（如 Windows、不限制 inode 的文件系统）不再检查。
+     * 输出重定向到临时文件，读取输出不会因 df 挂起而阻塞，超时后强制结束进程
+     */
+    private double readInodeUsage() {
+        Process stuck = stuckProbe;
+        if (stuck != null) {
+            if (stuck.isAlive()) {
+                return inodeUsage;
+            }
+            stuckProbe = null;
+        }
+        File root = existing(new File(fragmentPaths.getRootPath()));
+        File output = null;
+        try {
+            output = File.createTempFile("fragment-df", ".out");
+            Process process = new ProcessBuilder("df", "-Pi", root.getPath())
+                    .redirectErrorStream(true).redirectOutput(output).start();
+            if (!process.waitFor(PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                stuckProbe = process;
+                logger.warn("read inode usage timeout, last inode usage is kept until df exits, path : {}", root);
+                return inodeUsage;
+            }
+            List<String> lines = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+            // Filesystem Inodes IUsed IFree IUse% Mounted on
+            String[] columns = lines.get(lines.size() - 1).trim().split("\\s+");
+            long inodes = Long.parseLong(columns[1]);
+            if (process.exitValue() == 0 && inodes > 0) {
+                return (double) Long.parseLong(columns[2]) / inodes;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return inodeUsage;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Read inode usage error! path : {}", root, e);
+        } finally {
+            if (output != null && !output.delete()) {
+                output.deleteOnExit();
+            }
+        }
+        logger.warn("inode usage is not available, inode watermark is ignored, path : {}", root);
+        inodesUnsupported = true;
+        return UNKNOWN;
+    }
+
+    /**
+     * 根目录尚未创建时使用最近的已存在的上级目录
+     */
+    private static File existing(File file) {
+        File current = file.getAbsoluteFile();
+        while (current != null && !current.exists()) {
+            current = current.getParentFile();
+        }
+        return current == null ? file : current;
+    }
+}
@@ -0,0 +1,154 @@
+package com.wx.springboot.service.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读取一次文件，分发给多个输入流
+ * <p>
+ * 每个输入流有一个有界队列，读取最慢的消费者决定整体速度；消费者关闭输入流后不再向其分发，
+ * 因此不读取输入流的处理器返回后（流水线会关闭其输入流）不会阻塞其他处理器
+ */
+class FanOutReader {
+
+    private static final byte[] EOF = new byte[0];
+    private static final long OFFER_WAIT_MILLIS = 100;
+
+    private final File file;
+    private final int blockSize;
+    private final List<Consumer> consumers = new ArrayList<>();
+
+    /**
+     * @param file      文件
+     * @param count     输入流个数
+     * @param blockSize 每次读取的字节数
+     * @param depth     每个输入流最多缓存的块数
+     */
+    FanOutReader(File file, int count, int blockSize, int depth) {
+        this.file = file;
+        this.blockSize = blockSize;
+        for (int i = 0; i < count; i++) {
+            consumers.add(new Consumer(depth));
+        }
+    }
+
+    InputStream stream(int index) {
+        return consumers.get(index);
+    }
+
+    /**
+     * 在当前线程中读取文件并分发，全部消费者关闭或读到文件末尾后返回
+     */
+    void run() throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            while (true) {
+                byte[] block = new byte[blockSize];
+                int length = 0;
+                int read;
+                while (length < blockSize && (read = in.read(block, length, blockSize - length)) >= 0) {
+                    length += read;
+                }
+                if (length == 0) {
+                    break;
+                }
+                if (!dispatch(length < blockSize ? Arrays.copyOf(block, length) : block)) {
+                    return;
+                }
+                if (length < blockSize) {
+                    break;
+                }
+            }
+            dispatch(EOF);
+        } catch (IOException e) {
+            for (Consumer consumer : consumers) {
+                consumer.error = e;
+            }
+            dispatch(EOF);
+            throw e;
+        }
+    }
+
+    /**
+     * @return 是否还有未关闭的消费者
+     */
+    private boolean dispatch(byte[] block) throws InterruptedIOException {
+        boolean open = false;
+        for (Consumer consumer : consumers) {
+            try {
+                while (!consumer.closed) {
+                    if (consumer.queue.offer(block, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        open = true;
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        return open;
+    }
+
+    private static class Consumer extends InputStream {
+
+        private final BlockingQueue<byte[]> queue;
+        private volatile boolean closed;
+        private volatile IOException error;
+        private byte[] current;
+        private int position;
+
+        Consumer(int depth) {
+            this.queue = new ArrayBlockingQueue<>(depth);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (current == null || position == current.length) {
+                if (current == EOF) {
+                    return -1;
+                }
+                try {
+                    current = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                position = 0;
+                if (current == EOF) {
+                    if (error != null) {
+                        throw error;
+                    }
+                    return -1;
+                }
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            queue.clear();
+        }
+    }
+}
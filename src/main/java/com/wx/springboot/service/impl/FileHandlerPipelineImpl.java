@@ -0,0 +1,238 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.config.FragmentExecutors;
+import com.wx.springboot.config.FragmentMetrics;
+import com.wx.springboot.domain.CombineProgress;
+import com.wx.springboot.domain.ConcatenatedFile;
+import com.wx.springboot.domain.HandlerResult;
+import com.wx.springboot.domain.RequestTrace;
+import com.wx.springboot.service.FileHandler;
+import com.wx.springboot.service.FileHandlerPipeline;
+import com.wx.springboot.service.StreamingFileHandler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.core.annotation.OrderUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * 文件处理器流水线
+ * <p>
+ * 并发执行的处理器由无界线程池执行（数量不超过处理器个数），文件由调用线程读取后分发，
+ * 避免线程池满时读取线程与处理器互相等待；流式处理器各自读取，不参与分发
+ */
+@Component
+public class FileHandlerPipelineImpl implements FileHandlerPipeline, InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileHandlerPipelineImpl.class);
+
+    @Autowired
+    private FragmentConfig fragmentConfig;
+    @Autowired
+    private FragmentExecutors fragmentExecutors;
+    @Autowired
+    private FragmentMetrics fragmentMetrics;
+    @Autowired(required = false)
+    private List<FileHandler> fileHandlers = Collections.emptyList();
+
+    /**
+     * 按 @Order 分组，组内可并发
+     */
+    private List<List<FileHandler>> groups;
+    private boolean requiresPath;
+    private volatile ExecutorService executor;
+
+    @Override
+    public void afterPropertiesSet() {
+        List<FileHandler> handlers = new ArrayList<>(fileHandlers);
+        AnnotationAwareOrderComparator.sort(handlers);
+        groups = new ArrayList<>();
+        Integer lastOrder = null;
+        for (FileHandler handler : handlers) {
+            int order = orderOf(handler);
+            if (lastOrder == null || order != lastOrder) {
+                groups.add(new ArrayList<>());
+                lastOrder = order;
+            }
+            groups.get(groups.size() - 1).add(handler);
+        }
+        requiresPath = handlers.stream().anyMatch(handler -> !(handler instanceof StreamingFileHandler));
+        logger.info("file handlers : {}", handlers.stream()
+                .map(handler -> AopUtils.getTargetClass(handler).getSimpleName() + "(" + orderOf(handler) + ")")
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public boolean requiresPath() {
+        return requiresPath;
+    }
+
+    @Override
+    public List<HandlerResult> process(Long tenantId, String filename, String filePath, Map<String, String> params,
+                                       CombineProgress progress) throws IOException {
+        return process(tenantId, filename, ConcatenatedFile.of(new File(filePath)), filePath, params, progress);
+    }
+
+    @Override
+    public List<HandlerResult> process(Long tenantId, String filename, ConcatenatedFile file, Map<String, String> params,
+                                       CombineProgress progress) throws IOException {
+        Assert.isTrue(!requiresPath, "file handler requires file path");
+        return process(tenantId, filename, file, null, params, progress);
+    }
+
+    /**
+     * @param filePath 文件本地路径，没有合并后的文件时为 null
+     */
+    private List<HandlerResult> process(Long tenantId, String filename, ConcatenatedFile file, String filePath,
+                                        Map<String, String> params, CombineProgress progress) throws IOException {
+        List<HandlerResult> results = new ArrayList<>();
+        // 并发的处理器在线程池中执行，请求跟踪需要传递
+        RequestTrace trace = RequestTrace.current();
+        boolean parallel = fragmentConfig.getHandler().isParallel();
+        for (List<FileHandler> group : groups) {
+            if (parallel && group.size() > 1) {
+                results.addAll(processConcurrently(group, tenantId, filename, file, filePath, params, progress, trace));
+            } else {
+                for (FileHandler handler : group) {
+                    if (handler instanceof StreamingFileHandler) {
+                        results.add(invoke(handler, tenantId, filename, progress, trace,
+                                () -> ((StreamingFileHandler) handler).process(tenantId, filename, file, params)));
+                        continue;
+                    }
+                    try (InputStream inputStream = new FileInputStream(filePath)) {
+                        results.add(invoke(handler, tenantId, filename, progress, trace,
+                                () -> handler.process(tenantId, filename, filePath, inputStream, params)));
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private List<HandlerResult> processConcurrently(List<FileHandler> group, Long tenantId, String filename,
+                                                    ConcatenatedFile file, String filePath, Map<String, String> params,
+                                                    CombineProgress progress, RequestTrace trace) throws IOException {
+        List<FileHandler> readers = group.stream()
+                .filter(handler -> !(handler instanceof StreamingFileHandler))
+                .collect(Collectors.toList());
+        FanOutReader reader = null;
+        if (!readers.isEmpty()) {
+            FragmentConfig.Handler config = fragmentConfig.getHandler();
+            reader = new FanOutReader(new File(filePath), readers.size(), config.getBufferSize(), config.getBufferDepth());
+        }
+        List<Future<HandlerResult>> futures = new ArrayList<>(group.size());
+        for (FileHandler handler : group) {
+            if (handler instanceof StreamingFileHandler) {
+                futures.add(getExecutor().submit(() -> invoke(handler, tenantId, filename, progress, trace,
+                        () -> ((StreamingFileHandler) handler).process(tenantId, filename, file, params))));
+                continue;
+            }
+            InputStream inputStream = reader.stream(readers.indexOf(handler));
+            futures.add(getExecutor().submit(() -> {
+                try (InputStream is = inputStream) {
+                    return invoke(handler, tenantId, filename, progress, trace,
+                            () -> handler.process(tenantId, filename, filePath, is, params));
+                }
+            }));
+        }
+        if (reader != null) {
+            reader.run();
+        }
+        List<HandlerResult> results = new ArrayList<>(group.size());
+        RuntimeException error = null;
+        for (Future<HandlerResult> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                // 等待同组的其他处理器结束后再抛出
+                if (error == null) {
+                    error = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return results;
+    }
+
+    private HandlerResult invoke(FileHandler handler, Long tenantId, String filename, CombineProgress progress,
+                                 RequestTrace trace, Callable<String> call) {
+        String name = AopUtils.getTargetClass(handler).getSimpleName();
+        FragmentMetrics.TenantMeters meters = fragmentMetrics.tenant(tenantId);
+        long startTime = System.nanoTime();
+        long start = System.currentTimeMillis();
+        try {
+            String url = call.call();
+            long nanos = System.nanoTime() - startTime;
+            meters.handled(name, nanos, true);
+            RequestTrace.record(trace, RequestTrace.HANDLER + name, nanos);
+            HandlerResult result = new HandlerResult(name, orderOf(handler), url, System.currentTimeMillis() - start, null);
+            logger.info("file handler finished, handler : {}, filename : {}, cost : {}ms", name, filename, result.getCost());
+            progress.handled(result);
+            return result;
+        } catch (Exception e) {
+            long nanos = System.nanoTime() - startTime;
+            meters.handled(name, nanos, false);
+            RequestTrace.record(trace, RequestTrace.HANDLER + name, nanos);
+            HandlerResult result = new HandlerResult(name, orderOf(handler), null, System.currentTimeMillis() - start, e.getMessage());
+            logger.error("file handler failed, handler : {}, filename : {}, cost : {}ms", name, filename, result.getCost(), e);
+            progress.handled(result);
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int orderOf(FileHandler handler) {
+        if (handler instanceof Ordered) {
+            return ((Ordered) handler).getOrder();
+        }
+        return OrderUtils.getOrder(AopUtils.getTargetClass(handler), Ordered.LOWEST_PRECEDENCE);
+    }
+
+    private ExecutorService getExecutor() {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    executor = fragmentExecutors.newCachedExecutor("fragment-handler");
+                }
+            }
+        }
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -1,27 +1,65 @@
 package com.wx.springboot.service.impl;
 
 
-import com.wx.springboot.config.ApplicationContextHelper;
+import com.wx.springboot.config.AdaptiveLimiter;
 import com.wx.springboot.config.BaseConstants;
+import com.wx.springboot.config.ByteBufferPool;
 import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.config.FragmentExecutors;
+import com.wx.springboot.config.FragmentMetrics;
+import com.wx.springboot.config.FragmentPaths;
 import com.wx.springboot.config.Pair;
-import com.wx.springboot.service.FileHandler;
+import com.wx.springboot.domain.ChunkChecksum;
+import com.wx.springboot.domain.ChunkStatus;
+import com.wx.springboot.domain.CombineJob;
+import com.wx.springboot.domain.CombineProgress;
+import com.wx.springboot.domain.ConcatenatedFile;
+import com.wx.springboot.domain.RequestTrace;
+import com.wx.springboot.domain.HandlerResult;
+import com.wx.springboot.domain.UploadCompletedEvent;
+import com.wx.springboot.domain.UploadDigest;
+import com.wx.springboot.domain.UploadSession;
+import com.wx.springboot.service.ChunkMerger;
+import com.wx.springboot.service.ChunkUpload;
+import com.wx.springboot.service.ConcurrencyLimitService;
+import com.wx.springboot.service.ContentStore;
+import com.wx.springboot.service.DiskAdmissionService;
+import com.wx.springboot.service.FileHandlerPipeline;
 import com.wx.springboot.service.FragmentService;
+import com.wx.springboot.service.TenantLimitService;
+import com.wx.springboot.service.UploadSessionRegistry;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
-import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Checksum;
 
 /**
  * description
@@ -29,118 +67,874 @@ import java.util.Map;
  * @author shuangfei.zhu@hand-china.com 2020/02/18 14:07
  */
 @Service
-public class FragmentServiceImpl implements FragmentService {
+public class FragmentServiceImpl implements FragmentService, DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(FragmentServiceImpl.class);
 
-    public static final String ROOT = System.getProperty("user.dir") + File.separator + "file";
-    public static final String TEMP = "temp";
-    public static final String REAL = "real";
+    public static final String ROOT = FragmentPaths.ROOT;
+    public static final String TEMP = FragmentPaths.TEMP;
+    public static final String REAL = FragmentPaths.REAL;
+    private static final String MD5 = "md5";
+    private static final String SHA256 = "sha-256";
 
+    @Autowired
+    private FragmentPaths fragmentPaths;
+    @Autowired
+    private UploadSessionRegistry uploadSessionRegistry;
+    @Autowired
+    private ChunkMerger chunkMerger;
+    @Autowired
+    private ByteBufferPool byteBufferPool;
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+    @Autowired
+    private ContentStore contentStore;
     @Autowired
     private FragmentConfig fragmentConfig;
+    @Autowired
+    private FileHandlerPipeline fileHandlerPipeline;
+    @Autowired
+    private FragmentExecutors fragmentExecutors;
+    @Autowired
+    private FragmentMetrics fragmentMetrics;
+    @Autowired
+    private DiskAdmissionService diskAdmissionService;
+    @Autowired
+    private TenantLimitService tenantLimitService;
+    @Autowired
+    private ConcurrencyLimitService concurrencyLimitService;
+
+    /**
+     * 后台补算摘要，首次使用时创建
+     */
+    private volatile ExecutorService digestExecutor;
+
+    @Override
+    public void init(String guid, Long tenantId, String fileName, String hash, Long totalSize, Long chunkSize) {
+        Assert.isTrue(totalSize != null && totalSize >= 0, BaseConstants.ErrorCode.DATA_INVALID);
+        Assert.isTrue(chunkSize != null && chunkSize > 0, BaseConstants.ErrorCode.DATA_INVALID);
+        if (uploadSessionRegistry.get(guid) == null) {
+            tenantLimitService.admitSession(tenantId);
+            diskAdmissionService.admitSession(totalSize, true);
+        }
+        UploadSession session;
+        try {
+            session = uploadSessionRegistry.createDirect(guid, tenantId, fileName, totalSize, chunkSize);
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e.getCause());
+        }
+        // 断点续传时沿用原会话，参数必须一致
+        Assert.isTrue(session.isDirect() && session.getTotalSize() == totalSize && session.getChunkSize() == chunkSize,
+                "fragment.error.session-conflict");
+        session.setExpectedHash(hash);
+    }
 
-    private String getRootPath() {
-        String rootPath = fragmentConfig.getRootPath();
-        if (StringUtils.isEmpty(rootPath)) {
-            return ROOT;
+    @Override
+    public void declare(String guid, Long tenantId, String fileName, String hash, Long totalSize, Integer chunks) {
+        if (totalSize == null) {
+            return;
+        }
+        UploadSession session = uploadSessionRegistry.get(guid);
+        if (session == null) {
+            tenantLimitService.admitSession(tenantId);
+        }
+        if (session == null || session.getTotalSize() < 0 && session.getReceivedBytes() == 0) {
+            // 新的上传会话，按声明的大小预留空间；服务重启后恢复的会话已在上传中，不再拒绝
+            diskAdmissionService.admitSession(totalSize, false);
         }
-        return rootPath;
+        if (session == null) {
+            session = uploadSessionRegistry.getOrCreate(guid, tenantId);
+        }
+        uploadSessionRegistry.declare(session, tenantId, fileName, totalSize, chunks == null ? 1 : chunks);
+        session.setExpectedHash(hash);
     }
 
     @Override
-    public Integer checkMd5(String chunk, String chunkSize, String guid) {
-        // 分片上传路径
-        String tempPath = getRootPath() + File.separator + TEMP;
-        File checkFile = new File(tempPath + File.separator + guid + File.separator + chunk);
-        // 如果当前分片存在，并且长度等于上传的大小
-        if (checkFile.exists() && checkFile.length() == Integer.parseInt(chunkSize)) {
-            return BaseConstants.Flag.YES;
-        } else {
-            return BaseConstants.Flag.NO;
+    public Integer checkMd5(String chunk, String chunkSize, String guid, Long tenantId, ChunkChecksum checksum) {
+        FragmentMetrics.TenantMeters meters = fragmentMetrics.tenant(tenantId);
+        long startTime = System.nanoTime();
+        boolean hit;
+        try {
+            UploadSession session = uploadSessionRegistry.get(guid);
+            if (session != null && !session.isOwnedBy(tenantId)) {
+                return null;
+            }
+            // 如果当前分片存在，并且长度等于上传的大小；提供了校验和时还要求内容一致
+            hit = session != null && session.getChunkLength(Integer.parseInt(chunk)) == Long.parseLong(chunkSize)
+                    && (checksum == null || checksum.equals(readChecksum(fragmentPaths.getChunkChecksumFile(guid, Integer.parseInt(chunk)))));
+        } catch (RuntimeException e) {
+            meters.chunkCheckFailed();
+            throw e;
         }
+        meters.chunkChecked(System.nanoTime() - startTime, hit);
+        return hit ? BaseConstants.Flag.YES : BaseConstants.Flag.NO;
     }
 
     @Override
-    public void upload(MultipartFile file, Integer chunk, String guid) {
+    public ChunkStatus status(String guid, Long tenantId) {
+        ChunkStatus status = new ChunkStatus(guid);
+        UploadSession session = uploadSessionRegistry.get(guid);
+        if (session == null) {
+            return status;
+        }
+        if (!session.isOwnedBy(tenantId)) {
+            return null;
+        }
+        if (session.getChunkCount() > 0) {
+            status.setChunkCount(session.getChunkCount());
+        }
+        status.setChunkSize(session.getChunkSize());
+        BitSet received = session.getReceived();
+        for (int chunk = received.nextSetBit(0); chunk >= 0; chunk = received.nextSetBit(chunk + 1)) {
+            status.append(chunk, session.getChunkLength(chunk));
+        }
+        return status;
+    }
+
+    @Override
+    public void upload(MultipartFile file, Integer chunk, String guid, Long tenantId, ChunkChecksum checksum) {
         try (InputStream inputStream = file.getInputStream()) {
-            if (chunk == null) {
-                chunk = 0;
+            upload(inputStream, chunk, guid, tenantId, checksum);
+        } catch (IOException e) {
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
+        }
+    }
+
+    @Override
+    public void upload(InputStream inputStream, Integer chunk, String guid, Long tenantId, ChunkChecksum checksum) {
+        ChunkUpload upload = begin(chunk, guid, tenantId, checksum);
+        // 不关闭此通道，输入流由调用方关闭
+        ReadableByteChannel in = Channels.newChannel(inputStream);
+        ByteBuffer buffer = byteBufferPool.acquire();
+        RequestTrace trace = RequestTrace.current();
+        try {
+            // 每次填满池化的直接缓冲区后再写盘
+            boolean eof = false;
+            while (!eof) {
+                long receiveStart = System.nanoTime();
+                while (buffer.hasRemaining()) {
+                    if (in.read(buffer) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                RequestTrace.record(trace, RequestTrace.RECEIVE, System.nanoTime() - receiveStart);
+                buffer.flip();
+                upload.write(buffer);
+                buffer.clear();
             }
-            String filePath = getRootPath() + File.separator + TEMP + File.separator + guid + File.separator + chunk;
-            FileUtils.copyInputStreamToFile(inputStream, new File(filePath));
-        } catch (Exception e) {
+        } catch (IOException | RuntimeException e) {
+            upload.abort();
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
+        } finally {
+            byteBufferPool.release(buffer);
+        }
+        upload.complete();
+    }
+
+    @Override
+    public ChunkUpload begin(Integer chunk, String guid, Long tenantId, ChunkChecksum checksum) {
+        int index = chunk == null ? 0 : chunk;
+        UploadSession known = uploadSessionRegistry.get(guid);
+        // 按预计长度预扣字节数，同时到达的请求不会在扣减前全部放行
+        long reserved = tenantLimitService.admitRequest(tenantId, known == null ? 0 : known.estimateLength(index));
+        UploadSession session;
+        try {
+            session = beginWrite(guid, tenantId);
+        } catch (RuntimeException e) {
+            tenantLimitService.refundBytes(tenantId, reserved);
+            throw e;
+        }
+        FragmentMetrics.TenantMeters meters;
+        AdaptiveLimiter.Permit permit;
+        try {
+            Assert.isTrue(session.isValidChunk(index), BaseConstants.ErrorCode.DATA_INVALID);
+            diskAdmissionService.admitChunk(session);
+            session.describe(tenantId, null);
+            meters = fragmentMetrics.tenant(tenantId);
+            if (!session.attempt(index)) {
+                meters.chunkRetried();
+            }
+            // 准入时即占用许可并持有到保存结束，已准入的分片数不会超过上限
+            permit = concurrencyLimitService.acquireSave();
+        } catch (RuntimeException e) {
+            session.endWrite();
+            tenantLimitService.refundBytes(tenantId, reserved);
+            throw e;
+        }
+        return new ChunkUploadImpl(session, index, tenantId, checksum, meters, reserved, permit);
+    }
+
+    /**
+     * 获取会话并开始写入，写入期间会话不会被清理
+     *
+     * @return 会话，写入结束后调用 {@link UploadSession#endWrite()}
+     */
+    private UploadSession beginWrite(String guid, Long tenantId) {
+        while (true) {
+            UploadSession session = uploadSessionRegistry.get(guid);
+            if (session == null) {
+                tenantLimitService.admitSession(tenantId);
+                session = uploadSessionRegistry.getOrCreate(guid, tenantId);
+            }
+            // 会话刚被清理时已从注册表移除，重新获取即得到新的会话
+            if (session.beginWrite()) {
+                return session;
+            }
+        }
+    }
+
+    /**
+     * 分片模式写入单独的分片文件，直写模式写入目标文件对应偏移
+     */
+    private class ChunkUploadImpl implements ChunkUpload {
+
+        private final UploadSession session;
+        private final int chunk;
+        private final Long tenantId;
+        private final ChunkChecksum checksum;
+        private final Checksum crc;
+        private final File checksumFile;
+        private final UploadDigest digest;
+        private final MessageDigest[] working;
+        /**
+         * 分片在文件中的起始位置
+         */
+        private final long start;
+        /**
+         * 最多写入的字节数，超出时报错；直写模式下必须恰好写满
+         */
+        private final long limit;
+        private final FragmentMetrics.TenantMeters meters;
+        private final long startTime = System.nanoTime();
+        private final RequestTrace trace = RequestTrace.current();
+        /**
+         * 开始时预扣的字节数，写入超出部分再扣减，结束时退回未用完的部分
+         */
+        private final long reserved;
+        private final AdaptiveLimiter.Permit permit;
+        /**
+         * 写盘和刷盘的耗时，用于调整并发上限；接收请求体的耗时取决于客户端网络，不计入
+         */
+        private long diskNanos;
+        private FileChannel out;
+        private long written;
+        private boolean finished;
+        /**
+         * 写盘、刷盘时会阻塞，不使用 synchronized，避免占住虚拟线程的载体线程
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        ChunkUploadImpl(UploadSession session, int chunk, Long tenantId, ChunkChecksum checksum,
+                        FragmentMetrics.TenantMeters meters, long reserved, AdaptiveLimiter.Permit permit) {
+            this.reserved = reserved;
+            this.permit = permit;
+            this.session = session;
+            this.meters = meters;
+            this.chunk = chunk;
+            this.tenantId = tenantId;
+            this.checksum = checksum;
+            this.crc = checksum == null ? null : checksum.newChecksum();
+            this.checksumFile = fragmentPaths.getChunkChecksumFile(session.getGuid(), chunk);
+            this.start = session.isDirect() ? session.offset(chunk) : 0;
+            this.limit = session.isDirect() ? session.expectedLength(chunk) : Long.MAX_VALUE;
+            session.touch();
+            digest = session.digest(digestAlgorithms());
+            if (digest != null) {
+                digest.reset(chunk);
+                // 恰好是下一个待计算的分片时，写盘的同时计算摘要
+                working = digest.begin(chunk);
+            } else {
+                working = null;
+            }
+            try {
+                FileUtils.forceMkdir(checksumFile.getParentFile());
+                // 旧的校验和在分片重新写入后失效
+                Files.deleteIfExists(checksumFile.toPath());
+                if (session.isDirect()) {
+                    out = FileChannel.open(fragmentPaths.getDirectDataFile(session.getGuid()).toPath(),
+                            StandardOpenOption.WRITE);
+                } else {
+                    out = FileChannel.open(fragmentPaths.getChunkFile(session.getGuid(), chunk).toPath(),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                }
+            } catch (IOException | RuntimeException e) {
+                abort();
+                throw wrap(e);
+            }
+        }
+
+        @Override
+        public void write(ByteBuffer buffer) throws IOException {
+            lock.lock();
+            try {
+                int length = buffer.remaining();
+                if (written + length > limit) {
+                    throw new IOException("chunk size exceeds " + limit);
+                }
+                if (working != null) {
+                    update(working, buffer);
+                }
+                if (crc != null) {
+                    ChunkChecksum.update(crc, buffer);
+                }
+                long position = start + written;
+                long writeStart = System.nanoTime();
+                fragmentExecutors.acquireDisk();
+                try {
+                    while (buffer.hasRemaining()) {
+                        position += out.write(buffer, position);
+                    }
+                } finally {
+                    fragmentExecutors.releaseDisk();
+                }
+                long writeNanos = System.nanoTime() - writeStart;
+                RequestTrace.record(trace, RequestTrace.WRITE, writeNanos);
+                diskNanos += writeNanos;
+                // 按缓冲区扣减字节数，大分片接收期间同一租户的新请求即可感知透支
+                tenantLimitService.consumeBytes(tenantId, written + length - Math.max(reserved, written));
+                written += length;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void complete() {
+            lock.lock();
+            try {
+                try {
+                    if (fragmentConfig.getUpload().isFsync()) {
+                        long fsyncStart = System.nanoTime();
+                        out.force(false);
+                        long fsyncNanos = System.nanoTime() - fsyncStart;
+                        RequestTrace.record(trace, RequestTrace.FSYNC, fsyncNanos);
+                        diskNanos += fsyncNanos;
+                    }
+                    out.close();
+                    if (session.isDirect() && written != limit) {
+                        throw new EOFException("chunk " + chunk + " is incomplete");
+                    }
+                    verify(checksum, crc, chunk);
+                    chunkReceived(session, chunk, written, working);
+                    meters.chunkSaved(System.nanoTime() - startTime, written);
+                } catch (IOException | RuntimeException e) {
+                    abort();
+                    throw wrap(e);
+                }
+                finished = true;
+                permit.release(AdaptiveLimiter.perMebibyte(diskNanos, written));
+                try {
+                    tenantLimitService.refundBytes(tenantId, reserved - written);
+                    if (checksum != null) {
+                        writeChecksum(checksumFile, checksum);
+                    }
+                    if (digest != null) {
+                        // 请求线程只计算本分片，已先到达的后续分片在后台补算
+                        catchUpLater(session, digest);
+                    }
+                } finally {
+                    session.endWrite();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void abort() {
+            lock.lock();
+            try {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                permit.cancel();
+                try {
+                    meters.chunkSaveFailed();
+                    // 失败的分片已写入的部分同样占用了带宽，不退回
+                    tenantLimitService.refundBytes(tenantId, reserved - written);
+                    if (working != null) {
+                        digest.abort();
+                    }
+                    if (out == null) {
+                        return;
+                    }
+                    IOUtils.closeQuietly(out);
+                    // 写入失败时该区间内容已不可信，即使之前上传成功过也需要重传
+                    uploadSessionRegistry.chunkDiscarded(session, chunk);
+                    if (!session.isDirect()) {
+                        // 不完整或损坏的分片不能留在磁盘上，否则重启后会被当作已上传
+                        FileUtils.deleteQuietly(fragmentPaths.getChunkFile(session.getGuid(), chunk));
+                    }
+                } finally {
+                    session.endWrite();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private RuntimeException wrap(Exception e) {
+            if (e instanceof RuntimeException) {
+                return (RuntimeException) e;
+            }
+            return new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
+        }
+    }
+
+    /**
+     * 校验客户端提供的分片校验和
+     */
+    private void verify(ChunkChecksum checksum, Checksum crc, int chunk) {
+        if (checksum != null && !checksum.matches(crc)) {
+            logger.warn("chunk checksum mismatch, chunk : {}, expected : {}, actual : {}",
+                    chunk, checksum, checksum.withValue(crc));
+            throw new RuntimeException("fragment.error.checksum-mismatch");
+        }
+    }
+
+    /**
+     * 保存分片校验和，校验分片时比较内容而不仅是大小
+     */
+    private void writeChecksum(File checksumFile, ChunkChecksum checksum) {
+        try {
+            Files.write(checksumFile.toPath(), checksum.toString().getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            // 仅影响分片校验，分片本身已保存
+            logger.warn("Write chunk checksum error! file : {}", checksumFile, e);
+        }
+    }
+
+    private ChunkChecksum readChecksum(File checksumFile) {
+        try {
+            return ChunkChecksum.parse(new String(Files.readAllBytes(checksumFile.toPath()), StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 记录分片已接收，最后一个分片到达时发布上传完成事件
+     */
+    private void chunkReceived(UploadSession session, int chunk, long length, MessageDigest[] working) {
+        boolean first = uploadSessionRegistry.chunkReceived(session, chunk, length);
+        if (working != null) {
+            session.digest(null).commit(working);
+        }
+        if (first && session.isComplete() && session.getFileName() != null) {
+            applicationEventPublisher.publishEvent(
+                    new UploadCompletedEvent(session.getGuid(), session.getTenantId(), session.getFileName()));
+        }
+    }
+
+    /**
+     * 下一个待计算的分片已在磁盘上时，在后台从磁盘补算；服务重启或分片重传后摘要从头计算，同样在后台完成。
+     * 其他线程正在计算时后台任务直接返回，由正在计算的线程继续补算
+     */
+    private void catchUpLater(UploadSession session, UploadDigest digest) {
+        if (!session.isReceived(digest.getNext())) {
+            return;
+        }
+        getDigestExecutor().execute(() -> {
+            try {
+                catchUp(session, digest, false, CombineProgress.NONE);
+            } catch (Exception e) {
+                logger.warn("Digest chunk error! guid : {}", session.getGuid(), e);
+            }
+        });
+    }
+
+    private ExecutorService getDigestExecutor() {
+        if (digestExecutor == null) {
+            synchronized (this) {
+                if (digestExecutor == null) {
+                    digestExecutor = fragmentExecutors.newCachedExecutor("fragment-digest");
+                }
+            }
+        }
+        return digestExecutor;
+    }
+
+    @Override
+    public void destroy() {
+        if (digestExecutor != null) {
+            digestExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 从磁盘读取已接收的分片，按顺序更新摘要
+     *
+     * @param wait     其他分片正在计算时是否等待
+     * @param progress 补算进度
+     */
+    private void catchUp(UploadSession session, UploadDigest digest, boolean wait, CombineProgress progress)
+            throws IOException, InterruptedException {
+        while (true) {
+            int chunk = digest.getNext();
+            if (!session.isReceived(chunk)) {
+                return;
+            }
+            MessageDigest[] working = wait ? digest.await(chunk) : digest.begin(chunk);
+            if (working == null) {
+                if (wait) {
+                    continue;
+                }
+                return;
+            }
+            fragmentExecutors.acquireDisk();
+            try {
+                if (session.isDirect()) {
+                    try (FileChannel in = FileChannel.open(fragmentPaths.getDirectDataFile(session.getGuid()).toPath())) {
+                        read(in, session.offset(chunk), session.expectedLength(chunk), working);
+                    }
+                } else {
+                    try (FileChannel in = FileChannel.open(fragmentPaths.getChunkFile(session.getGuid(), chunk).toPath())) {
+                        read(in, 0, in.size(), working);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                digest.abort();
+                throw e;
+            } finally {
+                fragmentExecutors.releaseDisk();
+            }
+            digest.commit(working);
+            progress.hashed(session.getChunkLength(chunk));
+        }
+    }
+
+    /**
+     * 启用秒传时文件库以 SHA-256 为键、以 MD5 为别名，上传时一并计算
+     */
+    private List<String> digestAlgorithms() {
+        List<String> algorithms = fragmentConfig.getUpload().getDigestAlgorithms();
+        if (!fragmentConfig.getDedup().isEnabled()) {
+            return algorithms;
+        }
+        List<String> required = new ArrayList<>(algorithms);
+        for (String algorithm : new String[]{"SHA-256", "MD5"}) {
+            if (required.stream().noneMatch(algorithm::equalsIgnoreCase)) {
+                required.add(algorithm);
+            }
+        }
+        return required;
+    }
+
+    /**
+     * 补算剩余分片并返回整个文件的摘要
+     *
+     * @return 算法 -> 十六进制摘要，未计算或分片不完整时为空
+     */
+    private Map<String, String> digest(UploadSession session, CombineProgress progress) {
+        UploadDigest digest = session.digest(digestAlgorithms());
+        if (digest == null) {
+            return Collections.emptyMap();
+        }
+        try {
+            catchUp(session, digest, true, progress);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
+        } catch (IOException e) {
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
+        }
+        if (digest.getNext() != session.getReceivedCount()) {
+            return Collections.emptyMap();
+        }
+        return digest.result();
+    }
+
+    /**
+     * 客户端声明了整个文件摘要时，按摘要长度找到对应算法校验
+     */
+    private void verify(UploadSession session, Map<String, String> digests) {
+        String expected = session.getExpectedHash();
+        if (expected == null) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : digests.entrySet()) {
+            if (entry.getValue().length() == expected.length()) {
+                if (!entry.getValue().equals(expected)) {
+                    logger.error("file hash mismatch, MD5 : {}, {} expected : {}, actual : {}",
+                            session.getGuid(), entry.getKey(), expected, entry.getValue());
+                    throw new RuntimeException("fragment.error.hash-mismatch");
+                }
+                return;
+            }
+        }
+        logger.warn("file hash not verified, no digest algorithm matches, MD5 : {}", session.getGuid());
+    }
+
+    /**
+     * 上传时未计算文件库所需的摘要（如服务重启后恢复的会话）时，读取合并后的文件计算
+     */
+    private Map<String, String> digest(File file) throws IOException {
+        MessageDigest[] digests;
+        try {
+            digests = new MessageDigest[]{MessageDigest.getInstance("SHA-256"), MessageDigest.getInstance("MD5")};
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            read(in, 0, in.size(), digests);
+        }
+        Map<String, String> result = new HashMap<>(4);
+        for (MessageDigest digest : digests) {
+            result.put(digest.getAlgorithm().toLowerCase(), UploadDigest.toHex(digest.digest()));
+        }
+        return result;
+    }
+
+    private void read(FileChannel in, long position, long length, MessageDigest[] digests) throws IOException {
+        ByteBuffer buffer = byteBufferPool.acquire();
+        try {
+            long end = position + length;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int read = in.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                position += read;
+                buffer.flip();
+                update(digests, buffer);
+            }
+        } finally {
+            byteBufferPool.release(buffer);
+        }
+    }
+
+    private static void update(MessageDigest[] digests, ByteBuffer buffer) {
+        for (MessageDigest digest : digests) {
+            digest.update(buffer.duplicate());
         }
     }
 
     @Override
-    public Pair<String, String> combineBlock(String guid, String fileName) {
+    public Pair<String, String> combineBlock(String guid, String fileName, CombineProgress progress) {
+        UploadSession session = uploadSessionRegistry.get(guid);
+        if (session == null) {
+            throw new RuntimeException("read file error");
+        }
         // 分片文件临时目录
-        String tempDir = getRootPath() + File.separator + TEMP + File.separator + guid;
-        File tempPath = new File(tempDir);
+        String tempDir = fragmentPaths.getTempDir(guid).getPath();
         // 真实上传路径
-        File realPath = new File(getRootPath() + File.separator + REAL);
+        File realFile = fragmentPaths.getRealFile(guid, fileName);
+        File realPath = realFile.getParentFile();
         if (!realPath.exists()) {
-            Assert.isTrue(realPath.mkdirs(), "Create file directory error.");
-        }
-        String filePath = getRootPath() + File.separator + REAL + File.separator + fileName;
-        File realFile = new File(filePath);
-        // 文件追加写入
-        try (FileOutputStream os = new FileOutputStream(realFile, true)) {
-            logger.info("file start to merge, filename : {}, MD5 : {}", fileName, guid);
-            if (!tempPath.exists()) {
-                throw new RuntimeException("read file error");
-            }
-            // 获取临时目录下的所有文件
-            File[] tempFiles = tempPath.listFiles();
-            Assert.notNull(tempFiles, BaseConstants.ErrorCode.ERROR);
-            // 按名称排序
-            Arrays.sort(tempFiles, Comparator.comparingInt(o -> Integer.parseInt(o.getName())));
-            byte[] bytes = new byte[1024 * 1024];
-            for (File file : tempFiles) {
-                FileInputStream fis = new FileInputStream(file);
-                int len;
-                while ((len = fis.read(bytes)) != -1) {
-                    os.write(bytes, 0, len);
-                }
-                fis.close();
-            }
-            logger.info("file merged successfully!  filename : {}, MD5 : {}", fileName, guid);
+            Assert.isTrue(realPath.mkdirs() || realPath.isDirectory(), "Create file directory error.");
+        }
+        String filePath = realFile.getPath();
+        if (session.isDirect()) {
+            // 直写模式无需合并，仅移动文件
+            Assert.isTrue(session.isComplete(), "fragment.error.chunk-missing");
+            progress.start(session.getTotalSize());
+            long moveStart = System.nanoTime();
+            fragmentExecutors.acquireDisk();
+            try {
+                Files.move(fragmentPaths.getDirectDataFile(guid).toPath(), realFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
+            } finally {
+                fragmentExecutors.releaseDisk();
+                RequestTrace.record(RequestTrace.current(), RequestTrace.MERGE, System.nanoTime() - moveStart);
+            }
+            progress.merged(session.getTotalSize());
+            uploadSessionRegistry.remove(guid);
+            logger.info("file finalized successfully!  filename : {}, MD5 : {}, size : {}",
+                    fileName, guid, session.getTotalSize());
             return Pair.of(filePath, tempDir);
-        } catch (IOException e) {
-            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
         }
+        List<File> chunks = chunkFiles(session);
+        diskAdmissionService.admitMerge(session);
+        logger.info("file start to merge, filename : {}, MD5 : {}", fileName, guid);
+        long start = System.currentTimeMillis();
+        progress.start(session.getReceivedBytes());
+        long size;
+        long mergeStart = System.nanoTime();
+        fragmentExecutors.acquireDisk();
+        try {
+            size = chunkMerger.merge(chunks, realFile, progress);
+        } finally {
+            fragmentExecutors.releaseDisk();
+            RequestTrace.record(RequestTrace.current(), RequestTrace.MERGE, System.nanoTime() - mergeStart);
+        }
+        uploadSessionRegistry.remove(guid);
+        logger.info("file merged successfully!  filename : {}, MD5 : {}, size : {}, cost : {}ms",
+                fileName, guid, size, System.currentTimeMillis() - start);
+        return Pair.of(filePath, tempDir);
+    }
+
+    /**
+     * @return 按顺序排列的分片文件，直写模式下为预分配的目标文件
+     */
+    private List<File> chunkFiles(UploadSession session) {
+        String guid = session.getGuid();
+        if (session.isDirect()) {
+            Assert.isTrue(session.isComplete(), "fragment.error.chunk-missing");
+            return Collections.singletonList(fragmentPaths.getDirectDataFile(guid));
+        }
+        // 已声明分片总数时必须全部接收，否则要求分片从 0 开始连续
+        Assert.isTrue(session.getChunkCount() > 0 ? session.isComplete() : session.isContiguous(),
+                "fragment.error.chunk-missing");
+        int chunkCount = session.getReceivedCount();
+        List<File> chunks = new ArrayList<>(chunkCount);
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            chunks.add(fragmentPaths.getChunkFile(guid, chunk));
+        }
+        return chunks;
     }
 
     @Override
-    public String combineUpload(String guid, Long tenantId, String filename, Map<String, String> params) {
-        if (params == null) {
-            params = new HashMap<>(1);
-            params.put("key","value");
+    public String combineUpload(String guid, Long tenantId, String filename, Map<String, String> params,
+                                CombineProgress progress) {
+        FragmentMetrics.TenantMeters meters = fragmentMetrics.tenant(tenantId);
+        long startTime = System.nanoTime();
+        try {
+            String url = combineUploadInternal(guid, tenantId, filename, params, progress);
+            meters.combined(System.nanoTime() - startTime);
+            return url;
+        } catch (RuntimeException e) {
+            meters.combineFailed();
+            throw e;
         }
-        Pair<String, String> pair = combineBlock(guid, filename);
+    }
+
+    private String combineUploadInternal(String guid, Long tenantId, String filename, Map<String, String> params,
+                                         CombineProgress progress) {
+        UploadSession session = uploadSessionRegistry.get(guid);
+        Map<String, String> digests = Collections.emptyMap();
+        if (session != null) {
+            // 分片写盘时已增量计算，这里只补算剩余部分
+            progress.phase(CombineJob.Phase.HASHING);
+            long digestStart = System.nanoTime();
+            digests = digest(session, progress);
+            RequestTrace.record(RequestTrace.current(), RequestTrace.DIGEST, System.nanoTime() - digestStart);
+            verify(session, digests);
+            if (!fragmentConfig.getDedup().isEnabled() && !fileHandlerPipeline.requiresPath()) {
+                return combineVirtually(session, tenantId, filename, params, digests, progress);
+            }
+        }
+        progress.phase(CombineJob.Phase.MERGING);
+        Pair<String, String> pair = combineBlock(guid, filename, progress);
         String filePath = pair.getFirst();
         String tempDtr = pair.getSecond();
+        progress.phase(CombineJob.Phase.PROCESSING);
+        File storeFile = null;
+        String hash = null;
+        long size = 0;
         try {
-            Map<String, FileHandler> map = ApplicationContextHelper.getContext().getBeansOfType(FileHandler.class);
-            String url = null;
-            if (!map.isEmpty()) {
-                for (FileHandler handler : map.values()) {
-                    url = handler.process(tenantId, filename, filePath, new FileInputStream(filePath), params);
+            if (fragmentConfig.getDedup().isEnabled()) {
+                // 保存到文件库，相同内容再次上传时秒传
+                File realFile = new File(filePath);
+                if (!digests.containsKey(SHA256) || !digests.containsKey(MD5)) {
+                    digests = digest(realFile);
                 }
+                hash = digests.get(SHA256);
+                size = realFile.length();
+                storeFile = contentStore.put(hash, digests.get(MD5), size, tenantId, realFile);
+                return process(tenantId, filename, storeFile.getPath(), params, digests, progress);
             }
-            return url;
+            return process(tenantId, filename, filePath, params, digests, progress);
         } catch (Exception ex) {
+            if (storeFile != null) {
+                contentStore.release(hash, size, tenantId);
+            }
             throw new RuntimeException("fragment.error.combine", ex);
         } finally {
             // 删除分片
             deleteFile(tempDtr);
-            // 删除文件
-            deleteFile(filePath);
+            if (storeFile == null) {
+                // 删除文件
+                deleteFile(filePath);
+            }
+        }
+    }
+
+    /**
+     * 处理器均不需要本地文件时跳过合并，直接读取按顺序拼接的分片
+     */
+    private String combineVirtually(UploadSession session, Long tenantId, String filename, Map<String, String> params,
+                                    Map<String, String> digests, CombineProgress progress) {
+        String guid = session.getGuid();
+        ConcatenatedFile file = ConcatenatedFile.of(chunkFiles(session));
+        logger.info("file combined without merging, filename : {}, MD5 : {}, size : {}", filename, guid, file.size());
+        progress.phase(CombineJob.Phase.PROCESSING);
+        try {
+            return process(tenantId, filename, file, params, digests, progress);
+        } catch (Exception ex) {
+            throw new RuntimeException("fragment.error.combine", ex);
+        } finally {
+            uploadSessionRegistry.remove(guid);
+            // 删除分片
+            deleteFile(fragmentPaths.getTempDir(guid).getPath());
+        }
+    }
+
+    @Override
+    public String instantUpload(String hash, Long size, Long tenantId, String filename, Map<String, String> params) {
+        if (!fragmentConfig.getDedup().isEnabled() || hash == null || size == null) {
+            return null;
+        }
+        hash = hash.toLowerCase();
+        File storeFile = contentStore.retain(hash, size, tenantId);
+        if (storeFile == null) {
+            return null;
+        }
+        fragmentMetrics.tenant(tenantId).dedupHit();
+        logger.info("file uploaded instantly, filename : {}, hash : {}, size : {}", filename, hash, size);
+        try {
+            return process(tenantId, filename, storeFile.getPath(), params,
+                    Collections.singletonMap(hash.length() == 32 ? MD5 : SHA256, hash), CombineProgress.NONE);
+        } catch (Exception ex) {
+            contentStore.release(hash, size, tenantId);
+            throw new RuntimeException("fragment.error.combine", ex);
         }
     }
 
+    /**
+     * 调用文件处理器，整个文件的摘要以算法名（如 md5、sha-256）为键放入参数
+     */
+    private String process(Long tenantId, String filename, String filePath, Map<String, String> params,
+                           Map<String, String> digests, CombineProgress progress) throws IOException {
+        return firstUrl(fileHandlerPipeline.process(tenantId, filename, filePath, params(params, digests), progress));
+    }
+
+    private String process(Long tenantId, String filename, ConcatenatedFile file, Map<String, String> params,
+                           Map<String, String> digests, CombineProgress progress) throws IOException {
+        return firstUrl(fileHandlerPipeline.process(tenantId, filename, file, params(params, digests), progress));
+    }
+
+    private static Map<String, String> params(Map<String, String> params, Map<String, String> digests) {
+        if (params == null) {
+            params = new HashMap<>(1);
+            params.put("key","value");
+        }
+        if (!digests.isEmpty()) {
+            params = new HashMap<>(params);
+            params.putAll(digests);
+        }
+        return params;
+    }
+
+    /**
+     * 多个处理器返回url时取顺序最靠前的，全部结果记录在合并任务中
+     */
+    private static String firstUrl(List<HandlerResult> results) {
+        for (HandlerResult result : results) {
+            if (result.getUrl() != null) {
+                return result.getUrl();
+            }
+        }
+        return null;
+    }
+
     /**
      * 删除文件
      *
@@ -148,7 +942,11 @@ public class FragmentServiceImpl implements FragmentService {
      */
     private void deleteFile(String path) {
         try {
-            FileUtils.deleteDirectory(new File(path));
+            File file = new File(path);
+            if (file.exists()) {
+                // 分片目录或合并后的文件
+                FileUtils.forceDelete(file);
+            }
         } catch (Exception e) {
             logger.error("Delete file error! file path : {}", path);
         }
@@ -0,0 +1,239 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.config.FragmentExecutors;
+import com.wx.springboot.domain.CombineJob;
+import com.wx.springboot.service.ProgressStreamService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 合并进度推送
+ * <p>
+ * 字节进度只标记为待推送，由单个调度线程按 progressInterval 合并推送；状态和阶段变化立即提交给调度线程推送。
+ * 调度线程只把最新的任务状态交给各个连接，写连接在发送线程池中按连接分别执行：每个连接同时只有一次发送，
+ * 发送期间的新状态只保留最新一个；一次发送超过 progressSendTimeout 的连接被断开，慢客户端不会拖慢其他连接和合并线程
+ */
+@Service
+public class ProgressStreamServiceImpl implements ProgressStreamService, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProgressStreamServiceImpl.class);
+
+    @Autowired
+    private FragmentConfig fragmentConfig;
+    @Autowired
+    private FragmentExecutors fragmentExecutors;
+
+    private final ConcurrentMap<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private volatile ScheduledExecutorService scheduler;
+    private volatile ExecutorService sender;
+
+    @Override
+    public SseEmitter subscribe(String guid, Long tenantId, CombineJob current) {
+        SseEmitter emitter = new SseEmitter(fragmentConfig.getCombine().getProgressTimeout().toMillis());
+        Subscription subscription = subscriptions.computeIfAbsent(key(guid, tenantId), Subscription::new);
+        Channel channel = new Channel(emitter);
+        subscription.channels.add(channel);
+        Runnable remove = () -> remove(subscription, channel);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+        if (current != null) {
+            subscription.job = current;
+        }
+        ScheduledExecutorService executor = getScheduler();
+        if (subscription.job != null) {
+            executor.execute(() -> flush(subscription));
+        }
+        return emitter;
+    }
+
+    @Override
+    public void changed(CombineJob job, boolean important) {
+        Subscription subscription = subscriptions.get(key(job.getGuid(), job.getTenantId()));
+        if (subscription == null) {
+            return;
+        }
+        subscription.job = job;
+        subscription.dirty = true;
+        if (important) {
+            getScheduler().execute(() -> flush(subscription));
+        }
+    }
+
+    /**
+     * 订阅按租户区分，其他租户的同一文件的任务不推送
+     */
+    private static String key(String guid, Long tenantId) {
+        return tenantId + ":" + guid;
+    }
+
+    private void flush(Subscription subscription) {
+        CombineJob job = subscription.job;
+        if (job == null) {
+            return;
+        }
+        subscription.dirty = false;
+        long sendTimeout = fragmentConfig.getCombine().getProgressSendTimeout().toNanos();
+        long now = System.nanoTime();
+        for (Channel channel : subscription.channels) {
+            long sendStart = channel.sendStart;
+            if (sendStart != 0 && now - sendStart > sendTimeout) {
+                drop(subscription, channel);
+                continue;
+            }
+            // 未发出的旧状态直接被替换
+            channel.pending.set(job);
+            schedule(subscription, channel);
+        }
+    }
+
+    private void schedule(Subscription subscription, Channel channel) {
+        if (channel.sending.compareAndSet(false, true)) {
+            try {
+                sender.execute(() -> drain(subscription, channel));
+            } catch (RejectedExecutionException e) {
+                // 服务关闭中
+                channel.sending.set(false);
+            }
+        }
+    }
+
+    /**
+     * 在发送线程中发送连接的最新状态，直到没有新状态
+     */
+    private void drain(Subscription subscription, Channel channel) {
+        CombineJob job;
+        while ((job = channel.pending.getAndSet(null)) != null) {
+            channel.sendStart = System.nanoTime();
+            try {
+                channel.emitter.send(SseEmitter.event().name(EVENT_NAME).data(job, MediaType.APPLICATION_JSON));
+                if (job.isFinished()) {
+                    channel.emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // 客户端已断开
+                remove(subscription, channel);
+            } finally {
+                channel.sendStart = 0;
+            }
+        }
+        channel.sending.set(false);
+        // 释放标记前到达的新状态
+        if (channel.pending.get() != null) {
+            schedule(subscription, channel);
+        }
+    }
+
+    /**
+     * 断开慢客户端，关闭连接会等待正在进行的发送，放到发送线程中执行
+     */
+    private void drop(Subscription subscription, Channel channel) {
+        remove(subscription, channel);
+        channel.pending.set(null);
+        logger.warn("Drop slow combine progress subscriber! subscription : {}", subscription.key);
+        try {
+            sender.execute(channel.emitter::complete);
+        } catch (RejectedExecutionException e) {
+            // 服务关闭中
+        }
+    }
+
+    private void flushDirty() {
+        for (Subscription subscription : subscriptions.values()) {
+            if (subscription.dirty) {
+                try {
+                    flush(subscription);
+                } catch (RuntimeException e) {
+                    logger.warn("Push combine progress error! subscription : {}", subscription.key, e);
+                }
+            }
+        }
+    }
+
+    private void remove(Subscription subscription, Channel channel) {
+        subscription.channels.remove(channel);
+        if (subscription.channels.isEmpty()) {
+            subscriptions.remove(subscription.key, subscription);
+        }
+    }
+
+    private ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            synchronized (this) {
+                if (scheduler == null) {
+                    long interval = Math.max(1, fragmentConfig.getCombine().getProgressInterval().toMillis());
+                    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "fragment-progress");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.scheduleWithFixedDelay(this::flushDirty, interval, interval, TimeUnit.MILLISECONDS);
+                    sender = fragmentExecutors.newCachedExecutor("fragment-progress-send");
+                    scheduler = executor;
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            sender.shutdownNow();
+        }
+    }
+
+    /**
+     * 同一个文件的全部订阅
+     */
+    private static class Subscription {
+
+        private final String key;
+        private final List<Channel> channels = new CopyOnWriteArrayList<>();
+        private volatile CombineJob job;
+        private volatile boolean dirty;
+
+        Subscription(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 一个推送连接，待发送的状态最多保留一个
+     */
+    private static class Channel {
+
+        private final SseEmitter emitter;
+        private final AtomicReference<CombineJob> pending = new AtomicReference<>();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        /**
+         * 当前发送的开始时间，未在发送时为 0
+         */
+        private volatile long sendStart;
+
+        Channel(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.domain.RequestTrace;
+import com.wx.springboot.service.RequestTraceService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * 请求跟踪
+ */
+@Service
+public class RequestTraceServiceImpl implements RequestTraceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestTraceServiceImpl.class);
+
+    /**
+     * 请求ID会写入日志，禁止换行等字符
+     */
+    private static final Pattern REQUEST_ID_PATTERN = Pattern.compile("[A-Za-z0-9._:-]{1,64}");
+
+    @Autowired
+    private FragmentConfig fragmentConfig;
+
+    private final Deque<RequestTrace> slowTraces = new ArrayDeque<>();
+
+    @Override
+    public RequestTrace start(String requestId, String method, String uri) {
+        if (requestId == null || !REQUEST_ID_PATTERN.matcher(requestId).matches()) {
+            requestId = UUID.randomUUID().toString().replace("-", "");
+        }
+        return new RequestTrace(requestId, method, uri);
+    }
+
+    @Override
+    public void finish(RequestTrace trace, int status) {
+        trace.finish(status);
+        FragmentConfig.Trace config = fragmentConfig.getTrace();
+        if (trace.getTotalNanos() < config.getSlowThreshold().toNanos()) {
+            return;
+        }
+        logger.warn("slow request {}", trace);
+        synchronized (slowTraces) {
+            slowTraces.addFirst(trace);
+            while (slowTraces.size() > Math.max(0, config.getSlowCapacity())) {
+                slowTraces.removeLast();
+            }
+        }
+    }
+
+    @Override
+    public List<RequestTrace> slowTraces() {
+        synchronized (slowTraces) {
+            return new ArrayList<>(slowTraces);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.config.FragmentMetrics;
+import com.wx.springboot.config.TokenBucket;
+import com.wx.springboot.config.UploadRejectedException;
+import com.wx.springboot.domain.UploadSession;
+import com.wx.springboot.service.TenantLimitService;
+import com.wx.springboot.service.UploadSessionRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 租户限流
+ * <p>
+ * 每个租户一个状态对象，热点路径上只有一次 Map 查找和令牌桶的一次 CAS，不加锁；
+ * 会话数按 refreshInterval 从会话注册表统计，两次统计之间新建的会话累加到 pending
+ */
+@Service
+public class TenantLimitServiceImpl implements TenantLimitService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TenantLimitServiceImpl.class);
+
+    private static final long UNKNOWN = -1;
+
+    @Autowired
+    private FragmentConfig fragmentConfig;
+    @Autowired
+    private UploadSessionRegistry uploadSessionRegistry;
+    @Autowired
+    private FragmentMetrics fragmentMetrics;
+
+    private final ConcurrentMap<Long, TenantState> tenants = new ConcurrentHashMap<>();
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile long refreshedAt = UNKNOWN;
+
+    @Override
+    public long admitRequest(Long tenantId, long bytes) {
+        TenantState state = state(tenantId);
+        if (state == null) {
+            return 0;
+        }
+        // 预扣后同时到达的请求看到的是已扣减的余额，不会全部放行
+        long reserved = 0;
+        if (state.bytes != null) {
+            if (!state.bytes.tryConsume(bytes)) {
+                reject(tenantId, "bytes", state.bytes.waitNanos(0));
+            }
+            reserved = bytes;
+        }
+        if (state.requests != null && !state.requests.tryAcquire(1)) {
+            refundBytes(tenantId, reserved);
+            reject(tenantId, "requests", state.requests.waitNanos(1));
+        }
+        return reserved;
+    }
+
+    @Override
+    public void consumeBytes(Long tenantId, long bytes) {
+        TenantState state = state(tenantId);
+        if (state != null && state.bytes != null && bytes > 0) {
+            state.bytes.consume(bytes);
+        }
+    }
+
+    @Override
+    public void refundBytes(Long tenantId, long bytes) {
+        TenantState state = state(tenantId);
+        if (state != null && state.bytes != null && bytes > 0) {
+            state.bytes.refund(bytes);
+        }
+    }
+
+    @Override
+    public void admitSession(Long tenantId) {
+        TenantState state = state(tenantId);
+        if (state == null || state.limit.getMaxSessions() <= 0) {
+            return;
+        }
+        refreshSessions();
+        if (state.sessions + state.pendingSessions.incrementAndGet() > state.limit.getMaxSessions()) {
+            state.pendingSessions.decrementAndGet();
+            reject(tenantId, "sessions", UNKNOWN);
+        }
+    }
+
+    @Override
+    public void acquireCombine(Long tenantId) {
+        TenantState state = state(tenantId);
+        if (state == null) {
+            return;
+        }
+        int max = state.limit.getMaxCombines();
+        if (state.combines.incrementAndGet() > max && max > 0) {
+            state.combines.decrementAndGet();
+            reject(tenantId, "combines", UNKNOWN);
+        }
+    }
+
+    @Override
+    public void releaseCombine(Long tenantId) {
+        TenantState state = state(tenantId);
+        if (state != null) {
+            state.combines.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return 租户状态，未指定租户时返回 null
+     */
+    private TenantState state(Long tenantId) {
+        if (tenantId == null) {
+            return null;
+        }
+        TenantState state = tenants.get(tenantId);
+        if (state != null) {
+            return state;
+        }
+        return tenants.computeIfAbsent(tenantId, key -> new TenantState(fragmentConfig.getTenantLimits().of(key)));
+    }
+
+    /**
+     * @param waitNanos 令牌补足需要的时间，未知时为 -1
+     */
+    private void reject(Long tenantId, String reason, long waitNanos) {
+        fragmentMetrics.tenant(tenantId).rejected(reason);
+        logger.debug("tenant {} exceeds {} limit", tenantId, reason);
+        long retryAfter = waitNanos < 0 ? fragmentConfig.getTenantLimits().getRetryAfter().getSeconds()
+                : (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+        throw new UploadRejectedException("fragment.error.tenant-limit", HttpStatus.TOO_MANY_REQUESTS, Math.max(1, retryAfter));
+    }
+
+    private void refreshSessions() {
+        long now = System.nanoTime();
+        long last = refreshedAt;
+        if (last != UNKNOWN && now - last < fragmentConfig.getTenantLimits().getRefreshInterval().toNanos()) {
+            return;
+        }
+        if (!refreshLock.tryLock()) {
+            return;
+        }
+        try {
+            // 先清零再统计，统计期间新建的会话最多被重复计算一次
+            tenants.values().forEach(state -> state.pendingSessions.set(0));
+            Map<Long, Integer> counts = new HashMap<>();
+            for (UploadSession session : uploadSessionRegistry.sessions()) {
+                Long tenantId = session.getTenantId();
+                if (tenantId != null) {
+                    counts.merge(tenantId, 1, Integer::sum);
+                }
+            }
+            tenants.forEach((tenantId, state) -> state.sessions = counts.getOrDefault(tenantId, 0));
+            refreshedAt = System.nanoTime();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private static class TenantState {
+
+        private final FragmentConfig.TenantLimit limit;
+        private final TokenBucket requests;
+        private final TokenBucket bytes;
+        private final AtomicInteger pendingSessions = new AtomicInteger();
+        private final AtomicInteger combines = new AtomicInteger();
+        private volatile int sessions;
+
+        TenantState(FragmentConfig.TenantLimit limit) {
+            this.limit = limit;
+            long burst = limit.getBurst().toNanos();
+            this.requests = limit.getRequestsPerSecond() > 0 ? new TokenBucket(limit.getRequestsPerSecond(), burst) : null;
+            this.bytes = limit.getBytesPerSecond() > 0 ? new TokenBucket(limit.getBytesPerSecond(), burst) : null;
+        }
+    }
+}
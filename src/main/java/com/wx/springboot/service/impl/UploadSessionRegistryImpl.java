@@ -0,0 +1,432 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.BaseConstants;
+import com.wx.springboot.config.FragmentPaths;
+import com.wx.springboot.domain.UploadSession;
+import com.wx.springboot.service.UploadSessionRegistry;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 上传会话注册表
+ * <p>
+ * 会话持久化为 .meta 和 .journal：直写模式创建时写入 .meta，日志记录已接收的分片编号；
+ * 分片模式创建时在 .meta 中记录所有者租户，声明文件大小后补充大小和分片数，日志记录分片编号和长度，恢复时长度与分片文件不一致的分片（如写入中途停机）视为未接收。
+ * 没有日志的分片模式目录由旧版本创建，恢复时列一次目录
+ */
+@Component
+public class UploadSessionRegistryImpl implements UploadSessionRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionRegistryImpl.class);
+
+    private static final String META_TOTAL_SIZE = "totalSize";
+    private static final String META_CHUNK_SIZE = "chunkSize";
+    private static final String META_TENANT_ID = "tenantId";
+    private static final String META_FILE_NAME = "fileName";
+    private static final String META_CHUNK_COUNT = "chunkCount";
+    private static final String META_MODE = "mode";
+    /**
+     * 旧版本只有直写模式写入 .meta，没有 mode 时为直写模式
+     */
+    private static final String MODE_CHUNKED = "chunked";
+    /**
+     * 分片模式日志记录：分片编号（int）和长度（long）
+     */
+    private static final int CHUNKED_RECORD_BYTES = Integer.BYTES + Long.BYTES;
+    /**
+     * 已知不存在的 guid 最多记录的个数
+     */
+    private static final int MISSING_CAPACITY = 10000;
+
+    @Autowired
+    private FragmentPaths fragmentPaths;
+
+    private final ConcurrentMap<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    /**
+     * 磁盘上不存在的 guid（未上传过或已合并），轮询时不再访问磁盘；按访问顺序淘汰，会话创建时移除
+     */
+    private final Map<String, Boolean> missing = Collections.synchronizedMap(
+            new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MISSING_CAPACITY;
+                }
+            });
+    /**
+     * 启动扫描到、尚未加载到内存的会话，在 sessions 的 compute 中增删，与恢复互斥
+     */
+    private final ConcurrentMap<String, UploadSession> unloaded = new ConcurrentHashMap<>();
+
+    @Override
+    public UploadSession get(String guid) {
+        UploadSession session = sessions.get(guid);
+        if (session != null || missing.containsKey(guid)) {
+            return session;
+        }
+        session = sessions.computeIfAbsent(guid, this::restore);
+        if (session == null) {
+            missing.put(guid, Boolean.TRUE);
+        }
+        return session;
+    }
+
+    @Override
+    public UploadSession getOrCreate(String guid, Long tenantId) {
+        UploadSession session = sessions.get(guid);
+        if (session != null) {
+            return session;
+        }
+        missing.remove(guid);
+        return sessions.computeIfAbsent(guid, key -> {
+            UploadSession restored = restore(key);
+            if (restored != null) {
+                return restored;
+            }
+            try {
+                // 空日志表示按新格式记录，恢复时不再列目录
+                FileUtils.forceMkdir(fragmentPaths.getTempDir(key));
+                FileUtils.touch(fragmentPaths.getJournalFile(key));
+                if (tenantId != null) {
+                    Properties meta = new Properties();
+                    meta.setProperty(META_MODE, MODE_CHUNKED);
+                    meta.setProperty(META_TENANT_ID, String.valueOf(tenantId));
+                    writeMeta(key, meta);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
+            }
+            UploadSession created = UploadSession.chunked(key);
+            created.describe(tenantId, null);
+            return created;
+        });
+    }
+
+    @Override
+    public UploadSession createDirect(String guid, Long tenantId, String fileName, long totalSize, long chunkSize) {
+        UploadSession session = get(guid);
+        if (session != null) {
+            return session;
+        }
+        missing.remove(guid);
+        return sessions.computeIfAbsent(guid, key -> {
+            try {
+                FileUtils.forceMkdir(fragmentPaths.getTempDir(key));
+                // 预分配目标文件
+                try (RandomAccessFile data = new RandomAccessFile(fragmentPaths.getDirectDataFile(key), "rw")) {
+                    data.setLength(totalSize);
+                }
+                Properties meta = newMeta(totalSize, tenantId, fileName);
+                meta.setProperty(META_CHUNK_SIZE, String.valueOf(chunkSize));
+                writeMeta(key, meta);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            UploadSession created = UploadSession.direct(key, totalSize, chunkSize);
+            created.describe(tenantId, fileName);
+            return created;
+        });
+    }
+
+    @Override
+    public void declare(UploadSession session, Long tenantId, String fileName, long totalSize, int chunkCount) {
+        session.describe(tenantId, fileName);
+        if (!session.declare(totalSize, chunkCount)) {
+            return;
+        }
+        Properties meta = newMeta(totalSize, session.getTenantId(), session.getFileName());
+        meta.setProperty(META_MODE, MODE_CHUNKED);
+        meta.setProperty(META_CHUNK_COUNT, String.valueOf(chunkCount));
+        try {
+            FileUtils.forceMkdir(fragmentPaths.getTempDir(session.getGuid()));
+            writeMeta(session.getGuid(), meta);
+        } catch (IOException e) {
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
+        }
+    }
+
+    @Override
+    public boolean chunkReceived(UploadSession session, int chunk, long length) {
+        boolean first = session.markReceived(chunk, length);
+        if (!session.isDirect()) {
+            // 重传的分片长度可能变化，每次都记录
+            appendJournal(session.getGuid(), ByteBuffer.allocate(CHUNKED_RECORD_BYTES).putInt(chunk).putLong(length));
+        } else if (first) {
+            appendJournal(session.getGuid(), ByteBuffer.allocate(Integer.BYTES).putInt(chunk));
+        }
+        return first;
+    }
+
+    @Override
+    public void chunkDiscarded(UploadSession session, int chunk) {
+        if (!session.unmarkReceived(chunk)) {
+            return;
+        }
+        // 负数（按位取反）表示该分片作废
+        if (session.isDirect()) {
+            appendJournal(session.getGuid(), ByteBuffer.allocate(Integer.BYTES).putInt(~chunk));
+        } else {
+            appendJournal(session.getGuid(), ByteBuffer.allocate(CHUNKED_RECORD_BYTES).putInt(~chunk).putLong(0));
+        }
+    }
+
+    @Override
+    public void remove(String guid) {
+        sessions.remove(guid);
+    }
+
+    @Override
+    public File expire(String guid, long expireBefore) {
+        File[] trash = new File[1];
+        // 在 compute 中改名，期间同一 guid 的获取和恢复会等待，不会读到改名前的目录
+        sessions.compute(guid, (key, session) -> {
+            UploadSession current = session == null ? restore(key) : session;
+            if (current != null && !current.expire(expireBefore)) {
+                return current;
+            }
+            File tempDir = fragmentPaths.getTempDir(key);
+            File target = new File(tempDir.getParentFile(),
+                    FragmentPaths.TRASH_PREFIX + key + "-" + System.currentTimeMillis());
+            if (tempDir.renameTo(target)) {
+                trash[0] = target;
+                missing.put(key, Boolean.TRUE);
+            }
+            return null;
+        });
+        return trash[0];
+    }
+
+    @Override
+    public Collection<UploadSession> sessions() {
+        return Collections.unmodifiableCollection(sessions.values());
+    }
+
+    @Override
+    public void scanned(String guid) {
+        UploadSession declared;
+        try {
+            Properties meta = readMeta(guid);
+            if (meta == null) {
+                return;
+            }
+            if (!MODE_CHUNKED.equals(meta.getProperty(META_MODE))) {
+                declared = UploadSession.direct(guid, Long.parseLong(meta.getProperty(META_TOTAL_SIZE)),
+                        Long.parseLong(meta.getProperty(META_CHUNK_SIZE)));
+            } else if (meta.getProperty(META_CHUNK_COUNT) != null) {
+                declared = UploadSession.chunked(guid);
+                declared.declare(Long.parseLong(meta.getProperty(META_TOTAL_SIZE)),
+                        Integer.parseInt(meta.getProperty(META_CHUNK_COUNT)));
+            } else {
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            // 不是上传产生的目录或 .meta 已损坏，恢复时再处理
+            logger.debug("Read upload session meta error! guid : {}", guid, e);
+            return;
+        }
+        sessions.compute(guid, (key, session) -> {
+            if (session == null) {
+                unloaded.put(key, declared);
+            }
+            return session;
+        });
+    }
+
+    @Override
+    public Collection<UploadSession> unloaded() {
+        return Collections.unmodifiableCollection(unloaded.values());
+    }
+
+    private void appendJournal(String guid, ByteBuffer record) {
+        record.flip();
+        try (FileChannel journal = FileChannel.open(fragmentPaths.getJournalFile(guid).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                journal.write(record);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(BaseConstants.ErrorCode.ERROR, e);
+        }
+    }
+
+    private static Properties newMeta(long totalSize, Long tenantId, String fileName) {
+        Properties meta = new Properties();
+        meta.setProperty(META_TOTAL_SIZE, String.valueOf(totalSize));
+        if (tenantId != null) {
+            meta.setProperty(META_TENANT_ID, String.valueOf(tenantId));
+        }
+        if (fileName != null) {
+            meta.setProperty(META_FILE_NAME, fileName);
+        }
+        return meta;
+    }
+
+    /**
+     * 先写临时文件再改名，停机时不会留下写了一半的 .meta
+     */
+    private void writeMeta(String guid, Properties meta) throws IOException {
+        File metaFile = fragmentPaths.getMetaFile(guid);
+        File tmp = new File(metaFile.getParentFile(), metaFile.getName() + ".tmp");
+        try (OutputStream os = new FileOutputStream(tmp)) {
+            meta.store(os, guid);
+        }
+        Files.move(tmp.toPath(), metaFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 从临时目录恢复会话
+     *
+     * @param guid 当前文件的MD5值
+     * @return 临时目录不存在时返回 null
+     */
+    private UploadSession restore(String guid) {
+        unloaded.remove(guid);
+        File tempDir = fragmentPaths.getTempDir(guid);
+        File journal = fragmentPaths.getJournalFile(guid);
+        try {
+            Properties meta = readMeta(guid);
+            UploadSession session;
+            if (meta != null && !MODE_CHUNKED.equals(meta.getProperty(META_MODE))) {
+                session = restoreDirect(guid, meta, journal);
+            } else if (meta != null || journal.exists()) {
+                session = restoreChunked(guid, meta, journal);
+            } else {
+                session = restoreLegacy(guid, tempDir);
+                if (session == null) {
+                    return null;
+                }
+            }
+            // 追加日志不会更新目录的修改时间
+            session.setLastActivityTime(Math.max(tempDir.lastModified(), journal.lastModified()));
+            return session;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Load upload session error! guid : {}", guid, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return .meta 不存在时返回 null
+     */
+    private Properties readMeta(String guid) throws IOException {
+        File metaFile = fragmentPaths.getMetaFile(guid);
+        if (!metaFile.exists()) {
+            return null;
+        }
+        Properties meta = new Properties();
+        try (InputStream is = new FileInputStream(metaFile)) {
+            meta.load(is);
+        }
+        return meta;
+    }
+
+    private UploadSession restoreDirect(String guid, Properties meta, File journal) throws IOException {
+        UploadSession session = UploadSession.direct(guid, Long.parseLong(meta.getProperty(META_TOTAL_SIZE)),
+                Long.parseLong(meta.getProperty(META_CHUNK_SIZE)));
+        describe(session, meta);
+        if (journal.exists()) {
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+                // 日志末尾可能有未写完整的记录，忽略即可
+                for (long i = journal.length() / Integer.BYTES; i > 0; i--) {
+                    int record = dis.readInt();
+                    if (record < 0 && session.isValidChunk(~record)) {
+                        session.unmarkReceived(~record);
+                    } else if (session.isValidChunk(record)) {
+                        session.markReceived(record, session.expectedLength(record));
+                    }
+                }
+            }
+        }
+        return session;
+    }
+
+    /**
+     * 按日志恢复分片模式会话，分片文件长度与日志记录的长度一致才视为已接收
+     */
+    private UploadSession restoreChunked(String guid, Properties meta, File journal) throws IOException {
+        UploadSession session = UploadSession.chunked(guid);
+        if (meta != null) {
+            // 未声明文件大小时 .meta 只记录所有者租户
+            if (meta.getProperty(META_CHUNK_COUNT) != null) {
+                session.declare(Long.parseLong(meta.getProperty(META_TOTAL_SIZE)),
+                        Integer.parseInt(meta.getProperty(META_CHUNK_COUNT)));
+            }
+            describe(session, meta);
+        }
+        Map<Integer, Long> lengths = new TreeMap<>();
+        if (journal.exists()) {
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+                // 日志末尾可能有未写完整的记录，忽略即可
+                for (long i = journal.length() / CHUNKED_RECORD_BYTES; i > 0; i--) {
+                    int record = dis.readInt();
+                    long length = dis.readLong();
+                    if (record < 0) {
+                        lengths.remove(~record);
+                    } else {
+                        lengths.put(record, length);
+                    }
+                }
+            }
+        }
+        lengths.forEach((chunk, length) -> {
+            File chunkFile = fragmentPaths.getChunkFile(guid, chunk);
+            if (session.isValidChunk(chunk) && chunkFile.isFile() && chunkFile.length() == length) {
+                session.markReceived(chunk, length);
+            } else {
+                logger.warn("Discard incomplete chunk! guid : {}, chunk : {}, expected length : {}, actual length : {}",
+                        guid, chunk, length, chunkFile.length());
+                FileUtils.deleteQuietly(chunkFile);
+            }
+        });
+        return session;
+    }
+
+    /**
+     * 旧版本的分片模式目录没有日志，按分片文件恢复
+     *
+     * @return 临时目录不存在时返回 null
+     */
+    private UploadSession restoreLegacy(String guid, File tempDir) {
+        File[] chunks = tempDir.listFiles(FragmentPaths::isChunkFile);
+        if (chunks == null) {
+            return null;
+        }
+        UploadSession session = UploadSession.chunked(guid);
+        for (File chunk : chunks) {
+            session.markReceived(Integer.parseInt(chunk.getName()), chunk.length());
+        }
+        return session;
+    }
+
+    private static void describe(UploadSession session, Properties meta) {
+        String tenantId = meta.getProperty(META_TENANT_ID);
+        session.describe(tenantId == null ? null : Long.valueOf(tenantId), meta.getProperty(META_FILE_NAME));
+    }
+}
@@ -0,0 +1,215 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.config.FragmentExecutors;
+import com.wx.springboot.config.FragmentMetrics;
+import com.wx.springboot.config.FragmentPaths;
+import com.wx.springboot.domain.CombineJob;
+import com.wx.springboot.domain.UploadSession;
+import com.wx.springboot.service.CombineJobService;
+import com.wx.springboot.service.UploadSessionRegistry;
+import com.wx.springboot.service.UploadSweepService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 过期上传清理
+ * <p>
+ * 内存中的会话按最后活动时间判断；未加载到内存的临时目录（如服务重启前遗留的）在启动时扫描一次，
+ * 只读取目录本身和 .journal 的修改时间，不逐个读取分片文件；同时把 .meta 声明的大小登记到注册表，供磁盘准入预留空间。
+ * 关闭清理时仍在启动时扫描一次。
+ * 过期目录先改名为 .trash-{guid}-{时间戳} 再删除，删除期间同一 guid 的新上传使用新的目录
+ */
+@Service
+public class UploadSweepServiceImpl implements UploadSweepService, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSweepServiceImpl.class);
+
+    @Autowired
+    private FragmentConfig fragmentConfig;
+    @Autowired
+    private FragmentPaths fragmentPaths;
+    @Autowired
+    private UploadSessionRegistry uploadSessionRegistry;
+    @Autowired
+    private CombineJobService combineJobService;
+    @Autowired
+    private FragmentExecutors fragmentExecutors;
+    @Autowired
+    private FragmentMetrics fragmentMetrics;
+
+    /**
+     * 启动扫描得到的、未加载到内存的临时目录：guid -> 最后修改时间
+     */
+    private final ConcurrentMap<String, Long> unloaded = new ConcurrentHashMap<>();
+    private volatile ScheduledExecutorService scheduler;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        FragmentConfig.Sweep sweep = fragmentConfig.getSweep();
+        if (!sweep.isEnabled() && !fragmentConfig.getDisk().isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            if (scheduler != null) {
+                return;
+            }
+            scheduler = Executors.newSingleThreadScheduledExecutor(fragmentExecutors.threadFactory("fragment-sweep"));
+        }
+        long interval = Math.max(1, sweep.getInterval().toMillis());
+        scheduler.execute(this::scan);
+        if (!sweep.isEnabled()) {
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                logger.error("Sweep upload error!", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long sweep() {
+        long start = System.currentTimeMillis();
+        long expireBefore = start - fragmentConfig.getSweep().getTtl().toMillis();
+        Set<String> expired = new LinkedHashSet<>();
+        for (UploadSession session : uploadSessionRegistry.sessions()) {
+            if (session.getLastActivityTime() < expireBefore) {
+                expired.add(session.getGuid());
+            }
+        }
+        unloaded.forEach((guid, lastModified) -> {
+            if (lastModified < expireBefore) {
+                expired.add(guid);
+            }
+        });
+        int sessions = 0;
+        long reclaimed = 0;
+        for (String guid : expired) {
+            long bytes = expire(guid, expireBefore);
+            if (bytes >= 0) {
+                sessions++;
+                reclaimed += bytes;
+                fragmentMetrics.swept(bytes);
+            }
+        }
+        if (sessions > 0) {
+            logger.info("sweep expired uploads : {}, reclaimed : {} bytes, cost : {}ms",
+                    sessions, reclaimed, System.currentTimeMillis() - start);
+        }
+        return reclaimed;
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 启动时扫描临时目录，并删除上次未删完的 .trash 目录
+     */
+    private void scan() {
+        long start = System.currentTimeMillis();
+        // 只读取目录属性，并行以减少网络文件系统上的往返等待
+        List<File> dirs = fragmentPaths.getTempShards().parallelStream()
+                .map(shard -> shard.listFiles(File::isDirectory))
+                .filter(Objects::nonNull)
+                .flatMap(Arrays::stream)
+                .collect(Collectors.toList());
+        dirs.parallelStream()
+                .filter(dir -> !FragmentPaths.isTrash(dir))
+                .forEach(dir -> {
+                    unloaded.put(dir.getName(),
+                            Math.max(dir.lastModified(), new File(dir, FragmentPaths.JOURNAL).lastModified()));
+                    uploadSessionRegistry.scanned(dir.getName());
+                });
+        long reclaimed = 0;
+        for (File dir : dirs) {
+            if (FragmentPaths.isTrash(dir)) {
+                reclaimed += delete(dir);
+            }
+        }
+        logger.info("scan temp dirs : {}, reclaimed : {} bytes, cost : {}ms",
+                dirs.size(), reclaimed, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return 回收的字节数，会话仍有效时返回 -1
+     */
+    private long expire(String guid, long expireBefore) {
+        unloaded.remove(guid);
+        CombineJob job = combineJobService.get(guid);
+        if (job != null && !job.isFinished()) {
+            return -1;
+        }
+        try {
+            fragmentPaths.getTempDir(guid);
+        } catch (IllegalArgumentException e) {
+            // 不是上传产生的目录
+            return -1;
+        }
+        // 有分片正在写入或已重新开始上传时不清理
+        File trash = uploadSessionRegistry.expire(guid, expireBefore);
+        if (trash == null) {
+            // 仍在使用或已合并删除
+            return -1;
+        }
+        return delete(trash);
+    }
+
+    /**
+     * 分批删除目录下的文件
+     *
+     * @return 删除的字节数
+     */
+    private long delete(File dir) {
+        FragmentConfig.Sweep sweep = fragmentConfig.getSweep();
+        int batchSize = Math.max(1, sweep.getBatchSize());
+        long pause = sweep.getBatchPause().toMillis();
+        File[] files = dir.listFiles();
+        long bytes = 0;
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                long length = files[i].length();
+                if (files[i].delete()) {
+                    bytes += length;
+                }
+                if (pause > 0 && (i + 1) % batchSize == 0 && i + 1 < files.length) {
+                    try {
+                        Thread.sleep(pause);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return bytes;
+                    }
+                }
+            }
+        }
+        if (!dir.delete()) {
+            logger.warn("Delete file error! file path : {}", dir.getPath());
+        }
+        return bytes;
+    }
+}
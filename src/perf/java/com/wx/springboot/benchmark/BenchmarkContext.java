@@ -0,0 +1,67 @@
+package com.wx.springboot.benchmark;
+
+import com.wx.springboot.SpringbootApplication;
+
+import org.apache.commons.io.FileUtils;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基准测试使用的应用上下文：不启动 Web 容器，文件写入临时目录，日志只输出 WARN 以上
+ * <p>
+ * 临时目录默认在 java.io.tmpdir 下，可通过 -Dfragment.benchmark.dir 指定到待测磁盘
+ */
+final class BenchmarkContext implements Closeable {
+
+    private final File root;
+    private final ConfigurableApplicationContext context;
+
+    private BenchmarkContext(File root, ConfigurableApplicationContext context) {
+        this.root = root;
+        this.context = context;
+    }
+
+    /**
+     * @param properties 额外的配置，如 hzero.file.merge.strategy=STREAM
+     */
+    static BenchmarkContext start(String... properties) throws IOException {
+        String dir = System.getProperty("fragment.benchmark.dir");
+        File root = dir == null ? Files.createTempDirectory("fragment-benchmark").toFile()
+                : Files.createTempDirectory(new File(dir).toPath(), "fragment-benchmark").toFile();
+        List<String> all = new ArrayList<>(Arrays.asList(properties));
+        all.add("hzero.file.root-path=" + root.getPath());
+        all.add("hzero.file.combine.auto=false");
+        all.add("hzero.file.sweep.enabled=false");
+        all.add("logging.level.root=WARN");
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(SpringbootApplication.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .properties(all.toArray(new String[0]))
+                .run();
+        return new BenchmarkContext(root, context);
+    }
+
+    <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    File getRoot() {
+        return root;
+    }
+
+    @Override
+    public void close() throws IOException {
+        context.close();
+        FileUtils.deleteDirectory(root);
+    }
+}
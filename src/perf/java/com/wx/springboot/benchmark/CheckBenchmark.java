@@ -0,0 +1,108 @@
+package com.wx.springboot.benchmark;
+
+import com.wx.springboot.config.FragmentPaths;
+import com.wx.springboot.domain.ChunkStatus;
+import com.wx.springboot.service.FragmentService;
+import com.wx.springboot.service.UploadSessionRegistry;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分片校验延迟：临时目录下有大量上传中的文件时 checkMd5 和 status 的耗时
+ * <p>
+ * cached=false 时每次调用前把会话移出内存，测量服务重启后首次访问从磁盘恢复的代价
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CheckBenchmark {
+
+    private static final int CHUNK_BYTES = 16;
+
+    /**
+     * 临时目录下上传中的文件数
+     */
+    @Param({"100", "10000"})
+    public int sessions;
+
+    @Param({"10", "100"})
+    public int chunkCount;
+
+    /**
+     * 会话是否已在内存中
+     */
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private BenchmarkContext context;
+    private FragmentService fragmentService;
+    private UploadSessionRegistry uploadSessionRegistry;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        context = BenchmarkContext.start();
+        fragmentService = context.getBean(FragmentService.class);
+        uploadSessionRegistry = context.getBean(UploadSessionRegistry.class);
+        FragmentPaths fragmentPaths = context.getBean(FragmentPaths.class);
+        byte[] content = new byte[CHUNK_BYTES];
+        for (int i = 0; i < sessions; i++) {
+            String guid = guid(i);
+            FileUtils.forceMkdir(fragmentPaths.getTempDir(guid));
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                File file = fragmentPaths.getChunkFile(guid, chunk);
+                Files.write(file.toPath(), content);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @Benchmark
+    public Integer checkMd5() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String guid = prepare(random.nextInt(sessions));
+        return fragmentService.checkMd5(String.valueOf(random.nextInt(chunkCount)), String.valueOf(CHUNK_BYTES), guid, 1L, null);
+    }
+
+    @Benchmark
+    public ChunkStatus status() {
+        return fragmentService.status(prepare(ThreadLocalRandom.current().nextInt(sessions)), 1L);
+    }
+
+    private String prepare(int index) {
+        String guid = guid(index);
+        if (!cached) {
+            uploadSessionRegistry.remove(guid);
+        }
+        return guid;
+    }
+
+    private static String guid(int index) {
+        return "check-" + index;
+    }
+}
@@ -0,0 +1,116 @@
+package com.wx.springboot.benchmark;
+
+import com.wx.springboot.config.FragmentPaths;
+import com.wx.springboot.service.FragmentService;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分片合并吞吐：combineBlock 在不同分片大小、分片数和合并方式下的 bytes/s
+ * <p>
+ * 分片在初始化时写入一次，合并后会话从磁盘恢复，每次调用合并同一组分片并覆盖目标文件；
+ * 数据量小于内存时分片通常在页缓存中，测量的是拷贝开销而非磁盘带宽。
+ * 超过内存的数据量通过 -Dsizes 指定分片数，如 5120KB 分片 -Dsizes=1024,4096 即 5GB 和 20GB，
+ * 临时目录需要两倍于此的空间
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(1)
+public class CombineBenchmark {
+
+    private static final String GUID = "combine-benchmark";
+    private static final String LEGACY = "LEGACY";
+
+    @Param({"1024", "5120"})
+    public int chunkSizeKb;
+
+    @Param({"16", "128"})
+    public int chunks;
+
+    /**
+     * LEGACY 为改造前的合并方式：按 1MB 的 byte[] 逐个读取分片并追加写入，作为对照
+     */
+    @Param({"LEGACY", "TRANSFER", "STREAM", "PARALLEL"})
+    public String strategy;
+
+    private BenchmarkContext context;
+    private FragmentService fragmentService;
+    private FragmentPaths fragmentPaths;
+    private long totalSize;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        context = LEGACY.equals(strategy) ? BenchmarkContext.start()
+                : BenchmarkContext.start("hzero.file.merge.strategy=" + strategy);
+        fragmentService = context.getBean(FragmentService.class);
+        fragmentPaths = context.getBean(FragmentPaths.class);
+        FileUtils.forceMkdir(fragmentPaths.getTempDir(GUID));
+        byte[] block = new byte[chunkSizeKb * 1024];
+        ThreadLocalRandom.current().nextBytes(block);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            try (RandomAccessFile file = new RandomAccessFile(fragmentPaths.getChunkFile(GUID, chunk), "rw")) {
+                file.write(block);
+            }
+        }
+        totalSize = (long) block.length * chunks;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @Benchmark
+    public String combineBlock(ByteCounter counter) throws IOException {
+        String filePath = LEGACY.equals(strategy) ? legacyCombine()
+                : fragmentService.combineBlock(GUID, GUID + ".bin").getFirst();
+        counter.bytes += totalSize;
+        return filePath;
+    }
+
+    /**
+     * 改造前 combineBlock 的拷贝循环；原实现以追加方式打开目标文件，这里改为覆盖，保证每次调用写入同样的数据量
+     */
+    private String legacyCombine() throws IOException {
+        File realFile = fragmentPaths.getRealFile(GUID, GUID + ".legacy");
+        FileUtils.forceMkdir(realFile.getParentFile());
+        try (FileOutputStream os = new FileOutputStream(realFile)) {
+            byte[] bytes = new byte[1024 * 1024];
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                try (FileInputStream fis = new FileInputStream(fragmentPaths.getChunkFile(GUID, chunk))) {
+                    int len;
+                    while ((len = fis.read(bytes)) != -1) {
+                        os.write(bytes, 0, len);
+                    }
+                }
+            }
+        }
+        return realFile.getPath();
+    }
+}
@@ -0,0 +1,171 @@
+package com.wx.springboot.benchmark;
+
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.config.FragmentExecutors;
+import com.wx.springboot.config.FragmentMetrics;
+import com.wx.springboot.domain.CombineProgress;
+import com.wx.springboot.domain.ConcatenatedFile;
+import com.wx.springboot.domain.HandlerResult;
+import com.wx.springboot.service.FileHandler;
+import com.wx.springboot.service.StreamingFileHandler;
+import com.wx.springboot.service.impl.FileHandlerPipelineImpl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.BeanUtils;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件处理器分发：多个读取整个文件的处理器依次执行、并发执行（共享一次读取），以及流式处理器直接读取分片
+ * <p>
+ * bytes 按每次分发的文件大小计，与处理器个数无关
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HandlerBenchmark {
+
+    private static final int CHUNK_SIZE = 5 * 1024 * 1024;
+    private static final Map<String, String> PARAMS = Collections.emptyMap();
+
+    @Param({"1", "4"})
+    public int handlers;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    /**
+     * stream：处理器读取合并后文件的输入流；view：流式处理器读取按顺序拼接的分片
+     */
+    @Param({"stream", "view"})
+    public String kind;
+
+    @Param({"64"})
+    public int fileSizeMb;
+
+    private File workDir;
+    private File merged;
+    private ConcatenatedFile chunks;
+    private FileHandlerPipelineImpl pipeline;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        LoggingSystem.get(getClass().getClassLoader()).setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.WARN);
+        workDir = Files.createTempDirectory("fragment-benchmark").toFile();
+        merged = new File(workDir, "merged");
+        List<File> chunkFiles = new ArrayList<>();
+        byte[] block = new byte[CHUNK_SIZE];
+        ThreadLocalRandom.current().nextBytes(block);
+        try (RandomAccessFile out = new RandomAccessFile(merged, "rw")) {
+            for (long remaining = (long) fileSizeMb * 1024 * 1024; remaining > 0; remaining -= CHUNK_SIZE) {
+                int size = (int) Math.min(CHUNK_SIZE, remaining);
+                out.write(block, 0, size);
+                File chunk = new File(workDir, String.valueOf(chunkFiles.size()));
+                try (RandomAccessFile chunkOut = new RandomAccessFile(chunk, "rw")) {
+                    chunkOut.write(block, 0, size);
+                }
+                chunkFiles.add(chunk);
+            }
+        }
+        chunks = ConcatenatedFile.of(chunkFiles);
+
+        FragmentConfig config = BeanUtils.instantiateClass(FragmentConfig.class);
+        config.getHandler().setParallel(parallel);
+        List<FileHandler> fileHandlers = new ArrayList<>();
+        for (int i = 0; i < handlers; i++) {
+            fileHandlers.add("view".equals(kind) ? new ViewReadingHandler() : new StreamReadingHandler());
+        }
+        pipeline = new FileHandlerPipelineImpl();
+        ReflectionTestUtils.setField(pipeline, "fragmentConfig", config);
+        ReflectionTestUtils.setField(pipeline, "fileHandlers", fileHandlers);
+        ReflectionTestUtils.setField(pipeline, "fragmentExecutors", new FragmentExecutors(false, 0));
+        ReflectionTestUtils.setField(pipeline, "fragmentMetrics", new FragmentMetrics(new SimpleMeterRegistry(), 1));
+        pipeline.afterPropertiesSet();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pipeline.destroy();
+        FileUtils.deleteDirectory(workDir);
+    }
+
+    @Benchmark
+    public List<HandlerResult> dispatch(ByteCounter counter) throws IOException {
+        List<HandlerResult> results = "view".equals(kind)
+                ? pipeline.process(1L, "benchmark.bin", chunks, PARAMS, CombineProgress.NONE)
+                : pipeline.process(1L, "benchmark.bin", merged.getPath(), PARAMS, CombineProgress.NONE);
+        counter.bytes += chunks.size();
+        return results;
+    }
+
+    /**
+     * 读完输入流的处理器
+     */
+    static class StreamReadingHandler implements FileHandler {
+
+        @Override
+        public String process(Long tenantId, String filename, String filePath, InputStream inputStream, Map<String, String> params) {
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                while (inputStream.read(buffer) >= 0) {
+                    // 只读取
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 读完拼接分片的流式处理器
+     */
+    static class ViewReadingHandler implements StreamingFileHandler {
+
+        @Override
+        public String process(Long tenantId, String filename, ConcatenatedFile file, Map<String, String> params) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            try (SeekableByteChannel channel = file.openChannel()) {
+                while (channel.read(buffer) >= 0) {
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.wx.springboot.benchmark;
+
+import com.wx.springboot.domain.ChunkChecksum;
+import com.wx.springboot.service.FragmentService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+
+/**
+ * 分片写入吞吐：FragmentService.upload 从输入流写盘，同时计算整个文件摘要和分片校验和
+ * <p>
+ * 每个线程反复写同一个文件的 0 号分片，摘要每次都重新计算；多线程时使用 -t 参数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadBenchmark {
+
+    @Param({"1024", "5120"})
+    public int chunkSizeKb;
+
+    /**
+     * 写盘时池化的直接缓冲区大小
+     */
+    @Param({"65536", "262144", "1048576"})
+    public int bufferSize;
+
+    /**
+     * 整个文件的摘要算法，NONE 表示不计算
+     */
+    @Param({"MD5", "NONE"})
+    public String digest;
+
+    /**
+     * 分片校验和类型，NONE 表示不校验
+     */
+    @Param({"NONE", "crc32c"})
+    public String checksum;
+
+    private BenchmarkContext context;
+    private FragmentService fragmentService;
+    private byte[] payload;
+    private ChunkChecksum chunkChecksum;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        context = BenchmarkContext.start("hzero.file.upload.buffer-size=" + bufferSize,
+                "hzero.file.upload.digest-algorithms=" + ("NONE".equals(digest) ? "" : digest));
+        fragmentService = context.getBean(FragmentService.class);
+        payload = new byte[chunkSizeKb * 1024];
+        ThreadLocalRandom.current().nextBytes(payload);
+        if (!"NONE".equals(checksum)) {
+            Checksum crc = ChunkChecksum.of(checksum, "0").newChecksum();
+            crc.update(payload, 0, payload.length);
+            chunkChecksum = ChunkChecksum.of(checksum, Long.toHexString(crc.getValue()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Upload {
+
+        final String guid = UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public void upload(Upload upload, ByteCounter counter) {
+        fragmentService.upload(new ByteArrayInputStream(payload), 0, upload.guid, 1L, chunkChecksum);
+        counter.bytes += payload.length;
+    }
+}
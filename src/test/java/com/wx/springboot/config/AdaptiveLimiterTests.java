@@ -0,0 +1,124 @@
+package com.wx.springboot.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveLimiterTests {
+
+    private static final long MEBIBYTE = 1 << 20;
+
+    /**
+     * 窗口为 0，每攒够最少样本数就调整一次上限
+     */
+    private static AdaptiveLimiter newLimiter(int initialLimit, int minLimit, int maxLimit) {
+        return new AdaptiveLimiter("test", initialLimit, minLimit, maxLimit, 1.5, 1, 0);
+    }
+
+    /**
+     * 占满上限后以相同耗时释放，保证实际并发达到上限，上限才会调整；上限小于最少样本数时重复占满
+     */
+    private static void saturate(AdaptiveLimiter limiter, long latencyNanos, int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            int samples = 0;
+            while (samples < 10) {
+                List<AdaptiveLimiter.Permit> permits = new ArrayList<>();
+                AdaptiveLimiter.Permit permit;
+                while ((permit = limiter.tryAcquire()) != null) {
+                    permits.add(permit);
+                }
+                for (AdaptiveLimiter.Permit p : permits) {
+                    p.release(latencyNanos);
+                }
+                samples += permits.size();
+            }
+        }
+    }
+
+    @Test
+    void rejectsAboveLimit() {
+        AdaptiveLimiter limiter = newLimiter(2, 1, 10);
+        AdaptiveLimiter.Permit first = limiter.tryAcquire();
+        assertNotNull(first);
+        assertNotNull(limiter.tryAcquire());
+        assertNull(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+
+        first.cancel();
+        assertNotNull(limiter.tryAcquire());
+    }
+
+    @Test
+    void releaseAndCancelAreIdempotent() {
+        AdaptiveLimiter limiter = newLimiter(4, 1, 10);
+        AdaptiveLimiter.Permit released = limiter.tryAcquire();
+        AdaptiveLimiter.Permit cancelled = limiter.tryAcquire();
+        assertEquals(2, limiter.getInFlight());
+
+        released.release(1);
+        released.release(1);
+        released.cancel();
+        assertEquals(1, limiter.getInFlight());
+
+        cancelled.cancel();
+        cancelled.cancel();
+        cancelled.release(1);
+        assertEquals(0, limiter.getInFlight());
+
+        AdaptiveLimiter.Permit.NONE.release(1);
+        AdaptiveLimiter.Permit.NONE.cancel();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void growsWhileLatencyIsStable() {
+        AdaptiveLimiter limiter = newLimiter(10, 1, 100);
+        saturate(limiter, TimeUnit.MILLISECONDS.toNanos(10), 5);
+        assertTrue(limiter.getLimit() > 10, "limit " + limiter.getLimit());
+    }
+
+    @Test
+    void shrinksWhenLatencyRises() {
+        AdaptiveLimiter limiter = newLimiter(50, 1, 100);
+        saturate(limiter, TimeUnit.MILLISECONDS.toNanos(10), 3);
+        int before = limiter.getLimit();
+        saturate(limiter, TimeUnit.MILLISECONDS.toNanos(100), 3);
+        assertTrue(limiter.getLimit() < before, "limit " + before + " -> " + limiter.getLimit());
+    }
+
+    @Test
+    void limitStaysWithinBounds() {
+        AdaptiveLimiter growing = newLimiter(10, 5, 12);
+        saturate(growing, TimeUnit.MILLISECONDS.toNanos(10), 20);
+        assertEquals(12, growing.getLimit());
+
+        AdaptiveLimiter shrinking = newLimiter(10, 5, 12);
+        saturate(shrinking, TimeUnit.MILLISECONDS.toNanos(1), 1);
+        for (int i = 1; i <= 10; i++) {
+            saturate(shrinking, TimeUnit.MILLISECONDS.toNanos(1) << i, 1);
+        }
+        assertEquals(5, shrinking.getLimit());
+
+        AdaptiveLimiter clamped = newLimiter(100, 5, 12);
+        assertEquals(12, clamped.getLimit());
+    }
+
+    @Test
+    void perMebibyteIsContinuous() {
+        assertEquals(1000, AdaptiveLimiter.perMebibyte(1000, 1));
+        assertEquals(1000, AdaptiveLimiter.perMebibyte(1000, MEBIBYTE));
+        assertEquals(500, AdaptiveLimiter.perMebibyte(1000, 2 * MEBIBYTE));
+        assertEquals(800, AdaptiveLimiter.perMebibyte(1000, MEBIBYTE + MEBIBYTE / 4));
+        // 整 MiB 前后不跳变
+        long below = AdaptiveLimiter.perMebibyte(1_000_000, 2 * MEBIBYTE - 1);
+        long at = AdaptiveLimiter.perMebibyte(1_000_000, 2 * MEBIBYTE);
+        assertTrue(below - at <= 1, below + " -> " + at);
+    }
+}
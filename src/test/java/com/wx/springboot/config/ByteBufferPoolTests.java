@@ -0,0 +1,35 @@
+package com.wx.springboot.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteBufferPoolTests {
+
+    @Test
+    void fallsBackToHeapAboveLimit() {
+        ByteBufferPool pool = new ByteBufferPool(16, 1, 2);
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        ByteBuffer third = pool.acquire();
+        assertTrue(first.isDirect());
+        assertTrue(second.isDirect());
+        assertFalse(third.isDirect());
+        assertEquals(16, third.capacity());
+        assertEquals(2, pool.getAllocated());
+
+        // 堆内缓冲区不入池，池满时丢弃的直接缓冲区不再计数
+        pool.release(third);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1, pool.getAllocated());
+        assertSame(first, pool.acquire());
+        assertTrue(pool.acquire().isDirect());
+        assertEquals(2, pool.getAllocated());
+    }
+}
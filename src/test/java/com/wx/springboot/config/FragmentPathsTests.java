@@ -0,0 +1,173 @@
+package com.wx.springboot.config;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.BeanUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FragmentPathsTests {
+
+    private static final String GUID = "947c81963e344abc8dec5b3fc8ada273";
+    private static final String OTHER_GUID = "upload_1";
+    private static final String TRASH = FragmentPaths.TRASH_PREFIX + GUID + "-1";
+    private static final String SHA256 = "c8f4ff1cd9b7dea26f92ffa78fbc02e7b932acd4b745909d7436462ffd0bbc0b";
+    private static final String MD5 = "5d41402abc4b2a76b9719d911017c592";
+    private static final long SIZE = 5;
+
+    @TempDir
+    Path root;
+
+    private FragmentPaths paths(int shardDepth, boolean migrate) {
+        FragmentConfig config = BeanUtils.instantiateClass(FragmentConfig.class).setRootPath(root.toString());
+        config.getLayout().setShardDepth(shardDepth).setMigrate(migrate);
+        FragmentPaths paths = new FragmentPaths();
+        ReflectionTestUtils.setField(paths, "fragmentConfig", config);
+        return paths;
+    }
+
+    private FragmentPaths start(int shardDepth) {
+        FragmentPaths paths = paths(shardDepth, true);
+        paths.afterPropertiesSet();
+        return paths;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileUtils.forceMkdir(file.getParentFile());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 按给定的布局写入一个直写会话、一个分片会话、一个 .trash 目录和一个秒传文件
+     */
+    private void populate(FragmentPaths paths) throws IOException {
+        write(new File(paths.getTempDir(GUID), "0"), "chunk");
+        write(paths.getMetaFile(GUID), "meta");
+        write(new File(paths.getTempDir(OTHER_GUID), "3"), "other");
+        write(new File(paths.getTempShards().get(0), TRASH + File.separator + "0"), "trash");
+        write(paths.getStoreFile(SHA256, SIZE), "hello");
+        write(paths.getStoreRefFile(SHA256, SIZE), "tenant.1=1");
+        write(paths.getStoreAliasFile(MD5, SIZE), SHA256);
+    }
+
+    private void assertPopulated(FragmentPaths paths) throws IOException {
+        assertEquals("chunk", read(new File(paths.getTempDir(GUID), "0")));
+        assertEquals("meta", read(paths.getMetaFile(GUID)));
+        assertEquals("other", read(new File(paths.getTempDir(OTHER_GUID), "3")));
+        assertEquals("hello", read(paths.getStoreFile(SHA256, SIZE)));
+        assertEquals("tenant.1=1", read(paths.getStoreRefFile(SHA256, SIZE)));
+        assertEquals(SHA256, read(paths.getStoreAliasFile(MD5, SIZE)));
+        int trash = 0;
+        for (File shard : paths.getTempShards()) {
+            File dir = new File(shard, TRASH);
+            if (dir.isDirectory()) {
+                assertEquals("trash", read(new File(dir, "0")));
+                trash++;
+            }
+        }
+        assertEquals(1, trash);
+    }
+
+    private int layout() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream is = new FileInputStream(root.resolve(FragmentPaths.LAYOUT).toFile())) {
+            properties.load(is);
+        }
+        return Integer.parseInt(properties.getProperty("shardDepth"));
+    }
+
+    @Test
+    void shardsByDepth() {
+        File flat = paths(0, true).getTempDir(GUID);
+        assertEquals(root.resolve("temp").resolve(GUID).toFile(), flat);
+        File sharded = paths(2, true).getTempDir(GUID);
+        assertEquals(GUID, sharded.getName());
+        assertEquals(root.resolve("temp").toFile(), sharded.getParentFile().getParentFile().getParentFile());
+        assertEquals(sharded.getParentFile().getParentFile().getName(),
+                paths(1, true).getTempDir(GUID).getParentFile().getName());
+        assertThrows(IllegalArgumentException.class, () -> paths(2, true).getTempDir("../x"));
+    }
+
+    @Test
+    void migratesFlatLayout() throws IOException {
+        populate(paths(0, true));
+
+        FragmentPaths paths = start(2);
+        assertPopulated(paths);
+        assertFalse(root.resolve("temp").resolve(GUID).toFile().exists());
+        assertFalse(root.resolve("temp").resolve(TRASH).toFile().exists());
+        assertFalse(root.resolve("store").resolve(SHA256 + "-" + SIZE).toFile().exists());
+        assertFalse(root.resolve("store").resolve(SHA256 + "-" + SIZE + FragmentPaths.STORE_REF).toFile().exists());
+        assertFalse(root.resolve("store").resolve(MD5 + "-" + SIZE + FragmentPaths.STORE_ALIAS).toFile().exists());
+        assertEquals(2, layout());
+    }
+
+    @Test
+    void resumesInterruptedMigration() throws IOException {
+        // 上次迁移到一半：一部分已在分层目录中，没有写入 .layout
+        populate(paths(0, true));
+        FragmentPaths sharded = paths(2, true);
+        FileUtils.moveDirectory(paths(0, true).getTempDir(GUID), sharded.getTempDir(GUID));
+
+        assertPopulated(start(2));
+        assertEquals(2, layout());
+    }
+
+    @Test
+    void reshardsBetweenDepths() throws IOException {
+        populate(start(2));
+        assertEquals(2, layout());
+
+        assertPopulated(start(1));
+        assertEquals(1, layout());
+        List<File> shards = paths(1, true).getTempShards();
+        for (File shard : shards) {
+            // 多余的一层已删除
+            assertEquals(0, shard.listFiles(file -> file.isDirectory() && file.getName().length() == 2).length);
+        }
+
+        assertPopulated(start(3));
+        assertEquals(3, layout());
+
+        assertPopulated(start(0));
+        assertEquals(0, layout());
+        String[] temp = root.resolve("temp").toFile().list();
+        assertEquals(3, temp.length);
+    }
+
+    @Test
+    void refusesDepthChangeWithoutMigration() throws IOException {
+        populate(start(2));
+
+        assertThrows(IllegalStateException.class, () -> paths(1, false).afterPropertiesSet());
+        paths(2, false).afterPropertiesSet();
+        assertPopulated(paths(2, false));
+    }
+
+    @Test
+    void keepsLegacyLayoutWithoutMigration() throws IOException {
+        populate(paths(0, true));
+
+        paths(2, false).afterPropertiesSet();
+        assertFalse(root.resolve(FragmentPaths.LAYOUT).toFile().exists());
+        assertPopulated(paths(0, true));
+    }
+}
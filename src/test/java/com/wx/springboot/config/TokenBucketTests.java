@@ -0,0 +1,85 @@
+package com.wx.springboot.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTests {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 速率低到测试期间补充的令牌可以忽略
+     */
+    private static TokenBucket newBucket(long burstTokens) {
+        return new TokenBucket(1, burstTokens * SECOND);
+    }
+
+    @Test
+    void burstLimitsAcquire() {
+        TokenBucket bucket = newBucket(10);
+        assertTrue(bucket.tryAcquire(6));
+        assertTrue(bucket.tryAcquire(4));
+        assertFalse(bucket.tryAcquire(1));
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(new TokenBucket(1, SECOND).tryAcquire(2));
+    }
+
+    @Test
+    void refillsAtRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000, TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue(bucket.tryAcquire(10));
+        assertFalse(bucket.tryAcquire(5));
+        long wait = bucket.waitNanos(5);
+        assertTrue(wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(5), "wait " + wait);
+        Thread.sleep(20);
+        assertTrue(bucket.tryAcquire(10));
+    }
+
+    @Test
+    void consumeGoesIntoDebt() {
+        TokenBucket bucket = newBucket(10);
+        bucket.consume(15);
+        assertFalse(bucket.tryAcquire(0));
+        long wait = bucket.waitNanos(0);
+        assertTrue(wait > 4 * SECOND && wait <= 5 * SECOND, "wait " + wait);
+    }
+
+    @Test
+    void debtIsCappedAtBurst() {
+        TokenBucket bucket = newBucket(10);
+        bucket.consume(1000);
+        assertTrue(bucket.waitNanos(0) <= 10 * SECOND, "wait " + bucket.waitNanos(0));
+        assertFalse(bucket.tryConsume(1));
+
+        TokenBucket reserved = newBucket(10);
+        assertTrue(reserved.tryConsume(1000));
+        assertTrue(reserved.waitNanos(0) <= 10 * SECOND, "wait " + reserved.waitNanos(0));
+    }
+
+    @Test
+    void tryConsumeRejectsOnlyWhenInDebt() {
+        TokenBucket bucket = newBucket(10);
+        // 余额不足也放行，欠下的部分由之后的请求等待
+        assertTrue(bucket.tryConsume(8));
+        assertTrue(bucket.tryConsume(8));
+        assertFalse(bucket.tryConsume(1));
+        assertFalse(bucket.tryConsume(0));
+    }
+
+    @Test
+    void refundStopsAtFull() {
+        TokenBucket bucket = newBucket(10);
+        bucket.consume(15);
+        bucket.refund(5);
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(1));
+
+        bucket.refund(100);
+        assertTrue(bucket.tryAcquire(10));
+        assertFalse(bucket.tryAcquire(1));
+    }
+}
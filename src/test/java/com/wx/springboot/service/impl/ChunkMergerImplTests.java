@@ -0,0 +1,136 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.FragmentConfig;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.beans.BeanUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 各合并方式的结果必须逐字节一致
+ */
+class ChunkMergerImplTests {
+
+    private static final int BUFFER_SIZE = 4096;
+    /**
+     * 包含空分片、小于和大于缓冲区的分片，分片数超过并行合并的拆分阈值
+     */
+    private static final int[] CHUNK_SIZES = {10000, 10000, 0, 4096, 1, 10000, 12345, 4095, 10000, 7, 10000, 3};
+
+    @TempDir
+    Path root;
+
+    private List<File> chunks(byte[] expected) throws IOException {
+        List<File> chunks = new ArrayList<>();
+        int offset = 0;
+        for (int i = 0; i < CHUNK_SIZES.length; i++) {
+            Path chunk = root.resolve(String.valueOf(i));
+            Files.write(chunk, Arrays.copyOfRange(expected, offset, offset + CHUNK_SIZES[i]));
+            chunks.add(chunk.toFile());
+            offset += CHUNK_SIZES[i];
+        }
+        return chunks;
+    }
+
+    private static byte[] content() {
+        int total = 0;
+        for (int size : CHUNK_SIZES) {
+            total += size;
+        }
+        byte[] bytes = new byte[total];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static ChunkMergerImpl merger(FragmentConfig.MergeStrategy strategy, boolean fallback) {
+        FragmentConfig config = BeanUtils.instantiateClass(FragmentConfig.class);
+        config.getMerge().setStrategy(strategy);
+        config.getMerge().setFallback(fallback);
+        config.getMerge().setBufferSize(BUFFER_SIZE);
+        config.getMerge().setParallelism(4);
+        ChunkMergerImpl merger = new ChunkMergerImpl();
+        ReflectionTestUtils.setField(merger, "fragmentConfig", config);
+        return merger;
+    }
+
+    private byte[] merge(FragmentConfig.MergeStrategy strategy, boolean fallback, List<File> chunks, File target) {
+        ChunkMergerImpl merger = merger(strategy, fallback);
+        try {
+            AtomicLong reported = new AtomicLong();
+            long size = merger.merge(chunks, target, reported::addAndGet);
+            assertEquals(target.length(), size);
+            assertEquals(size, reported.get());
+            return Files.readAllBytes(target.toPath());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            merger.destroy();
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(FragmentConfig.MergeStrategy.class)
+    void mergesInOrder(FragmentConfig.MergeStrategy strategy) throws IOException {
+        byte[] expected = content();
+        File target = root.resolve("merged").toFile();
+        assertArrayEquals(expected, merge(strategy, true, chunks(expected), target));
+    }
+
+    @ParameterizedTest
+    @EnumSource(FragmentConfig.MergeStrategy.class)
+    void overwritesLongerTarget(FragmentConfig.MergeStrategy strategy) throws IOException {
+        byte[] expected = content();
+        File target = root.resolve("merged").toFile();
+        Files.write(target.toPath(), new byte[expected.length * 2]);
+        assertArrayEquals(expected, merge(strategy, true, chunks(expected), target));
+    }
+
+    @Test
+    void strategiesProduceIdenticalOutput() throws IOException {
+        byte[] expected = content();
+        List<File> chunks = chunks(expected);
+        byte[] first = null;
+        for (FragmentConfig.MergeStrategy strategy : FragmentConfig.MergeStrategy.values()) {
+            for (boolean fallback : new boolean[]{true, false}) {
+                File target = root.resolve(strategy + "-" + fallback).toFile();
+                byte[] merged = merge(strategy, fallback, chunks, target);
+                if (first == null) {
+                    first = merged;
+                }
+                assertArrayEquals(first, merged, strategy + ", fallback " + fallback);
+            }
+        }
+        assertArrayEquals(expected, first);
+    }
+
+    @ParameterizedTest
+    @EnumSource(FragmentConfig.MergeStrategy.class)
+    void mergesSingleAndEmptyChunk(FragmentConfig.MergeStrategy strategy) throws IOException {
+        Path single = Files.write(root.resolve("single"), new byte[]{1, 2, 3});
+        Path empty = Files.write(root.resolve("empty"), new byte[0]);
+        File target = root.resolve("merged").toFile();
+        List<File> chunks = new ArrayList<>();
+        chunks.add(single.toFile());
+        assertArrayEquals(new byte[]{1, 2, 3}, merge(strategy, true, chunks, target));
+        chunks.set(0, empty.toFile());
+        assertArrayEquals(new byte[0], merge(strategy, true, chunks, target));
+        chunks.add(single.toFile());
+        assertArrayEquals(new byte[]{1, 2, 3}, merge(strategy, true, chunks, target));
+    }
+}
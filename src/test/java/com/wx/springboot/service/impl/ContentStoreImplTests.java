@@ -0,0 +1,149 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.config.FragmentPaths;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.BeanUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentStoreImplTests {
+
+    private static final String SHA256 = "c8f4ff1cd9b7dea26f92ffa78fbc02e7b932acd4b745909d7436462ffd0bbc0b";
+    private static final String MD5 = "947c81963e344abc8dec5b3fc8ada273";
+    private static final long SIZE = 5;
+    private static final Long TENANT = 1L;
+    private static final Long OTHER_TENANT = 2L;
+
+    @TempDir
+    Path root;
+
+    private FragmentPaths fragmentPaths;
+    private ContentStoreImpl contentStore;
+
+    @BeforeEach
+    void setUp() {
+        FragmentConfig config = BeanUtils.instantiateClass(FragmentConfig.class).setRootPath(root.toString());
+        fragmentPaths = new FragmentPaths();
+        ReflectionTestUtils.setField(fragmentPaths, "fragmentConfig", config);
+        contentStore = newContentStore();
+    }
+
+    private ContentStoreImpl newContentStore() {
+        ContentStoreImpl store = new ContentStoreImpl();
+        ReflectionTestUtils.setField(store, "fragmentPaths", fragmentPaths);
+        return store;
+    }
+
+    private File source() throws IOException {
+        Path source = Files.createTempFile(root, "merged", ".bin");
+        Files.write(source, "hello".getBytes(StandardCharsets.US_ASCII));
+        return source.toFile();
+    }
+
+    @Test
+    void putStoresOnceAndDeletesDuplicateSource() throws IOException {
+        File first = source();
+        File stored = contentStore.put(SHA256, MD5, SIZE, TENANT, first);
+        assertTrue(stored.isFile());
+        assertFalse(first.exists());
+
+        File second = source();
+        assertEquals(stored, contentStore.put(SHA256, MD5, SIZE, OTHER_TENANT, second));
+        assertFalse(second.exists());
+        assertTrue(fragmentPaths.getStoreAliasFile(MD5, SIZE).isFile());
+    }
+
+    @Test
+    void retainRequiresOwnReference() throws IOException {
+        contentStore.put(SHA256, MD5, SIZE, TENANT, source());
+
+        assertNotNull(contentStore.retain(SHA256, SIZE, TENANT));
+        assertNotNull(contentStore.retain(MD5, SIZE, TENANT));
+        assertNull(contentStore.retain(SHA256, SIZE, OTHER_TENANT));
+        assertNull(contentStore.retain(MD5, SIZE, OTHER_TENANT));
+        assertNull(contentStore.retain(SHA256, SIZE + 1, TENANT));
+    }
+
+    @Test
+    void releaseOnlyOwnReferenceAndDeleteWithLast() throws IOException {
+        File stored = contentStore.put(SHA256, MD5, SIZE, TENANT, source());
+        contentStore.put(SHA256, MD5, SIZE, OTHER_TENANT, source());
+
+        assertFalse(contentStore.release(SHA256, SIZE, 3L));
+        assertTrue(contentStore.release(SHA256, SIZE, TENANT));
+        assertFalse(contentStore.release(SHA256, SIZE, TENANT));
+        assertTrue(stored.isFile());
+
+        assertTrue(contentStore.release(MD5, SIZE, OTHER_TENANT));
+        assertFalse(stored.exists());
+        assertFalse(fragmentPaths.getStoreRefFile(SHA256, SIZE).exists());
+        assertFalse(fragmentPaths.getStoreAliasFile(MD5, SIZE).exists());
+        assertNull(contentStore.retain(SHA256, SIZE, OTHER_TENANT));
+    }
+
+    @Test
+    void referencesSurviveRestart() throws IOException {
+        contentStore.put(SHA256, MD5, SIZE, TENANT, source());
+        contentStore.retain(SHA256, SIZE, TENANT);
+
+        ContentStoreImpl restarted = newContentStore();
+        assertNull(restarted.retain(MD5, SIZE, OTHER_TENANT));
+        assertTrue(restarted.release(SHA256, SIZE, TENANT));
+        assertTrue(restarted.release(SHA256, SIZE, TENANT));
+        assertFalse(fragmentPaths.getStoreFile(SHA256, SIZE).exists());
+    }
+
+    @Test
+    void concurrentRetainAndRelease() throws Exception {
+        int threads = 8;
+        int rounds = 200;
+        File stored = contentStore.put(SHA256, MD5, SIZE, TENANT, source());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < rounds; j++) {
+                        assertNotNull(contentStore.retain(SHA256, SIZE, TENANT));
+                        assertTrue(contentStore.release(SHA256, SIZE, TENANT));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // 只剩 put 的一个引用
+        assertTrue(stored.isFile());
+        assertTrue(newContentStore().release(SHA256, SIZE, TENANT));
+        assertFalse(stored.exists());
+    }
+}
@@ -0,0 +1,269 @@
+package com.wx.springboot.service.impl;
+
+import com.wx.springboot.config.FragmentConfig;
+import com.wx.springboot.config.FragmentPaths;
+import com.wx.springboot.domain.UploadSession;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.BeanUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadSessionRegistryImplTests {
+
+    private static final String GUID = "c8f4ff1cd9b7dea26f92ffa78fbc02e7";
+    private static final Long TENANT_ID = 7L;
+
+    @TempDir
+    Path root;
+
+    private FragmentPaths fragmentPaths;
+    private UploadSessionRegistryImpl registry;
+
+    @BeforeEach
+    void setUp() {
+        FragmentConfig config = BeanUtils.instantiateClass(FragmentConfig.class).setRootPath(root.toString());
+        fragmentPaths = new FragmentPaths();
+        ReflectionTestUtils.setField(fragmentPaths, "fragmentConfig", config);
+        registry = newRegistry();
+    }
+
+    private UploadSessionRegistryImpl newRegistry() {
+        UploadSessionRegistryImpl created = new UploadSessionRegistryImpl();
+        ReflectionTestUtils.setField(created, "fragmentPaths", fragmentPaths);
+        return created;
+    }
+
+    private void writeChunk(String guid, int chunk, int length) throws IOException {
+        File file = fragmentPaths.getChunkFile(guid, chunk);
+        FileUtils.forceMkdir(file.getParentFile());
+        Files.write(file.toPath(), new byte[length]);
+    }
+
+    @Test
+    void getRemembersMissingSession() throws IOException {
+        assertNull(registry.get(GUID));
+        // 已知不存在的 guid 不再访问磁盘
+        writeChunk(GUID, 0, 10);
+        assertNull(registry.get(GUID));
+
+        UploadSession session = registry.getOrCreate(GUID, TENANT_ID);
+        assertEquals(10, session.getReceivedBytes());
+        assertSame(session, registry.get(GUID));
+
+        registry.remove(GUID);
+        FileUtils.deleteDirectory(fragmentPaths.getTempDir(GUID));
+        assertNull(registry.get(GUID));
+        writeChunk(GUID, 0, 10);
+        assertNull(registry.get(GUID));
+    }
+
+    @Test
+    void expireRenamesIdleSession() throws IOException {
+        UploadSession session = registry.getOrCreate(GUID, TENANT_ID);
+        writeChunk(GUID, 0, 10);
+        registry.chunkReceived(session, 0, 10);
+
+        File trash = registry.expire(GUID, System.currentTimeMillis() + 1);
+        assertNotNull(trash);
+        assertTrue(FragmentPaths.isTrash(trash));
+        assertTrue(new File(trash, "0").isFile());
+        assertFalse(fragmentPaths.getTempDir(GUID).exists());
+        assertTrue(session.isExpired());
+        assertFalse(session.beginWrite());
+        assertNull(registry.get(GUID));
+        assertNotSame(session, registry.getOrCreate(GUID, TENANT_ID));
+    }
+
+    @Test
+    void expireSkipsSessionWithWriter() throws IOException {
+        UploadSession session = registry.getOrCreate(GUID, TENANT_ID);
+        writeChunk(GUID, 0, 10);
+        assertTrue(session.beginWrite());
+
+        assertNull(registry.expire(GUID, Long.MAX_VALUE));
+        assertFalse(session.isExpired());
+        assertSame(session, registry.get(GUID));
+        assertTrue(fragmentPaths.getTempDir(GUID).isDirectory());
+
+        session.endWrite();
+        assertNotNull(registry.expire(GUID, Long.MAX_VALUE));
+        assertTrue(session.isExpired());
+    }
+
+    @Test
+    void expireSkipsRecentlyActiveSession() throws IOException {
+        UploadSession session = registry.getOrCreate(GUID, TENANT_ID);
+        writeChunk(GUID, 0, 10);
+        session.touch();
+
+        assertNull(registry.expire(GUID, session.getLastActivityTime()));
+        assertFalse(session.isExpired());
+    }
+
+    @Test
+    void expireRestoresUnloadedSession() throws IOException {
+        writeChunk(GUID, 0, 10);
+
+        assertNull(registry.expire(GUID, 0));
+        assertNotNull(registry.get(GUID));
+        assertEquals(10, registry.get(GUID).getReceivedBytes());
+
+        assertNotNull(newRegistry().expire(GUID, Long.MAX_VALUE));
+        assertFalse(fragmentPaths.getTempDir(GUID).exists());
+    }
+
+    @Test
+    void scannedSessionIsUnloadedUntilRestored() {
+        UploadSession session = registry.getOrCreate(GUID, TENANT_ID);
+        registry.declare(session, TENANT_ID, "a.bin", 25, 3);
+        // 未声明大小的会话不登记
+        registry.getOrCreate("d41d8cd98f00b204e9800998ecf8427e", TENANT_ID);
+
+        UploadSessionRegistryImpl restarted = newRegistry();
+        restarted.scanned(GUID);
+        restarted.scanned("d41d8cd98f00b204e9800998ecf8427e");
+        assertEquals(1, restarted.unloaded().size());
+        UploadSession declared = restarted.unloaded().iterator().next();
+        assertEquals(25, declared.getTotalSize());
+        assertFalse(declared.isDirect());
+        assertEquals(0, declared.getReceivedBytes());
+
+        assertNotNull(restarted.get(GUID));
+        assertTrue(restarted.unloaded().isEmpty());
+        // 已在内存中的会话不登记
+        restarted.scanned(GUID);
+        assertTrue(restarted.unloaded().isEmpty());
+    }
+
+    @Test
+    void restoreChunkedSessionWithDeclaration() throws IOException {
+        UploadSession session = registry.getOrCreate(GUID, TENANT_ID);
+        registry.declare(session, 7L, "a.bin", 25, 3);
+        for (int chunk = 0; chunk < 2; chunk++) {
+            writeChunk(GUID, chunk, 10);
+            registry.chunkReceived(session, chunk, 10);
+        }
+
+        UploadSession restored = newRegistry().get(GUID);
+        assertNotNull(restored);
+        assertFalse(restored.isDirect());
+        assertEquals(25, restored.getTotalSize());
+        assertEquals(3, restored.getChunkCount());
+        assertEquals(Long.valueOf(7), restored.getTenantId());
+        assertEquals("a.bin", restored.getFileName());
+        assertEquals(2, restored.getReceivedCount());
+        assertEquals(20, restored.getReceivedBytes());
+        assertFalse(restored.isValidChunk(3));
+    }
+
+    @Test
+    void restoreChunkedSessionKeepsOwner() throws IOException {
+        UploadSession session = registry.getOrCreate(GUID, TENANT_ID);
+        writeChunk(GUID, 0, 10);
+        registry.chunkReceived(session, 0, 10);
+        // 其他租户的声明不改变所有者
+        registry.declare(session, 8L, "a.bin", 10, 1);
+        assertFalse(session.isOwnedBy(8L));
+
+        UploadSession restored = newRegistry().get(GUID);
+        assertEquals(TENANT_ID, restored.getTenantId());
+        assertTrue(restored.isOwnedBy(TENANT_ID));
+        assertFalse(restored.isOwnedBy(8L));
+        assertEquals(1, restored.getChunkCount());
+    }
+
+    @Test
+    void restoreChunkedSessionDiscardsIncompleteChunks() throws IOException {
+        UploadSession session = registry.getOrCreate(GUID, TENANT_ID);
+        registry.declare(session, null, null, 25, 3);
+        writeChunk(GUID, 0, 10);
+        registry.chunkReceived(session, 0, 10);
+        writeChunk(GUID, 1, 10);
+        registry.chunkReceived(session, 1, 10);
+        writeChunk(GUID, 2, 5);
+        registry.chunkReceived(session, 2, 5);
+        // 停机前分片 1 重传了一半，分片 2 已作废，分片 3 未写完没有日志
+        writeChunk(GUID, 1, 4);
+        registry.chunkDiscarded(session, 2);
+        writeChunk(GUID, 3, 3);
+
+        UploadSession restored = newRegistry().get(GUID);
+        assertTrue(restored.isReceived(0));
+        assertFalse(restored.isReceived(1));
+        assertFalse(restored.isReceived(2));
+        assertFalse(restored.isReceived(3));
+        assertEquals(10, restored.getReceivedBytes());
+        assertFalse(fragmentPaths.getChunkFile(GUID, 1).exists());
+    }
+
+    @Test
+    void restoreChunkedSessionUsesLatestLength() throws IOException {
+        UploadSession session = registry.getOrCreate(GUID, TENANT_ID);
+        writeChunk(GUID, 0, 10);
+        registry.chunkReceived(session, 0, 10);
+        writeChunk(GUID, 0, 12);
+        registry.chunkReceived(session, 0, 12);
+
+        UploadSession restored = newRegistry().get(GUID);
+        assertEquals(-1, restored.getChunkCount());
+        assertEquals(12, restored.getChunkLength(0));
+    }
+
+    @Test
+    void restoreLegacyChunkedSession() throws IOException {
+        writeChunk(GUID, 0, 10);
+        writeChunk(GUID, 1, 6);
+
+        UploadSession restored = registry.get(GUID);
+        assertEquals(2, restored.getReceivedCount());
+        assertEquals(16, restored.getReceivedBytes());
+    }
+
+    @Test
+    void restoreDirectSession() {
+        UploadSession session = registry.createDirect(GUID, 7L, "a.bin", 25, 10);
+        registry.chunkReceived(session, 0, 10);
+        registry.chunkReceived(session, 2, 5);
+        registry.chunkReceived(session, 1, 10);
+        registry.chunkDiscarded(session, 1);
+
+        UploadSession restored = newRegistry().get(GUID);
+        assertTrue(restored.isDirect());
+        assertEquals(25, restored.getTotalSize());
+        assertEquals(10, restored.getChunkSize());
+        assertEquals(3, restored.getChunkCount());
+        assertEquals(Long.valueOf(7), restored.getTenantId());
+        assertEquals("a.bin", restored.getFileName());
+        assertTrue(restored.isReceived(0));
+        assertFalse(restored.isReceived(1));
+        assertTrue(restored.isReceived(2));
+        assertEquals(15, restored.getReceivedBytes());
+    }
+
+    @Test
+    void restoreIgnoresTruncatedJournalRecord() throws IOException {
+        UploadSession session = registry.createDirect(GUID, null, null, 20, 10);
+        registry.chunkReceived(session, 0, 10);
+        Files.write(fragmentPaths.getJournalFile(GUID).toPath(), new byte[]{0, 0}, StandardOpenOption.APPEND);
+
+        UploadSession restored = newRegistry().get(GUID);
+        assertEquals(1, restored.getReceivedCount());
+    }
+}